@@ -26,13 +26,18 @@ import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import org.apache.commons.collections4.map.LRUMap;
 
 import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
 
 @DefaultSerializer(AbstractUserAgentAnalyzer.KryoSerializer.class)
 public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect implements Serializable {
     public static final int DEFAULT_PARSE_CACHE_SIZE = 10000;
 
     protected int cacheSize = DEFAULT_PARSE_CACHE_SIZE;
-    private transient LRUMap<String, ImmutableUserAgent> parseCache = null;
+    // The full results are cached with the useragent string as the key.
+    // The results of parse(String, FieldSet) only have some of the fields so these are cached
+    // in the same cache with a FieldSetCacheKey so all results together never exceed the cacheSize.
+    private transient LRUMap<Object, ImmutableUserAgent> parseCache = null;
 
     protected AbstractUserAgentAnalyzer() {
         super();
@@ -113,6 +118,26 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
         return cacheSize;
     }
 
+    /**
+     * Copy all the cached parse results of an other analyzer into the cache of this analyzer.
+     * @param other The analyzer of which the cached results must be retained.
+     */
+    synchronized void copyCacheFrom(AbstractUserAgentAnalyzer other) {
+        if (parseCache == null || other == this) {
+            return;
+        }
+        synchronized (other) {
+            if (other.parseCache != null) {
+                // The FieldSets of the other analyzer cannot be used with this analyzer.
+                for (Map.Entry<Object, ImmutableUserAgent> entry : other.parseCache.entrySet()) {
+                    if (!(entry.getKey() instanceof FieldSetCacheKey)) {
+                        parseCache.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public synchronized ImmutableUserAgent parse(MutableUserAgent userAgent) {
         if (userAgent == null) {
@@ -135,6 +160,91 @@ public class AbstractUserAgentAnalyzer extends AbstractUserAgentAnalyzerDirect i
         return cachedValue;
     }
 
+    @Override
+    public synchronized ImmutableUserAgent parse(String userAgentString, FieldSet fieldSet) {
+        verifyOwner(fieldSet);
+        if (parseCache == null) {
+            return super.parse(userAgentString, fieldSet);
+        }
+        ImmutableUserAgent cachedValue = parseCache.get(userAgentString);
+        if (cachedValue != null) {
+            return cachedValue; // A full result also has all the requested fields
+        }
+
+        FieldSetCacheKey fieldSetCacheKey = new FieldSetCacheKey(fieldSet, userAgentString);
+        cachedValue = parseCache.get(fieldSetCacheKey);
+        if (cachedValue == null) {
+            cachedValue = super.parse(userAgentString, fieldSet);
+            parseCache.put(fieldSetCacheKey, cachedValue);
+        }
+        return cachedValue;
+    }
+
+    /**
+     * The key of a cached result of parse(String, FieldSet).
+     * A FieldSet has no equals of its own so only the same FieldSet instance gives the same key.
+     */
+    private static final class FieldSetCacheKey {
+        private final FieldSet fieldSet;
+        private final String   userAgentString;
+        private final int      hash;
+
+        FieldSetCacheKey(FieldSet fieldSet, String userAgentString) {
+            this.fieldSet = fieldSet;
+            this.userAgentString = userAgentString;
+            this.hash = 31 * System.identityHashCode(fieldSet) + Objects.hashCode(userAgentString);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FieldSetCacheKey)) {
+                return false;
+            }
+            FieldSetCacheKey other = (FieldSetCacheKey) o;
+            return fieldSet == other.fieldSet && Objects.equals(userAgentString, other.userAgentString);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Override
+    public synchronized void parse(CharSequence input, UserAgentResultSink sink) {
+        if (parseCache == null) {
+            super.parse(input, sink);
+            return;
+        }
+        ImmutableUserAgent cachedValue = parseCache.get(input == null ? null : input.toString());
+        if (cachedValue == null) {
+            // Caching this would require the ImmutableUserAgent that the sink is meant to avoid.
+            super.parse(input, sink);
+            return;
+        }
+        cachedValue.forEachAvailableField(sink);
+    }
+
+    @Override
+    public synchronized void parse(CharSequence input, int[] fieldOrdinals, UserAgentResultSink sink) {
+        if (parseCache == null) {
+            super.parse(input, fieldOrdinals, sink);
+            return;
+        }
+        ImmutableUserAgent cachedValue = parseCache.get(input == null ? null : input.toString());
+        if (cachedValue == null) {
+            // Caching this would require the ImmutableUserAgent that the sink is meant to avoid.
+            super.parse(input, fieldOrdinals, sink);
+            return;
+        }
+        for (int ordinal : fieldOrdinals) {
+            sink.accept(ordinal, cachedValue.getValue(ordinal), cachedValue.getConfidence(ordinal));
+        }
+    }
+
     @SuppressWarnings("unchecked") // For all the casts of 'this' to 'B'
     public abstract  static class AbstractUserAgentAnalyzerBuilder<UAA extends AbstractUserAgentAnalyzer, B extends AbstractUserAgentAnalyzerBuilder<UAA, B>>
             extends AbstractUserAgentAnalyzerDirectBuilder<UAA, B> {
@@ -22,7 +22,6 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.FieldSerializer;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
 import nl.basjes.parse.useragent.AgentField.ImmutableAgentField;
 import nl.basjes.parse.useragent.AgentField.MutableAgentField;
 import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
@@ -83,29 +82,39 @@ import nl.basjes.parse.useragent.calculate.ConcatNONDuplicatedCalculator;
 import nl.basjes.parse.useragent.calculate.FieldCalculator;
 import nl.basjes.parse.useragent.calculate.MajorVersionCalculator;
 import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveSet;
+import nl.basjes.parse.useragent.utils.CompiledYaml;
+import nl.basjes.parse.useragent.utils.YamlUtils;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
-import org.yaml.snakeyaml.LoaderOptions;
+import org.springframework.util.StreamUtils;
 import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.nodes.CollectionNode;
 import org.yaml.snakeyaml.nodes.MappingNode;
 import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.nodes.NodeTuple;
 import org.yaml.snakeyaml.nodes.SequenceNode;
 import org.yaml.snakeyaml.reader.UnicodeReader;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -114,6 +123,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -145,6 +155,7 @@ import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_VERSION_MAJOR
 import static nl.basjes.parse.useragent.UserAgent.PRE_SORTED_FIELDS_LIST;
 import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
 import static nl.basjes.parse.useragent.UserAgent.SYNTAX_ERROR;
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
 import static nl.basjes.parse.useragent.UserAgent.WEBVIEW_APP_NAME;
 import static nl.basjes.parse.useragent.UserAgent.WEBVIEW_APP_NAME_VERSION_MAJOR;
 import static nl.basjes.parse.useragent.UserAgent.WEBVIEW_APP_VERSION;
@@ -163,11 +174,11 @@ import static nl.basjes.parse.useragent.utils.YauaaVersion.logVersion;
 @DefaultSerializer(AbstractUserAgentAnalyzerDirect.KryoSerializer.class)
 public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Serializable {
 
-    // We set this to 1000000 always.
-    // Why?
-    // At the time of writing this the actual HashMap size needed about 410K entries.
-    // To keep the bins small the load factor of 0.75 already puts us at the capacity of 1048576
-    private static final int INFORM_ACTIONS_HASHMAP_CAPACITY = 1000000;
+    // The initial capacity of the informMatcherActions map.
+    // With all rules the map needs several hundred thousand entries, with only a few wanted fields
+    // far less. Preallocating for the worst case costs tens of MB per analyzer, so the map starts
+    // small and doubles (with a few copies during initialization) until it fits the loaded rules.
+    private static final int INFORM_ACTIONS_HASHMAP_CAPACITY = 4096;
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractUserAgentAnalyzerDirect.class);
     private final ArrayList<Matcher> allMatchers = new ArrayList<>(5000);
@@ -181,9 +192,24 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return touchedMatchers;
     }
 
-    private final Map<String, Set<MatcherAction>> informMatcherActions = new LinkedHashMap<>(INFORM_ACTIONS_HASHMAP_CAPACITY);
+    private final Map<String, Set<MatcherAction>> informMatcherActions = new CaseInsensitiveMap<>(INFORM_ACTIONS_HASHMAP_CAPACITY);
     private transient Map<String, List<MappingNode>> matcherConfigs = new HashMap<>();
 
+    // When only specific fields are wanted the lookups and sets are only loaded if a remaining matcher needs them.
+    private transient Map<String, DeferredRule> deferredLookups = new LinkedHashMap<>();
+    private transient Map<String, DeferredRule> deferredLookupSets = new LinkedHashMap<>();
+    private transient int skippedMatcherConfigs = 0;
+
+    private static final class DeferredRule {
+        private final MappingNode entry;
+        private final String      filename;
+
+        private DeferredRule(MappingNode entry, String filename) {
+            this.entry = entry;
+            this.filename = filename;
+        }
+    }
+
     private boolean showMatcherStats = false;
     private boolean doingOnlyASingleTest = false;
 
@@ -196,6 +222,9 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return testCases;
     }
 
+    // If the loaded rules are shared with other analyzers this is the key in the RuleCoreRegistry.
+    private transient List<Object> sharedRulesKey = null;
+
     private Map<String, Map<String, String>> lookups = new LinkedHashMap<>(128);
     private final Map<String, Set<String>> lookupMerge = new LinkedHashMap<>(128); // The names of the lookups that need to be merged
     private final Map<String, Set<String>> lookupSets = new LinkedHashMap<>(128);
@@ -215,6 +244,10 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
 
     public static final int DEFAULT_USER_AGENT_MAX_LENGTH = 2048;
     private int userAgentMaxLength = DEFAULT_USER_AGENT_MAX_LENGTH;
+
+    public static final int DEFAULT_VALUE_DICTIONARY_SIZE = 10000;
+    private volatile int valueDictionarySize = DEFAULT_VALUE_DICTIONARY_SIZE;
+    private transient volatile ValueDictionary valueDictionary = new ValueDictionary(DEFAULT_VALUE_DICTIONARY_SIZE);
     private boolean loadTests = false;
 
     private static final String DEFAULT_RESOURCES = "classpath*:UserAgents/**/*.yaml";
@@ -225,12 +258,26 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
     void initTransientFields() {
         matcherConfigs = new HashMap<>(64);
         touchedMatchers = new MatcherList(32);
+        buildReport = new AnalyzerBuildReport();
+        valueDictionary = new ValueDictionary(valueDictionarySize);
+    }
+
+    private transient AnalyzerBuildReport buildReport = new AnalyzerBuildReport();
+
+    /**
+     * @return The breakdown of the time and memory used while building this analyzer
+     * (empty if this instance was deserialized).
+     */
+    public AnalyzerBuildReport getBuildReport() {
+        return buildReport;
     }
 
     private void readObject(java.io.ObjectInputStream stream)
         throws IOException, ClassNotFoundException {
         initTransientFields();
         stream.defaultReadObject();
+        valueDictionary = new ValueDictionary(valueDictionarySize);
+        registerFieldNames();
         showDeserializationStats();
     }
 
@@ -273,7 +320,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
 
         // All classes we have under this.
         kryo.register(Analyzer.class);
-        kryo.register(ImmutableUserAgent.class);
+        ImmutableUserAgent.KryoSerializer.configureKryo(kryo);
         kryo.register(ImmutableAgentField.class);
         kryo.register(MutableUserAgent.class);
         kryo.register(MutableAgentField.class);
@@ -333,7 +380,8 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         kryo.register(StepPrevN.class);
         kryo.register(StepUp.class);
 
-        StringPrefixMap.configureKryo(kryo);
+        kryo.register(CaseInsensitiveMap.class);
+        kryo.register(CaseInsensitiveSet.class);
     }
 
     public static class KryoSerializer extends FieldSerializer<AbstractUserAgentAnalyzerDirect> {
@@ -352,11 +400,25 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         public AbstractUserAgentAnalyzerDirect read(Kryo kryo, Input input, Class<? extends AbstractUserAgentAnalyzerDirect> type) {
             AbstractUserAgentAnalyzerDirect uaa = super.read(kryo, input, type);
             uaa.initTransientFields();
+            uaa.registerFieldNames();
             uaa.showDeserializationStats();
             return uaa;
         }
     }
 
+    // A deserialized analyzer may be the first in this JVM that uses these field names.
+    private void registerFieldNames() {
+        registerFieldNames(fieldCalculators);
+        allMatchers.forEach(Matcher::registerFieldNames);
+    }
+
+    private static void registerFieldNames(List<FieldCalculator> calculators) {
+        for (FieldCalculator calculator : calculators) {
+            FieldRegistry.ordinalOf(calculator.getCalculatedFieldName());
+            calculator.getDependencies().forEach(FieldRegistry::ordinalOf);
+        }
+    }
+
     private void showDeserializationStats() {
         List<String> lines = new ArrayList<>();
         lines.add("This Analyzer instance was deserialized.");
@@ -383,6 +445,14 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         delayInitialization = false;
     }
 
+    private boolean compileMatchersOnDemand = false;
+    public void compileMatchersOnDemand() {
+        compileMatchersOnDemand = true;
+    }
+
+    // The preheat that was requested when building this analyzer (so a derived analyzer can do the same).
+    protected transient int builtWithPreheatIterations = 0; // NOSONAR: Only accessed via Builder.
+
     public AbstractUserAgentAnalyzerDirect setShowMatcherStats(boolean newShowMatcherStats) {
         this.showMatcherStats = newShowMatcherStats;
         return this;
@@ -421,6 +491,11 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
      * no memory leaks (that we know of).
      */
     public synchronized void destroy() {
+        if (sharedRulesKey != null) {
+            RuleCoreRegistry.release(sharedRulesKey);
+            sharedRulesKey = null;
+        }
+
         allMatchers.forEach(Matcher::destroy);
         allMatchers.clear();
         allMatchers.trimToSize();
@@ -435,7 +510,6 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         if (wantedFieldNames != null) {
             wantedFieldNames.clear();
         }
-
         testCases.clear();
         testCases.trimToSize();
 
@@ -450,12 +524,6 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         loadResources(resourceString, true, false);
     }
 
-    private Yaml createYaml() {
-        final LoaderOptions yamlLoaderOptions = new LoaderOptions();
-        yamlLoaderOptions.setMaxAliasesForCollections(200); // We use this many in the hacker/sql injection config.
-        return new Yaml(yamlLoaderOptions);
-    }
-
     public void loadResources(String resourceString, boolean showLoadMessages, boolean optionalResources) {
         if (matchersHaveBeenInitialized) {
             throw new IllegalStateException("Refusing to load additional resources after the datastructures have been initialized.");
@@ -466,8 +534,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         allPossibleFieldNamesSortedCache = null;
 
         long startFiles = System.nanoTime();
-
-        Yaml yaml = createYaml();
+        AnalyzerBuildReport.Measurement resourceScan = AnalyzerBuildReport.start();
 
         final boolean loadingDefaultResources = DEFAULT_RESOURCES.equals(resourceString);
 
@@ -499,7 +566,6 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             }
         }
         doingOnlyASingleTest = false;
-        int maxFilenameLength = 0;
 
         // When using a framework like Quarkus loading resources can fail in mysterious ways.
         // Just trying to open a stream for one of the resources is enough to see if we can continue.
@@ -562,18 +628,24 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
                 " resources for the second time");
         }
 
-        for (Map.Entry<String, Resource> resourceEntry : resources.entrySet()) {
-            try {
-                Resource resource = resourceEntry.getValue();
-                String filename = resource.getFilename();
-                if (filename != null) {
-                    maxFilenameLength = Math.max(maxFilenameLength, filename.length());
-                    loadYaml(yaml, resource.getInputStream(), filename);
-                }
-            } catch (IOException e) {
-                throw new InvalidParserConfigurationException("Error reading resources: " + e.getMessage(), e);
-            }
+        // Reading and parsing the Yaml files is done in parallel.
+        // The parsed files are then loaded in the same (sorted) order as before.
+        List<Resource> resourceList = resources
+            .values().stream()
+            .filter(resource -> resource.getFilename() != null)
+            .collect(Collectors.toList());
+        buildReport.record(AnalyzerBuildReport.Phase.RESOURCE_SCAN, resourceScan);
+
+        AnalyzerBuildReport.Measurement yamlParse = AnalyzerBuildReport.start();
+        List<Node> parsedResources = resourceList
+            .parallelStream()
+            .map(AbstractUserAgentAnalyzerDirect::composeResource)
+            .collect(Collectors.toList());
+
+        for (int i = 0; i < resourceList.size(); i++) {
+            loadYaml(parsedResources.get(i), resourceList.get(i).getFilename());
         }
+        buildReport.record(AnalyzerBuildReport.Phase.YAML_PARSE, yamlParse);
 
         long stopFiles = System.nanoTime();
         try(Formatter msg = new Formatter(Locale.ENGLISH)) {
@@ -597,24 +669,38 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         return (filename.contains("-tests") || filename.contains("-Tests"));
     }
 
-    protected synchronized void finalizeLoadingRules() {
-        logVersion();
-        flattener = new UserAgentTreeFlattener(this);
-
-        if (wantedFieldNames != null) {
-            int wantedSize = wantedFieldNames.size();
-            if (wantedFieldNames.contains(SET_ALL_FIELDS)) {
-                wantedSize--;
+    /**
+     * Take the already loaded (and merged) rules from an other analyzer instead of loading them all again.
+     * The lookups and sets are shared with the other analyzer (they are not modified after loading).
+     * @param parent The analyzer that has already loaded all rules.
+     */
+    synchronized void copyLoadedRulesFrom(AbstractUserAgentAnalyzerDirect parent) {
+        if (parent.matcherConfigs == null || parent.matcherConfigs.isEmpty()) {
+            throw new IllegalStateException(
+                "Unable to derive from an analyzer that no longer has the loaded rules " +
+                "(it was deserialized or destroyed).");
+        }
+        if (parent.wantedFieldNames != null &&
+            (wantedFieldNames == null || !parent.wantedFieldNames.containsAll(wantedFieldNames))) {
+            throw new InvalidParserConfigurationException(
+                "Unable to derive an analyzer for fields that the original analyzer did not load: " +
+                "wanted=" + wantedFieldNames + " available=" + parent.wantedFieldNames);
+        }
+
+        synchronized (parent) {
+            matcherConfigs.putAll(parent.matcherConfigs);
+            lookups = new LinkedHashMap<>(parent.lookups);
+            lookupSets.putAll(parent.lookupSets);
+            if (loadTests) {
+                testCases.addAll(parent.testCases);
             }
-            LOG.info("Building all needed matchers for the requested {} fields.", wantedSize);
-        } else {
-            LOG.info("Building all matchers for all possible fields.");
-        }
-
-        if (matcherConfigs.isEmpty()) {
-            throw new InvalidParserConfigurationException("No matchers were loaded at all.");
         }
+    }
 
+    /**
+     * Apply all requested merges of lookups and sets and make all lookups case insensitive.
+     */
+    synchronized void mergeLookupsAndSets() {
         if (lookups != null && !lookups.isEmpty()) {
             if (!lookupMerge.isEmpty()) {
                 lookupMerge.forEach((mapName, allExtraToLoad) -> {
@@ -634,11 +720,12 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             // All compares are done in a case insensitive way. So we lowercase ALL keys of the lookups beforehand.
             Map<String, Map<String, String>> cleanedLookups = new LinkedHashMap<>(lookups.size());
             for (Map.Entry<String, Map<String, String>> lookupsEntry : lookups.entrySet()) {
-                Map<String, String> cleanedLookup = new LinkedHashMap<>(lookupsEntry.getValue().size());
-                for (Map.Entry<String, String> entry : lookupsEntry.getValue().entrySet()) {
-                    cleanedLookup.put(entry.getKey().toLowerCase(), entry.getValue());
+                Map<String, String> lookup = lookupsEntry.getValue();
+                if (!(lookup instanceof CaseInsensitiveMap)) {
+                    // Lookups taken from an other analyzer have already been cleaned.
+                    lookup = new CaseInsensitiveMap<>(lookup);
                 }
-                cleanedLookups.put(lookupsEntry.getKey(), cleanedLookup);
+                cleanedLookups.put(lookupsEntry.getKey(), lookup);
             }
             lookups = cleanedLookups;
         }
@@ -664,8 +751,50 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
                 }
             });
         }
+    }
+
+    /**
+     * Use the rules from the JVM wide registry (loading them if needed) instead of loading them all again.
+     * @param key The canonical description of all the rules that are loaded.
+     * @param loader Loads the rules if they are not yet available.
+     */
+    synchronized void useSharedRules(List<Object> key, Supplier<AbstractUserAgentAnalyzerDirect> loader) {
+        AbstractUserAgentAnalyzerDirect sharedRules = RuleCoreRegistry.acquire(key, loader);
+        try {
+            copyLoadedRulesFrom(sharedRules);
+        } catch (RuntimeException e) {
+            RuleCoreRegistry.release(key);
+            throw e;
+        }
+        sharedRulesKey = key;
+    }
+
+    protected synchronized void finalizeLoadingRules() {
+        logVersion();
+        flattener = new UserAgentTreeFlattener(this);
+
+        if (wantedFieldNames != null) {
+            int wantedSize = wantedFieldNames.size();
+            if (wantedFieldNames.contains(SET_ALL_FIELDS)) {
+                wantedSize--;
+            }
+            LOG.info("Building all needed matchers for the requested {} fields.", wantedSize);
+        } else {
+            LOG.info("Building all matchers for all possible fields.");
+        }
+
+        if (matcherConfigs.isEmpty()) {
+            throw new InvalidParserConfigurationException("No matchers were loaded at all.");
+        }
 
+        AnalyzerBuildReport.Measurement lookupMerging = AnalyzerBuildReport.start();
+        loadNeededLookupsAndSets();
+        mergeLookupsAndSets();
+        buildReport.record(AnalyzerBuildReport.Phase.LOOKUP_MERGE, lookupMerging);
+
+        AnalyzerBuildReport.Measurement matcherConstruction = AnalyzerBuildReport.start();
         allMatchers.clear();
+        int totalSkippedMatchers = 0;
         for (Map.Entry<String, List<MappingNode>> matcherConfigEntry : matcherConfigs.entrySet()) {
             int skippedMatchers = 0;
             String configFilename = matcherConfigEntry.getKey();
@@ -675,6 +804,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             }
 
             long start = System.nanoTime();
+            AnalyzerBuildReport.Measurement ruleFile = AnalyzerBuildReport.start();
             int startSkipped = skippedMatchers;
             for (MappingNode map : matcherConfig) {
                 try {
@@ -685,6 +815,8 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
             }
             long stop = System.nanoTime();
             int stopSkipped = skippedMatchers;
+            totalSkippedMatchers += skippedMatchers;
+            buildReport.recordRuleFile(configFilename, matcherConfig.size() - skippedMatchers, ruleFile);
 
             if (showMatcherStats) {
                 try(Formatter msg = new Formatter(Locale.ENGLISH)) {
@@ -701,11 +833,133 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         }
 
         verifyWeAreNotAskingForImpossibleFields();
+        if (wantedFieldNames != null) {
+            LOG.info("Dropped {} matchers that cannot produce any of the requested fields ({} of these before they were built).",
+                skippedMatcherConfigs + totalSkippedMatchers, skippedMatcherConfigs);
+            pruneUnusedLookupsAndSets();
+        }
+        buildReport.record(AnalyzerBuildReport.Phase.MATCHER_CONSTRUCTION, matcherConstruction);
+        buildReport.recordLookups(lookups, lookupSets);
         if (!delayInitialization) {
             initializeMatchers();
         }
     }
 
+    /**
+     * When only some of the fields are requested the lookups and sets are not loaded while reading the Yaml files.
+     * Only those whose name occurs as a word in the configuration of a remaining matcher (and those that are merged
+     * into these) are loaded here, the rest is never converted into a map or set.
+     */
+    private void loadNeededLookupsAndSets() {
+        if (deferredLookups.isEmpty() && deferredLookupSets.isEmpty()) {
+            return;
+        }
+        Set<String> usedNames = new HashSet<>(1024);
+        for (Map.Entry<String, List<MappingNode>> matcherConfigEntry : matcherConfigs.entrySet()) {
+            for (MappingNode matcherConfig : matcherConfigEntry.getValue()) {
+                for (String expression : getMatcherExpressions(matcherConfig, matcherConfigEntry.getKey())) {
+                    addAllWords(expression, usedNames);
+                }
+            }
+        }
+
+        // A set can also merge the keys of a lookup so both are followed together.
+        Deque<String> neededNames = new ArrayDeque<>(usedNames);
+        while (!neededNames.isEmpty()) {
+            String name = neededNames.pop();
+            DeferredRule lookup = deferredLookups.remove(name);
+            if (lookup != null) {
+                loadYamlLookup(lookup.entry, lookup.filename);
+                neededNames.addAll(lookupMerge.getOrDefault(name, Collections.emptySet()));
+            }
+            DeferredRule set = deferredLookupSets.remove(name);
+            if (set != null) {
+                loadYamlLookupSets(set.entry, set.filename);
+                neededNames.addAll(lookupSetMerge.getOrDefault(name, Collections.emptySet()));
+            }
+        }
+
+        LOG.info("Skipped loading {} lookups ({} entries) and {} sets ({} entries) that are not used for the requested fields.",
+            deferredLookups.size(), countEntries(deferredLookups, "map"),
+            deferredLookupSets.size(), countEntries(deferredLookupSets, "values"));
+        deferredLookups.clear();
+        deferredLookupSets.clear();
+    }
+
+    private static long countEntries(Map<String, DeferredRule> rules, String key) {
+        long entries = 0;
+        for (DeferredRule rule : rules.values()) {
+            for (NodeTuple tuple : rule.entry.getValue()) {
+                if (key.equals(getKeyAsString(tuple, rule.filename)) && tuple.getValueNode() instanceof CollectionNode) {
+                    entries += ((CollectionNode<?>) tuple.getValueNode()).getValue().size();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * When only some of the fields are requested many lookups and sets are no longer referenced by any
+     * of the remaining matchers. These are removed to reduce the memory footprint.
+     * A lookup or set is kept if its name occurs as a word in any of the remaining expressions
+     * (which is a superset of all names that are actually referenced).
+     */
+    private void pruneUnusedLookupsAndSets() {
+        Set<String> usedNames = new HashSet<>(1024);
+        for (Matcher matcher : allMatchers) {
+            for (String expression : matcher.getAllMatchExpressions()) {
+                addAllWords(expression, usedNames);
+            }
+        }
+
+        int droppedLookups = 0;
+        long droppedLookupEntries = 0;
+        if (lookups != null) {
+            Iterator<Map.Entry<String, Map<String, String>>> lookupIterator = lookups.entrySet().iterator();
+            while (lookupIterator.hasNext()) {
+                Map.Entry<String, Map<String, String>> lookup = lookupIterator.next();
+                if (!usedNames.contains(lookup.getKey())) {
+                    droppedLookups++;
+                    droppedLookupEntries += lookup.getValue().size();
+                    lookupIterator.remove();
+                }
+            }
+        }
+
+        int droppedSets = 0;
+        long droppedSetEntries = 0;
+        Iterator<Map.Entry<String, Set<String>>> setIterator = lookupSets.entrySet().iterator();
+        while (setIterator.hasNext()) {
+            Map.Entry<String, Set<String>> set = setIterator.next();
+            if (!usedNames.contains(set.getKey())) {
+                droppedSets++;
+                droppedSetEntries += set.getValue().size();
+                setIterator.remove();
+            }
+        }
+
+        LOG.info("Dropped {} lookups ({} entries) and {} sets ({} entries) that are not used for the requested fields.",
+            droppedLookups, droppedLookupEntries, droppedSets, droppedSetEntries);
+    }
+
+    // Adds all words (a letter followed by letters and digits) to the set of names.
+    private static void addAllWords(String expression, Set<String> names) {
+        int length = expression.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? expression.charAt(i) : ' ';
+            boolean isWordChar = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (start >= 0 && c >= '0' && c <= '9');
+            if (isWordChar) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                names.add(expression.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
     protected void verifyWeAreNotAskingForImpossibleFields() {
         if (wantedFieldNames == null) {
             return; // Nothing to check
@@ -739,7 +993,21 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         }
 
         long start = System.nanoTime();
-        allMatchers.forEach(Matcher::initialize);
+        // The FieldSets use these indexes to determine which matchers are active.
+        for (int index = 0; index < allMatchers.size(); index++) {
+            allMatchers.get(index).setMatcherIndex(index);
+        }
+
+        // The expensive part (parsing all walk expressions) is done in parallel.
+        // The registrations in the shared datastructures are then done in the original matcher order
+        // so the result is identical to initializing them one by one.
+        AnalyzerBuildReport.Measurement matcherInitialization = AnalyzerBuildReport.start();
+        allMatchers.forEach(matcher -> matcher.setCompileOnDemand(compileMatchersOnDemand));
+        allMatchers.parallelStream().forEach(Matcher::initializeDeferred);
+        buildReport.record(AnalyzerBuildReport.Phase.MATCHER_INITIALIZATION, matcherInitialization);
+
+        AnalyzerBuildReport.Measurement informIndex = AnalyzerBuildReport.start();
+        allMatchers.forEach(Matcher::registerDeferred);
         long stop = System.nanoTime();
 
         matchersHaveBeenInitialized = true;
@@ -760,6 +1028,7 @@ public abstract class AbstractUserAgentAnalyzerDirect implements Analyzer, Seria
         }
 
         touchedMatchers = new MatcherList(32);
+        buildReport.record(AnalyzerBuildReport.Phase.INFORM_INDEX, informIndex);
     }
 
     private transient volatile Set<String> allPossibleFieldNamesCache = null; //NOSONAR: The getter avoids the java:S3077 issues
@@ -830,17 +1099,49 @@ config:
 */
 
     void loadYaml(String yamlString, String filename) {
-        loadYaml(createYaml(), new ByteArrayInputStream(yamlString.getBytes(UTF_8)), filename);
+        loadYaml(YamlUtils.createYaml(), new ByteArrayInputStream(yamlString.getBytes(UTF_8)), filename);
+    }
+
+    private void loadYaml(Yaml yaml, InputStream yamlStream, String filename) {
+        loadYaml(composeYaml(yaml, yamlStream, filename), filename);
+    }
+
+    private static Node composeResource(Resource resource) {
+        String filename = resource.getFilename();
+        byte[] yamlBytes;
+        try (InputStream yamlStream = resource.getInputStream()) {
+            yamlBytes = StreamUtils.copyToByteArray(yamlStream);
+        } catch (IOException e) {
+            throw new InvalidParserConfigurationException("Error reading resources: " + e.getMessage(), e);
+        }
+
+        // The bundled rules also have a precompiled form which is much cheaper to read.
+        try {
+            Resource compiled = resource.createRelative(filename + CompiledYaml.SUFFIX);
+            if (compiled.exists()) {
+                try (InputStream compiledStream = new BufferedInputStream(compiled.getInputStream())) {
+                    Node node = CompiledYaml.read(compiledStream, yamlBytes, filename);
+                    if (node != null) {
+                        return node;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to use the compiled form of {}: {}", filename, e.getMessage());
+        }
+
+        return composeYaml(YamlUtils.createYaml(), new ByteArrayInputStream(yamlBytes), filename);
     }
 
-    private synchronized void loadYaml(Yaml yaml, InputStream yamlStream, String filename) {
-        Node loadedYaml;
+    private static Node composeYaml(Yaml yaml, InputStream yamlStream, String filename) {
         try {
-            loadedYaml = yaml.compose(new UnicodeReader(yamlStream));
+            return yaml.compose(new UnicodeReader(yamlStream));
         } catch (Exception e) {
             throw new InvalidParserConfigurationException("Parse error in the file " + filename + ": " + e.getMessage(), e);
         }
+    }
 
+    private synchronized void loadYaml(Node loadedYaml, String filename) {
         if (loadedYaml == null) {
             LOG.warn("The file {} is empty", filename);
             return;
@@ -870,6 +1171,9 @@ config:
         SequenceNode configNode = getValueAsSequenceNode(configNodeTuple, filename);
         List<Node> configList = configNode.getValue();
 
+        // If only specific fields are wanted the rules that are not needed for these are skipped or deferred.
+        Set<String> wantedFields = wantedFieldNames;
+
         for (Node configEntry : configList) {
             requireNodeInstanceOf(MappingNode.class, configEntry, filename, "The entry MUST be a mapping");
             NodeTuple entry = getExactlyOneNodeTuple((MappingNode) configEntry, filename);
@@ -877,13 +1181,21 @@ config:
             String entryType = getKeyAsString(entry, filename);
             switch (entryType) {
                 case "lookup":
-                    loadYamlLookup(actualEntry, filename);
+                    if (wantedFields == null) {
+                        loadYamlLookup(actualEntry, filename);
+                    } else {
+                        deferRule(deferredLookups, actualEntry, filename);
+                    }
                     break;
                 case "set":
-                    loadYamlLookupSets(actualEntry, filename);
+                    if (wantedFields == null) {
+                        loadYamlLookupSets(actualEntry, filename);
+                    } else {
+                        deferRule(deferredLookupSets, actualEntry, filename);
+                    }
                     break;
                 case "matcher":
-                    loadYamlMatcher(actualEntry, filename);
+                    loadYamlMatcher(actualEntry, filename, wantedFields);
                     break;
                 case "test":
                     if (loadTests) {
@@ -942,7 +1254,7 @@ config:
 
     private void loadYamlLookupSets(MappingNode entry, String filename) {
         String name = null;
-        Set<String> lookupSet = new LinkedHashSet<>();
+        Set<String> lookupSet = new CaseInsensitiveSet();
 
         Set<String> merge = new LinkedHashSet<>();
 
@@ -957,7 +1269,7 @@ config:
                 case "values":
                     SequenceNode node = getValueAsSequenceNode(tuple, filename);
                     for (String value: getStringValues(node, filename)) {
-                        lookupSet.add(value.toLowerCase(Locale.ENGLISH));
+                        lookupSet.add(value);
                     }
                     break;
                 default:
@@ -974,12 +1286,65 @@ config:
         lookupSets.put(name, lookupSet);
     }
 
-    private void loadYamlMatcher(MappingNode entry, String filename) {
+    private void deferRule(Map<String, DeferredRule> deferredRules, MappingNode entry, String filename) {
+        String name = null;
+        for (NodeTuple tuple : entry.getValue()) {
+            if ("name".equals(getKeyAsString(tuple, filename))) {
+                name = getValueAsString(tuple, filename);
+            }
+        }
+        require(name != null, entry, filename, "Invalid lookup specified");
+        deferredRules.put(name, new DeferredRule(entry, filename));
+    }
+
+    private void loadYamlMatcher(MappingNode entry, String filename, Set<String> wantedFields) {
         List<MappingNode> matcherConfigList = matcherConfigs
             .computeIfAbsent(filename, k -> new ArrayList<>(32));
+        if (wantedFields != null && !extractsAnyOf(entry, wantedFields, filename)) {
+            // Same as the UselessMatcherException of the Matcher but without building it at all.
+            skippedMatcherConfigs++;
+            return;
+        }
         matcherConfigList.add(entry);
     }
 
+    /**
+     * @return True if the matcher extracts any of the fields, or if it has no extracts at all
+     * (so the Matcher itself reports that error).
+     */
+    private static boolean extractsAnyOf(MappingNode matcherConfig, Set<String> fieldNames, String filename) {
+        boolean hasExtracts = false;
+        for (NodeTuple tuple : matcherConfig.getValue()) {
+            if (!"extract".equals(getKeyAsString(tuple, filename))) {
+                continue;
+            }
+            for (String extractConfig : getStringValues(tuple.getValueNode(), filename)) {
+                hasExtracts = true;
+                int colon = extractConfig.indexOf(':');
+                if (colon < 0 || fieldNames.contains(extractConfig.substring(0, colon).trim())) {
+                    return true; // Invalid lines are reported by the Matcher
+                }
+            }
+        }
+        return !hasExtracts;
+    }
+
+    private static List<String> getMatcherExpressions(MappingNode matcherConfig, String filename) {
+        List<String> expressions = new ArrayList<>();
+        for (NodeTuple tuple : matcherConfig.getValue()) {
+            switch (getKeyAsString(tuple, filename)) {
+                case "variable":
+                case "require":
+                case "extract":
+                    expressions.addAll(getStringValues(tuple.getValueNode(), filename));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return expressions;
+    }
+
     private void loadYamlTestcase(MappingNode entry, String filename) {
         if (!doingOnlyASingleTest) {
             Map<String, String> metaData = new HashMap<>();
@@ -1085,9 +1450,8 @@ config:
     }
 
     public void informMeAbout(MatcherAction matcherAction, String keyPattern) {
-        String hashKey = keyPattern.toLowerCase();
         Set<MatcherAction> analyzerSet = informMatcherActions
-            .computeIfAbsent(hashKey, k -> new LinkedHashSet<>());
+            .computeIfAbsent(keyPattern, k -> new LinkedHashSet<>());
         analyzerSet.add(matcherAction);
     }
 
@@ -1110,6 +1474,30 @@ config:
         return this.userAgentMaxLength;
     }
 
+    /**
+     * Sets the maximum number of distinct values in the dictionary that is used to share
+     * the String instances of identical values (and identical sets of field values) between the parse results.
+     * Note that this will also wipe the existing dictionary.
+     * @param newValueDictionarySize The new maximum size (0 = disable the dictionary).
+     */
+    public void setValueDictionarySize(int newValueDictionarySize) {
+        valueDictionarySize = Math.max(newValueDictionarySize, 0);
+        valueDictionary = new ValueDictionary(valueDictionarySize);
+    }
+
+    public int getValueDictionarySize() {
+        return valueDictionarySize;
+    }
+
+    /**
+     * The dictionary of the values in the parse results.
+     * The id of a value in this dictionary can be used to group or aggregate results without comparing Strings.
+     * @return The dictionary of the result values of this analyzer.
+     */
+    public ValueDictionary getValueDictionary() {
+        return valueDictionary;
+    }
+
     private void setAsHacker(MutableUserAgent userAgent, int confidence) {
         userAgent.set(DEVICE_CLASS,                 "Hacker",  confidence);
         userAgent.set(DEVICE_BRAND,                 "Hacker",  confidence);
@@ -1162,6 +1550,8 @@ config:
      */
     public ImmutableUserAgent parse(String userAgentString) {
         MutableUserAgent userAgent = new MutableUserAgent(userAgentString, wantedFieldNames);
+        // Nobody else sees this instance so the derived fields need only be calculated when they are requested.
+        userAgent.deferDerivedFields();
         return parse(userAgent);
     }
 
@@ -1172,12 +1562,219 @@ config:
      * @return An ImmutableUserAgent copy of the results that is suitable for further usage and caching.
      */
     public synchronized ImmutableUserAgent parse(MutableUserAgent userAgent) {
+        return createImmutableUserAgent(analyze(userAgent));
+    }
+
+    /**
+     * Create a FieldSet for {@link #parse(String, FieldSet)} that only does the work needed for the provided fields.
+     * @param fieldNames The names of the needed fields
+     * @return The precompiled set of fields
+     */
+    public FieldSet createFieldSet(String... fieldNames) {
+        return createFieldSet(Arrays.asList(fieldNames));
+    }
+
+    /**
+     * Create a FieldSet for {@link #parse(String, FieldSet)} that only does the work needed for the provided fields.
+     * Which matchers and calculators are needed is determined once here and not on every parse.
+     * @param fieldNames The names of the needed fields
+     * @return The precompiled set of fields
+     */
+    public synchronized FieldSet createFieldSet(List<String> fieldNames) {
+        initializeMatchers();
+
+        List<String> requestedFieldNames = new ArrayList<>(new LinkedHashSet<>(fieldNames));
+        Set<String>  allPossibleFields   = getAllPossibleFieldNames();
+        Set<String>  neededFieldNames    = new HashSet<>();
+        List<String> impossibleFields    = new ArrayList<>();
+        for (String fieldName : requestedFieldNames) {
+            if (USERAGENT_FIELDNAME.equals(fieldName)) {
+                continue; // Always available
+            }
+            if (!allPossibleFields.contains(fieldName) || !isWantedField(fieldName)) {
+                impossibleFields.add(fieldName);
+                continue;
+            }
+            neededFieldNames.add(fieldName);
+        }
+        if (!impossibleFields.isEmpty()) {
+            throw new InvalidParserConfigurationException("We cannot provide these fields:" + impossibleFields.toString());
+        }
+
+        // The same special cases as when building an analyzer for specific fields.
+        neededFieldNames.add(SET_ALL_FIELDS);
+        neededFieldNames.add(DEVICE_CLASS);
+
+        // The calculators are run in order so going backwards also finds the indirect dependencies.
+        List<FieldCalculator> neededFieldCalculators = new ArrayList<>();
+        for (int i = fieldCalculators.size() - 1; i >= 0; i--) {
+            FieldCalculator fieldCalculator = fieldCalculators.get(i);
+            if (neededFieldNames.contains(fieldCalculator.getCalculatedFieldName())) {
+                neededFieldCalculators.add(0, fieldCalculator);
+                neededFieldNames.addAll(fieldCalculator.getDependencies());
+            }
+        }
+
+        boolean[] activeMatchers = new boolean[allMatchers.size()];
+        for (Matcher matcher : allMatchers) {
+            activeMatchers[matcher.getMatcherIndex()] = matcher.canSetAnyOf(neededFieldNames);
+        }
+
+        return new FieldSet(this, requestedFieldNames, neededFieldNames, activeMatchers, neededFieldCalculators);
+    }
+
+    void verifyOwner(FieldSet fieldSet) {
+        if (fieldSet.getAnalyzer() != this) {
+            throw new IllegalArgumentException("The FieldSet was created by a different analyzer.");
+        }
+    }
+
+    /**
+     * Parses and analyzes the provided useragent string but only runs the matchers and calculators
+     * that are needed for the fields in the FieldSet.
+     * The result contains the requested fields and the fields these are derived from.
+     * NOTE: This method is synchronized because the way the analyzer works is not reentrant.
+     * @param userAgentString The User-Agent String that is to be parsed and analyzed
+     * @param fieldSet The fields that are needed (created by this analyzer)
+     * @return An ImmutableUserAgent record that holds the results.
+     */
+    public synchronized ImmutableUserAgent parse(String userAgentString, FieldSet fieldSet) {
+        verifyOwner(fieldSet);
+        MutableUserAgent userAgent = new MutableUserAgent(userAgentString, fieldSet.getNeededFieldNames());
+        return new ImmutableUserAgent(analyze(userAgent, fieldSet), valueDictionary);
+    }
+
+    /**
+     * Parses and analyzes the provided useragent string and pushes all available fields
+     * (the same fields as in ImmutableUserAgent.getAvailableFieldNamesSorted()) into the sink.
+     * No ImmutableUserAgent is created which makes this suitable for integrations that copy
+     * the needed fields into their own structures.
+     * NOTE: This method is synchronized because the way the analyzer works is not reentrant.
+     * @param input The User-Agent String that is to be parsed and analyzed
+     * @param sink The receiver of all the results
+     */
+    public synchronized void parse(CharSequence input, UserAgentResultSink sink) {
+        // A reused MutableUserAgent would retain the fields of earlier useragents which
+        // changes the confidences of the default values (see processSetAll).
+        MutableUserAgent userAgent = new MutableUserAgent(input == null ? null : input.toString(), getWantedFieldNames());
+        analyze(userAgent).forEachAvailableField(sink);
+    }
+
+    /**
+     * Parses and analyzes the provided useragent string and pushes exactly the requested fields into the sink
+     * (in the order of the requested ordinals).
+     * Unlike {@link #parse(CharSequence, UserAgentResultSink)} a field that has its default value is also pushed
+     * (with confidence -1) and its value is the default value of this result (which is not always the default
+     * value in the {@link FieldRegistry}).
+     * NOTE: This method is synchronized because the way the analyzer works is not reentrant.
+     * @param input The User-Agent String that is to be parsed and analyzed
+     * @param fieldOrdinals The ordinals of the requested fields (see {@link FieldRegistry#ordinalOf(String)})
+     * @param sink The receiver of the results
+     */
+    public synchronized void parse(CharSequence input, int[] fieldOrdinals, UserAgentResultSink sink) {
+        MutableUserAgent userAgent = new MutableUserAgent(input == null ? null : input.toString(), getWantedFieldNames());
+        analyze(userAgent).forEachField(fieldOrdinals, sink);
+    }
+
+    /**
+     * Analyzes all the inputs and returns the requested fields in a columnar form:
+     * for each field an int array with (for each input) the id of the value in a value dictionary
+     * that is shared by all columns. Identical inputs are only analyzed once and no ImmutableUserAgent
+     * is created for the individual rows.
+     * @param inputs The User-Agent Strings that are to be parsed and analyzed
+     * @param fields The names of the fields that are needed (null means all possible fields)
+     * @return The columnar results
+     */
+    public UserAgentBatchResult analyzeBatch(List<String> inputs, List<String> fields) {
+        List<String> fieldNames = new ArrayList<>(new LinkedHashSet<>(fields == null ? getAllPossibleFieldNamesSorted() : fields));
+        int numberOfFields = fieldNames.size();
+        int numberOfRows   = inputs.size();
+
+        // For each field ordinal the column it goes into (-1 means not requested).
+        String[] defaultValues = new String[numberOfFields];
+        int[] columnByOrdinal = new int[FieldRegistry.size()];
+        Arrays.fill(columnByOrdinal, -1);
+        int useragentColumn = -1;
+        for (int column = 0; column < numberOfFields; column++) {
+            String fieldName = fieldNames.get(column);
+            if (USERAGENT_FIELDNAME.equals(fieldName)) {
+                useragentColumn = column;
+                continue;
+            }
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal < 0) {
+                // No rule can ever produce this field.
+                defaultValues[column] = FieldRegistry.defaultValueFor(fieldName);
+                continue;
+            }
+            if (ordinal >= columnByOrdinal.length) {
+                int oldLength = columnByOrdinal.length;
+                columnByOrdinal = Arrays.copyOf(columnByOrdinal, FieldRegistry.size());
+                Arrays.fill(columnByOrdinal, oldLength, columnByOrdinal.length, -1);
+            }
+            columnByOrdinal[ordinal] = column;
+            defaultValues[column] = FieldRegistry.defaultValueOf(ordinal);
+        }
+        final int[] targetColumns = columnByOrdinal;
+
+        Map<String, Integer> valueIds = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        Map<String, int[]> distinctResults = new HashMap<>();
+        int[][] columns = new int[numberOfFields][numberOfRows];
+
+        String[] rowValues = new String[numberOfFields];
+        for (int row = 0; row < numberOfRows; row++) {
+            String input = inputs.get(row);
+            int[] valueIdsOfInput = distinctResults.get(input);
+            if (valueIdsOfInput == null) {
+                Arrays.fill(rowValues, null);
+                parse(input, (ordinal, value, confidence) -> {
+                    if (ordinal < targetColumns.length && targetColumns[ordinal] >= 0) {
+                        rowValues[targetColumns[ordinal]] = value;
+                    }
+                });
+
+                valueIdsOfInput = new int[numberOfFields];
+                for (int column = 0; column < numberOfFields; column++) {
+                    String value;
+                    if (column == useragentColumn) {
+                        value = input;
+                    } else {
+                        value = rowValues[column] == null ? defaultValues[column] : rowValues[column];
+                    }
+                    Integer id = valueIds.get(value);
+                    if (id == null) {
+                        id = values.size();
+                        values.add(value);
+                        valueIds.put(value, id);
+                    }
+                    valueIdsOfInput[column] = id;
+                }
+                distinctResults.put(input, valueIdsOfInput);
+            }
+            for (int column = 0; column < numberOfFields; column++) {
+                columns[column][row] = valueIdsOfInput[column];
+            }
+        }
+        return new UserAgentBatchResult(fieldNames, numberOfRows, columns, values, distinctResults.size());
+    }
+
+    private MutableUserAgent analyze(MutableUserAgent userAgent) {
+        return analyze(userAgent, null);
+    }
+
+    /**
+     * @param userAgent The useragent that is to be analyzed
+     * @param fieldSet The fields that are needed (null means all fields)
+     * @return The same useragent instance with all the results
+     */
+    private MutableUserAgent analyze(MutableUserAgent userAgent, FieldSet fieldSet) {
         initializeMatchers();
         String useragentString = userAgent.getUserAgentString();
         if (useragentString != null && useragentString.length() > userAgentMaxLength) {
             setAsHacker(userAgent, 100);
             userAgent.setForced(HACKER_ATTACK_VECTOR, "Buffer overflow", 100);
-            return new ImmutableUserAgent(hardCodedPostProcessing(userAgent));
+            return hardCodedPostProcessing(userAgent, fieldSet);
         }
 
         // Reset all Matchers
@@ -1190,9 +1787,14 @@ config:
         }
 
         try {
-            userAgent = flattener.parse(userAgent);
+            if (fieldSet == null) {
+                userAgent = flattener.parse(userAgent);
+            } else {
+                // This flattener only informs the matchers that are active in the FieldSet.
+                userAgent = fieldSet.getFlattener().parse(userAgent);
+            }
 
-            inform(SYNTAX_ERROR, userAgent.getValue(SYNTAX_ERROR), null);
+            inform(SYNTAX_ERROR, userAgent.getValue(SYNTAX_ERROR), null, fieldSet);
 
             if (verbose) {
                 LOG.info("=========== Checking all Touched Matchers: {}", touchedMatchers.size());
@@ -1207,7 +1809,9 @@ config:
             }
             // Fire all Analyzers that should not get input
             for (Matcher matcher : zeroInputMatchers) {
-                matcher.analyze(userAgent);
+                if (fieldSet == null || fieldSet.isActive(matcher)) {
+                    matcher.analyze(userAgent);
+                }
             }
 
             userAgent.processSetAll();
@@ -1218,7 +1822,7 @@ config:
             setAsHacker(userAgent, 10000);
             userAgent.setForced(HACKER_ATTACK_VECTOR, "Yauaa Exploit", 10000);
         }
-        return new ImmutableUserAgent(hardCodedPostProcessing(userAgent));
+        return hardCodedPostProcessing(userAgent, fieldSet);
     }
 
     private static final List<String> HARD_CODED_GENERATED_FIELDS = new ArrayList<>();
@@ -1235,6 +1839,7 @@ config:
         HARD_CODED_GENERATED_FIELDS.add(OPERATING_SYSTEM_NAME_VERSION_MAJOR);
         HARD_CODED_GENERATED_FIELDS.add(WEBVIEW_APP_VERSION_MAJOR);
         HARD_CODED_GENERATED_FIELDS.add(WEBVIEW_APP_NAME_VERSION_MAJOR);
+        HARD_CODED_GENERATED_FIELDS.forEach(FieldRegistry::ordinalOf);
     }
 
     public boolean isWantedField(String fieldName) {
@@ -1249,12 +1854,43 @@ config:
     }
 
     private final List<FieldCalculator> fieldCalculators = new ArrayList<>();
+    // The calculators that are only run if the calculated field is actually requested and all others.
+    private final List<FieldCalculator> deferredFieldCalculators = new ArrayList<>();
+    private final List<FieldCalculator> immediateFieldCalculators = new ArrayList<>();
+    private transient FieldValuesBlock.Deferral deferral = null;
 
     protected void setFieldCalculators(List<FieldCalculator> newFieldCalculators) {
         fieldCalculators.addAll(newFieldCalculators);
+        registerFieldNames(newFieldCalculators);
+
+        // A calculator can only be deferred if no calculator that is run immediately needs its result.
+        Set<String> neededImmediately = new HashSet<>();
+        List<FieldCalculator> reversed = new ArrayList<>(fieldCalculators);
+        Collections.reverse(reversed);
+        deferredFieldCalculators.clear();
+        immediateFieldCalculators.clear();
+        for (FieldCalculator fieldCalculator : reversed) {
+            if (fieldCalculator.canBeDeferred() && !neededImmediately.contains(fieldCalculator.getCalculatedFieldName())) {
+                deferredFieldCalculators.add(0, fieldCalculator);
+            } else {
+                immediateFieldCalculators.add(0, fieldCalculator);
+                neededImmediately.addAll(fieldCalculator.getDependencies());
+            }
+        }
+        deferral = null;
+    }
+
+    private ImmutableUserAgent createImmutableUserAgent(MutableUserAgent userAgent) {
+        if (!userAgent.isDerivedFieldsDeferred() || deferredFieldCalculators.isEmpty() || userAgent.hasUnregisteredFields()) {
+            return new ImmutableUserAgent(userAgent, valueDictionary);
+        }
+        if (deferral == null) {
+            deferral = new FieldValuesBlock.Deferral(deferredFieldCalculators, wantedFieldNames);
+        }
+        return new ImmutableUserAgent(userAgent, valueDictionary, deferral);
     }
 
-    private MutableUserAgent hardCodedPostProcessing(MutableUserAgent userAgent) {
+    private MutableUserAgent hardCodedPostProcessing(MutableUserAgent userAgent, FieldSet fieldSet) {
         // If it is really really bad ... then it is a Hacker.
         if ("true".equals(userAgent.getValue(SYNTAX_ERROR))) {
             if (userAgent.get(DEVICE_CLASS).getConfidence() == -1) {
@@ -1263,7 +1899,13 @@ config:
         }
 
         // Calculate all fields that are constructed from the found ones.
-        for (FieldCalculator fieldCalculator: fieldCalculators) {
+        List<FieldCalculator> calculators;
+        if (fieldSet != null) {
+            calculators = fieldSet.getFieldCalculators();
+        } else {
+            calculators = userAgent.isDerivedFieldsDeferred() ? immediateFieldCalculators : fieldCalculators;
+        }
+        for (FieldCalculator fieldCalculator: calculators) {
             if (verbose) {
                 LOG.info("Running FieldCalculator: {}", fieldCalculator);
             }
@@ -1278,22 +1920,33 @@ config:
     }
 
     public void inform(String key, String value, ParseTree ctx) {
-        inform(key, key, value, ctx);
-        inform(key + "=\"" + value + '"', key, value, ctx);
+        inform(key, value, ctx, null);
+    }
+
+    /**
+     * @param key The path of the value
+     * @param value The value
+     * @param ctx The node in the parse tree
+     * @param fieldSet Only the matchers that are active in this FieldSet are informed (null means all matchers).
+     */
+    void inform(String key, String value, ParseTree ctx, FieldSet fieldSet) {
+        inform(key, key, value, ctx, fieldSet);
+        inform(key + "=\"" + value + '"', key, value, ctx, fieldSet);
 
         Set<Integer> lengths = getRequiredPrefixLengths(key);
         if (lengths != null) {
             int valueLength = value.length();
             for (Integer prefixLength : lengths) {
                 if (valueLength >= prefixLength) {
-                    inform(key + "{\"" + firstCharactersForPrefixHash(value, prefixLength) + '"', key, value, ctx);
+                    inform(key + "{\"" + firstCharactersForPrefixHash(value, prefixLength) + '"', key, value, ctx, fieldSet);
                 }
             }
         }
     }
 
-    private void inform(String match, String key, String value, ParseTree ctx) {
-        Set<MatcherAction> relevantActions = informMatcherActions.get(match.toLowerCase(Locale.ENGLISH));
+    private void inform(String match, String key, String value, ParseTree ctx, FieldSet fieldSet) {
+        // The informMatcherActions does a case insensitive lookup without creating a lowercase copy.
+        Set<MatcherAction> relevantActions = informMatcherActions.get(match);
         if (verbose) {
             if (relevantActions == null) {
                 LOG.info("--- Have (0): {}", match);
@@ -1310,7 +1963,9 @@ config:
 
         if (relevantActions != null) {
             for (MatcherAction matcherAction : relevantActions) {
-                matcherAction.inform(key, value, ctx);
+                if (fieldSet == null || fieldSet.isActive(matcherAction.getMatcher())) {
+                    matcherAction.inform(key, value, ctx);
+                }
             }
         }
     }
@@ -1356,6 +2011,7 @@ config:
         if (log) {
             LOG.info("Preheating JVM by running {} testcases.", preheatIterations);
         }
+        AnalyzerBuildReport.Measurement preheat = AnalyzerBuildReport.start();
         long remainingIterations = preheatIterations;
         long goodResults = 0;
         while (remainingIterations > 0) {
@@ -1370,6 +2026,7 @@ config:
                 }
             }
         }
+        buildReport.record(AnalyzerBuildReport.Phase.PREHEAT, preheat);
         if (log) {
             LOG.info("Preheating JVM completed. ({} of {} were proper results)", goodResults, preheatIterations);
         }
@@ -1464,6 +2121,8 @@ config:
         private final List<String>          optionalResources = new ArrayList<>();
         private final List<String>          yamlRules         = new ArrayList<>();
         private final List<FieldCalculator> fieldCalculators  = new ArrayList<>();
+        private AbstractUserAgentAnalyzerDirect deriveFrom    = null;
+        private boolean                         shareRules    = false;
 
         protected void failIfAlreadyBuilt() {
             if (didBuildStep) {
@@ -1623,6 +2282,29 @@ config:
             return (B)this;
         }
 
+        /**
+         * Set the maximum number of distinct values that are shared between all parse results.
+         * Results with exactly the same field values also share a single copy of those field values.
+         * @param newValueDictionarySize The new maximum size of the value dictionary (0 = disable).
+         * @return the current Builder instance.
+         */
+        public B withValueDictionary(int newValueDictionarySize) {
+            failIfAlreadyBuilt();
+            uaa.setValueDictionarySize(newValueDictionarySize);
+            return (B)this;
+        }
+
+        /**
+         * Do not share the String instances of identical values (nor identical sets of field values)
+         * between the parse results.
+         * @return the current Builder instance.
+         */
+        public B withoutValueDictionary() {
+            failIfAlreadyBuilt();
+            uaa.setValueDictionarySize(0);
+            return (B)this;
+        }
+
         /**
          * Retain all testcases in memory after initialization.
          * @return the current Builder instance.
@@ -1664,6 +2346,20 @@ config:
             return (B)this;
         }
 
+        /**
+         * Only register the values each matcher is interested in and postpone building the actual
+         * tree walkers of a matcher until the first time it receives relevant input.
+         * For workloads that only see a limited set of useragents this saves startup time and memory.
+         * Note that some configuration errors (like a missing lookup) are then only reported when the
+         * affected matcher is first used.
+         * @return the current Builder instance.
+         */
+        public B compileMatchersOnDemand() {
+            failIfAlreadyBuilt();
+            uaa.compileMatchersOnDemand();
+            return (B)this;
+        }
+
         protected Set<String> allFieldsForWhichACalculatorExists = new HashSet<>();
 
         private void registerFieldCalculator(FieldCalculator fieldCalculator) {
@@ -1696,6 +2392,52 @@ config:
             }
         }
 
+        /**
+         * Share the loaded rules (the rule definitions, lookups and sets) with all other analyzers in this JVM
+         * that have been built with the same resources, Yaml rules and tests setting (which can differ in
+         * the requested fields, the cache and the maximum useragent length).
+         * Only the first of these analyzers actually loads the rules, the others only build their own matchers.
+         * The shared rules are released when all of these analyzers have been destroyed.
+         * @return the current Builder instance.
+         */
+        public B shareRulesWithOtherAnalyzers() {
+            failIfAlreadyBuilt();
+            shareRules = true;
+            return (B)this;
+        }
+
+        /**
+         * Use the rules that have already been loaded by an other analyzer instead of loading the resources.
+         * The initialization, compile on demand and preheat settings are taken from the parent.
+         * @param parent The analyzer that has already loaded all rules.
+         * @return the current Builder instance.
+         */
+        B deriveFrom(AbstractUserAgentAnalyzerDirect parent) {
+            failIfAlreadyBuilt();
+            deriveFrom = parent;
+            if (parent.delayInitialization) {
+                uaa.delayInitialization();
+            } else {
+                uaa.immediateInitialization();
+            }
+            if (parent.compileMatchersOnDemand) {
+                uaa.compileMatchersOnDemand();
+            }
+            preheatIterations = parent.builtWithPreheatIterations;
+            return (B)this;
+        }
+
+        private void loadRules(AbstractUserAgentAnalyzerDirect target) {
+            boolean showLoading = uaa.getShowMatcherStats();
+            optionalResources.forEach(resource -> target.loadResources(resource, showLoading, true));
+            resources.forEach(resource -> target.loadResources(resource, showLoading, false));
+
+            int yamlRuleCount = 1;
+            for (String yamlRule : yamlRules) {
+                target.loadYaml(yamlRule, "Manually Inserted Rules " + yamlRuleCount++);
+            }
+        }
+
         /**
          * Construct the analyzer and run the preheat (if requested).
          * @return the new analyzer instance.
@@ -1738,16 +2480,29 @@ config:
             Collections.reverse(fieldCalculators);
             uaa.setFieldCalculators(fieldCalculators);
 
-            boolean showLoading = uaa.getShowMatcherStats();
-            optionalResources.forEach(resource -> uaa.loadResources(resource, showLoading, true));
-            resources.forEach(resource -> uaa.loadResources(resource, showLoading, false));
-
-            int yamlRuleCount = 1;
-            for (String yamlRule : yamlRules) {
-                uaa.loadYaml(yamlRule, "Manually Inserted Rules " + yamlRuleCount++);
+            if (deriveFrom != null) {
+                uaa.copyLoadedRulesFrom(deriveFrom);
+            } else if (shareRules) {
+                List<Object> key = Arrays.asList(
+                    new ArrayList<>(optionalResources),
+                    new ArrayList<>(resources),
+                    new ArrayList<>(yamlRules),
+                    uaa.willKeepTests());
+                uaa.useSharedRules(key, () -> {
+                    UserAgentAnalyzerDirect rules = new UserAgentAnalyzerDirect();
+                    if (uaa.willKeepTests()) {
+                        rules.keepTests();
+                    }
+                    loadRules(rules);
+                    rules.mergeLookupsAndSets();
+                    return rules;
+                });
+            } else {
+                loadRules(uaa);
             }
 
             uaa.finalizeLoadingRules();
+            uaa.builtWithPreheatIterations = preheatIterations;
             if (preheatIterations < 0) {
                 uaa.preHeat();
             } else {
@@ -1774,8 +2529,10 @@ config:
             "\n, lookupSets=" + lookupSets +
             "\n, flattener=" + flattener +
             "\n, userAgentMaxLength=" + userAgentMaxLength +
+            "\n, valueDictionarySize=" + valueDictionarySize +
             "\n, loadTests=" + loadTests +
             "\n, delayInitialization=" + delayInitialization +
+            "\n, compileMatchersOnDemand=" + compileMatchersOnDemand +
             "\n, matchersHaveBeenInitialized=" + matchersHaveBeenInitialized +
 //            "\n, informMatcherActionRanges=" + ToString.toString(informMatcherActionRanges) +
 //            "\n, informMatcherActionPrefixesLengths=" + ToString.toString(informMatcherActionPrefixesLengths) +
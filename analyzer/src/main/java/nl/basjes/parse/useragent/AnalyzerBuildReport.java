@@ -0,0 +1,302 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A breakdown of where the time and the memory went while building an analyzer.
+ * The allocated bytes are measured over all threads in the JVM (several phases run in parallel)
+ * so these are approximations and are -1 if the JVM does not support measuring them.
+ * The sizes of the lookups and sets are estimates based on their content.
+ */
+public final class AnalyzerBuildReport {
+
+    public enum Phase {
+        RESOURCE_SCAN,
+        YAML_PARSE,
+        LOOKUP_MERGE,
+        MATCHER_CONSTRUCTION,
+        MATCHER_INITIALIZATION,
+        INFORM_INDEX,
+        PREHEAT
+    }
+
+    public static final class PhaseStats {
+        private final Phase phase;
+        private long nanos = 0;
+        private long allocatedBytes = 0;
+        private int count = 0;
+
+        private PhaseStats(Phase phase) {
+            this.phase = phase;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return How often this phase was done (i.e. loading several resource strings).
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    public static final class ItemStats {
+        private final String name;
+        private final int    entries;
+        private final long   nanos;
+        private final long   bytes;
+
+        private ItemStats(String name, int entries, long nanos, long bytes) {
+            this.name = name;
+            this.entries = entries;
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The number of matchers (for a rule file) or the number of entries (for a lookup or set).
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return The time spent on this item (or 0 if not measured).
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return The bytes allocated while constructing the matchers (for a rule file)
+         * or the estimated heap size (for a lookup or set).
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    static final class Measurement {
+        private final long startNanos;
+        private final long startAllocatedBytes;
+
+        private Measurement() {
+            startNanos = System.nanoTime();
+            startAllocatedBytes = allocatedBytes();
+        }
+
+        private long nanosSinceStart() {
+            return System.nanoTime() - startNanos;
+        }
+
+        private long allocatedBytesSinceStart() {
+            long allocated = allocatedBytes();
+            if (allocated < 0 || startAllocatedBytes < 0) {
+                return -1;
+            }
+            // Threads that ended during the measurement make this smaller than it was.
+            return Math.max(0, allocated - startAllocatedBytes);
+        }
+    }
+
+    private final Map<Phase, PhaseStats> phases = new EnumMap<>(Phase.class);
+    private final List<ItemStats> ruleFiles = new ArrayList<>();
+    private final List<ItemStats> lookups = new ArrayList<>();
+    private final List<ItemStats> sets = new ArrayList<>();
+
+    AnalyzerBuildReport() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new PhaseStats(phase));
+        }
+    }
+
+    // ------------------------------------------
+
+    static Measurement start() {
+        return new Measurement();
+    }
+
+    synchronized void record(Phase phase, Measurement measurement) {
+        PhaseStats stats = phases.get(phase);
+        stats.nanos += measurement.nanosSinceStart();
+        stats.count++;
+        long allocated = measurement.allocatedBytesSinceStart();
+        if (allocated < 0 || stats.allocatedBytes < 0) {
+            stats.allocatedBytes = -1;
+        } else {
+            stats.allocatedBytes += allocated;
+        }
+    }
+
+    synchronized void recordRuleFile(String filename, int matchers, Measurement measurement) {
+        ruleFiles.add(new ItemStats(filename, matchers, measurement.nanosSinceStart(), measurement.allocatedBytesSinceStart()));
+    }
+
+    synchronized void recordLookups(Map<String, Map<String, String>> allLookups, Map<String, Set<String>> allSets) {
+        lookups.clear();
+        sets.clear();
+        if (allLookups != null) {
+            allLookups.forEach((name, lookup) -> {
+                long bytes = 0;
+                for (Map.Entry<String, String> entry : lookup.entrySet()) {
+                    bytes += estimateStringSize(entry.getKey()) + estimateStringSize(entry.getValue()) + ENTRY_OVERHEAD;
+                }
+                lookups.add(new ItemStats(name, lookup.size(), 0, bytes));
+            });
+        }
+        if (allSets != null) {
+            allSets.forEach((name, set) -> {
+                long bytes = 0;
+                for (String value : set) {
+                    bytes += estimateStringSize(value) + ENTRY_OVERHEAD;
+                }
+                sets.add(new ItemStats(name, set.size(), 0, bytes));
+            });
+        }
+    }
+
+    // ------------------------------------------
+
+    public synchronized PhaseStats getPhase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public synchronized List<PhaseStats> getPhases() {
+        return new ArrayList<>(phases.values());
+    }
+
+    /**
+     * @param limit The maximum number of rule files to return.
+     * @return The rule files that allocated the most memory while constructing their matchers (biggest first).
+     */
+    public synchronized List<ItemStats> getBiggestRuleFiles(int limit) {
+        return biggest(ruleFiles, limit);
+    }
+
+    /**
+     * @param limit The maximum number of lookups to return.
+     * @return The lookups with the biggest estimated heap size (biggest first).
+     */
+    public synchronized List<ItemStats> getBiggestLookups(int limit) {
+        return biggest(lookups, limit);
+    }
+
+    /**
+     * @param limit The maximum number of sets to return.
+     * @return The sets with the biggest estimated heap size (biggest first).
+     */
+    public synchronized List<ItemStats> getBiggestSets(int limit) {
+        return biggest(sets, limit);
+    }
+
+    private static List<ItemStats> biggest(List<ItemStats> items, int limit) {
+        List<ItemStats> result = new ArrayList<>(items);
+        result.sort(Comparator.comparingLong(ItemStats::getBytes).reversed());
+        return Collections.unmodifiableList(result.subList(0, Math.min(limit, result.size())));
+    }
+
+    // ------------------------------------------
+
+    // A String has an object header, a hash and a reference to an array which also has a header.
+    private static final long STRING_OVERHEAD = 40;
+    // The slots in the arrays and hash table that hold an entry.
+    private static final long ENTRY_OVERHEAD  = 24;
+
+    private static long estimateStringSize(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return STRING_OVERHEAD + 2L * value.length();
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        if (!sunThreadMXBean.isThreadAllocatedMemorySupported() ||
+            !sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long allocated : sunThreadMXBean.getThreadAllocatedBytes(sunThreadMXBean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        try(Formatter report = new Formatter(Locale.ENGLISH)) {
+            report.format("%-24s | %8s | %12s%n", "Phase", "msec", "MiB allocated");
+            for (PhaseStats stats : phases.values()) {
+                report.format("%-24s | %8d | %12s%n",
+                    stats.phase,
+                    stats.nanos / 1_000_000,
+                    stats.allocatedBytes < 0 ? "?" : String.valueOf(stats.allocatedBytes / MEBIBYTE));
+            }
+            report.format("%n%-40s | %8s | %8s | %12s%n", "Rule file", "matchers", "msec", "KiB allocated");
+            for (ItemStats stats : getBiggestRuleFiles(TOP)) {
+                report.format("%-40s | %8d | %8d | %12d%n",
+                    stats.name, stats.entries, stats.nanos / 1_000_000, stats.bytes / KIBIBYTE);
+            }
+            report.format("%n%-40s | %8s | %12s%n", "Lookup", "entries", "KiB (estimate)");
+            for (ItemStats stats : getBiggestLookups(TOP)) {
+                report.format("%-40s | %8d | %12d%n", stats.name, stats.entries, stats.bytes / KIBIBYTE);
+            }
+            report.format("%n%-40s | %8s | %12s%n", "Set", "entries", "KiB (estimate)");
+            for (ItemStats stats : getBiggestSets(TOP)) {
+                report.format("%-40s | %8d | %12d%n", stats.name, stats.entries, stats.bytes / KIBIBYTE);
+            }
+            return report.toString();
+        }
+    }
+
+    private static final int  TOP      = 10;
+    private static final long KIBIBYTE = 1024L;
+    private static final long MEBIBYTE = 1024L * 1024L;
+}
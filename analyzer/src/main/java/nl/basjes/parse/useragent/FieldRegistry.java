@@ -0,0 +1,151 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static nl.basjes.parse.useragent.UserAgent.PRE_SORTED_FIELDS_LIST;
+import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.STANDARD_FIELDS;
+import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_NAME_VERSION;
+import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VALUE;
+import static nl.basjes.parse.useragent.UserAgent.UNKNOWN_VERSION;
+
+/**
+ * A JVM wide registry that assigns every field name a dense ordinal (0, 1, 2, ...).
+ * The standard fields always get the lowest ordinals, all other field names (i.e. the ones
+ * discovered from the rules or from custom rules) are added while an analyzer is initialized.
+ * Any other name (i.e. a typo in a get or a field from a deserialized result of a different version)
+ * is never registered: the registry only grows and every parse allocates room for all registered fields.
+ * The ordinals are only stable within a single JVM so they must never be persisted.
+ */
+public final class FieldRegistry {
+
+    private FieldRegistry() {
+    }
+
+    private static final Map<String, Integer> ORDINALS = new ConcurrentHashMap<>(256);
+
+    // Copy on write: a reader always sees a consistent pair of arrays.
+    private static volatile String[] names = new String[0];
+    private static volatile String[] defaultValues = new String[0];
+
+    static {
+        STANDARD_FIELDS.forEach(FieldRegistry::ordinalOf);
+        PRE_SORTED_FIELDS_LIST.forEach(FieldRegistry::ordinalOf);
+        ordinalOf(SET_ALL_FIELDS);
+    }
+
+    /**
+     * Get the ordinal of the field name, registering it if it is not yet known.
+     * Only to be used for the field names of the rules while initializing an analyzer,
+     * all other code must use {@link #findOrdinal(String)}.
+     * @param fieldName The name of the field
+     * @return The ordinal of this field name
+     */
+    public static int ordinalOf(String fieldName) {
+        Integer ordinal = ORDINALS.get(fieldName);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        return register(fieldName);
+    }
+
+    /**
+     * Get the ordinal of the field name without registering it.
+     * @param fieldName The name of the field
+     * @return The ordinal of this field name or -1 if this field name is unknown.
+     */
+    public static int findOrdinal(String fieldName) {
+        Integer ordinal = ORDINALS.get(fieldName);
+        if (ordinal == null) {
+            return -1;
+        }
+        return ordinal;
+    }
+
+    private static synchronized int register(String fieldName) {
+        Integer ordinal = ORDINALS.get(fieldName);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        int newOrdinal = names.length;
+
+        String[] newDefaultValues = Arrays.copyOf(defaultValues, newOrdinal + 1);
+        newDefaultValues[newOrdinal] = defaultValueFor(fieldName);
+        String[] newNames = Arrays.copyOf(names, newOrdinal + 1);
+        newNames[newOrdinal] = fieldName;
+
+        defaultValues = newDefaultValues;
+        names = newNames;
+        ORDINALS.put(fieldName, newOrdinal);
+        return newOrdinal;
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field.
+     * @return The name of the field
+     * @throws ArrayIndexOutOfBoundsException if the ordinal was never handed out.
+     */
+    public static String nameOf(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field.
+     * @return The value a field has if nothing was found (Unknown if the ordinal was never handed out).
+     */
+    public static String defaultValueOf(int ordinal) {
+        String[] currentDefaultValues = defaultValues;
+        if (ordinal < 0 || ordinal >= currentDefaultValues.length) {
+            return UNKNOWN_VALUE;
+        }
+        return currentDefaultValues[ordinal];
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field.
+     * @return true if this is one of the STANDARD_FIELDS (these always have the lowest ordinals).
+     */
+    public static boolean isStandardField(int ordinal) {
+        return ordinal >= 0 && ordinal < STANDARD_FIELDS.size();
+    }
+
+    /**
+     * @return The number of registered field names (i.e. the highest ordinal + 1)
+     */
+    public static int size() {
+        return names.length;
+    }
+
+    /**
+     * @param fieldName The name of a field (registered or not).
+     * @return The value a field with this name has if nothing was found.
+     */
+    public static String defaultValueFor(String fieldName) {
+        if (fieldName.contains("NameVersion")) {
+            return UNKNOWN_NAME_VERSION;
+        }
+        if (fieldName.contains("Version")) {
+            return UNKNOWN_VERSION;
+        }
+        return UNKNOWN_VALUE;
+    }
+}
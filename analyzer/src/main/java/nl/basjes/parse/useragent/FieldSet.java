@@ -0,0 +1,186 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.Analyzer;
+import nl.basjes.parse.useragent.analyze.Matcher;
+import nl.basjes.parse.useragent.analyze.MatcherAction;
+import nl.basjes.parse.useragent.analyze.WordRangeVisitor.Range;
+import nl.basjes.parse.useragent.calculate.FieldCalculator;
+import nl.basjes.parse.useragent.parse.UserAgentTreeFlattener;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A precompiled set of fields for {@link AbstractUserAgentAnalyzerDirect#parse(String, FieldSet)}.
+ * It records which matchers and calculators are needed to determine these fields so a single call
+ * only does the work needed for these fields.
+ * A FieldSet can only be used with the analyzer that created it.
+ * The FieldSet is passed along with the parse call; it has its own flattener that only informs
+ * the matchers that are active for these fields so the analyzer itself does not hold any state for it.
+ * A FieldSet is not serializable: create it again from the (deserialized) analyzer.
+ */
+public final class FieldSet {
+    private final AbstractUserAgentAnalyzerDirect analyzer;
+    private final List<String>                    fieldNames;
+    private final Set<String>                     neededFieldNames;
+    private final boolean[]                       activeMatchers;
+    private final int                             numberOfActiveMatchers;
+    private final List<FieldCalculator>           fieldCalculators;
+    private final UserAgentTreeFlattener          flattener;
+
+    FieldSet(AbstractUserAgentAnalyzerDirect analyzer,
+             List<String> fieldNames,
+             Set<String> neededFieldNames,
+             boolean[] activeMatchers,
+             List<FieldCalculator> fieldCalculators) {
+        this.analyzer = analyzer;
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.neededFieldNames = Collections.unmodifiableSet(neededFieldNames);
+        this.activeMatchers = activeMatchers;
+        this.fieldCalculators = Collections.unmodifiableList(fieldCalculators);
+
+        int active = 0;
+        for (boolean activeMatcher : activeMatchers) {
+            if (activeMatcher) {
+                active++;
+            }
+        }
+        this.numberOfActiveMatchers = active;
+        this.flattener = new UserAgentTreeFlattener(new FieldSetInformer(analyzer, this));
+    }
+
+    /**
+     * @return The names of the requested fields.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    AbstractUserAgentAnalyzerDirect getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * @return The requested fields and all the fields these are derived from.
+     */
+    Set<String> getNeededFieldNames() {
+        return neededFieldNames;
+    }
+
+    boolean isActive(Matcher matcher) {
+        return activeMatchers[matcher.getMatcherIndex()];
+    }
+
+    int getNumberOfActiveMatchers() {
+        return numberOfActiveMatchers;
+    }
+
+    List<FieldCalculator> getFieldCalculators() {
+        return fieldCalculators;
+    }
+
+    UserAgentTreeFlattener getFlattener() {
+        return flattener;
+    }
+
+    /**
+     * Passes everything the flattener finds on to the analyzer together with the FieldSet.
+     * The Analyzer interface is Serializable but this informer only exists as part of a FieldSet.
+     */
+    private static final class FieldSetInformer implements Analyzer {
+        private final AbstractUserAgentAnalyzerDirect analyzer;
+        // Never written: see writeObject.
+        private final transient FieldSet              fieldSet;
+
+        FieldSetInformer(AbstractUserAgentAnalyzerDirect analyzer, FieldSet fieldSet) {
+            this.analyzer = analyzer;
+            this.fieldSet = fieldSet;
+        }
+
+        @Override
+        public void inform(String path, String value, ParseTree ctx) {
+            analyzer.inform(path, value, ctx, fieldSet);
+        }
+
+        @Override
+        public void informMeAbout(MatcherAction matcherAction, String keyPattern) {
+            analyzer.informMeAbout(matcherAction, keyPattern);
+        }
+
+        @Override
+        public void lookingForRange(String treeName, Range range) {
+            analyzer.lookingForRange(treeName, range);
+        }
+
+        @Override
+        public Set<Range> getRequiredInformRanges(String treeName) {
+            return analyzer.getRequiredInformRanges(treeName);
+        }
+
+        @Override
+        public void informMeAboutPrefix(MatcherAction matcherAction, String treeName, String prefix) {
+            analyzer.informMeAboutPrefix(matcherAction, treeName, prefix);
+        }
+
+        @Override
+        public Set<Integer> getRequiredPrefixLengths(String treeName) {
+            return analyzer.getRequiredPrefixLengths(treeName);
+        }
+
+        @Override
+        public void receivedInput(Matcher matcher) {
+            analyzer.receivedInput(matcher);
+        }
+
+        @Override
+        public Map<String, Map<String, String>> getLookups() {
+            return analyzer.getLookups();
+        }
+
+        @Override
+        public Map<String, Set<String>> getLookupSets() {
+            return analyzer.getLookupSets();
+        }
+
+        @Override
+        public List<Map<String, Map<String, String>>> getTestCases() {
+            return analyzer.getTestCases();
+        }
+
+        private void writeObject(ObjectOutputStream stream) throws NotSerializableException {
+            throw new NotSerializableException(FieldSet.class.getName());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FieldSet{" +
+            "fieldNames=" + fieldNames +
+            ", neededFieldNames=" + neededFieldNames +
+            ", activeMatchers=" + numberOfActiveMatchers + "/" + activeMatchers.length +
+            ", fieldCalculators=" + fieldCalculators +
+            '}';
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.AgentField.ImmutableAgentField;
+import nl.basjes.parse.useragent.AgentField.MutableAgentField;
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.calculate.FieldCalculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
+
+/**
+ * The immutable set of all field values of a parse result.
+ * Many different useragents have exactly the same results so a block can be shared
+ * (see {@link ValueDictionary#share(FieldValuesBlock)}) by many ImmutableUserAgent instances.
+ * The fields are stored by their ordinal (see {@link FieldRegistry}), all others are null/-1.
+ * The rare field that has no ordinal (i.e. a name that is not part of any rule set) is kept by name.
+ * <br>
+ * A block is either complete (it holds only the available fields and their sorted names) or
+ * it holds all fields as they were before the deferred calculators (see {@link FieldCalculator#canBeDeferred()})
+ * were run. In the latter case the fields that are not calculated are served directly and the complete
+ * block (i.e. the calculated fields and the sorted field names) is only created when it is first needed.
+ */
+final class FieldValuesBlock {
+    private final String[]          values;         // null means the default value
+    private final long[]            confidences;
+    private final String[]          defaultValues;  // null unless some field has a non standard default
+    private final int               hash;
+
+    // Complete block
+    private final List<String>      fieldNamesSorted;
+    private final int[]             fieldOrdinalsSorted; // -1 for a field that is kept by name
+    private final Map<String, MutableAgentField> unregisteredFields; // null if there are none
+
+    // Block with deferred calculations
+    private final Deferral          deferral;
+    private final ValueDictionary   valueDictionary;
+    private volatile FieldValuesBlock complete = null;
+
+    /**
+     * The deferred calculations that are the same for all results of an analyzer.
+     */
+    static final class Deferral {
+        private final List<FieldCalculator> calculators;
+        private final Set<String>           wantedFieldNames;
+        private final BitSet                calculatedOrdinals = new BitSet();
+
+        Deferral(List<FieldCalculator> calculators, Set<String> wantedFieldNames) {
+            this.calculators = new ArrayList<>(calculators);
+            this.wantedFieldNames = wantedFieldNames == null ? null : new HashSet<>(wantedFieldNames);
+            for (FieldCalculator calculator : calculators) {
+                calculatedOrdinals.set(FieldRegistry.ordinalOf(calculator.getCalculatedFieldName()));
+            }
+        }
+    }
+
+    /**
+     * A complete block with only the available fields.
+     */
+    FieldValuesBlock(List<String> fieldNames, MutableAgentField[] fields, ValueDictionary valueDictionary) {
+        fieldNamesSorted = Collections.unmodifiableList(new ArrayList<>(fieldNames));
+        deferral = null;
+        this.valueDictionary = null;
+        complete = this;
+
+        int[] ordinals = new int[fieldNames.size()];
+        int maxOrdinal = -1;
+        Map<String, MutableAgentField> byName = null;
+        for (int i = 0; i < ordinals.length; i++) {
+            String fieldName = fieldNames.get(i);
+            ordinals[i] = FieldRegistry.findOrdinal(fieldName);
+            maxOrdinal = Math.max(maxOrdinal, ordinals[i]);
+            if (ordinals[i] < 0) {
+                if (byName == null) {
+                    byName = new LinkedHashMap<>();
+                }
+                MutableAgentField field = fields[i];
+                MutableAgentField copy = new MutableAgentField(field == null ? FieldRegistry.defaultValueFor(fieldName) : field.defaultValue);
+                if (field != null) {
+                    copy.setValueForced(field.value, field.confidence);
+                }
+                byName.put(fieldName, copy);
+            }
+        }
+        fieldOrdinalsSorted = ordinals;
+        unregisteredFields = byName;
+
+        values = new String[maxOrdinal + 1];
+        confidences = new long[maxOrdinal + 1];
+        defaultValues = fill(ordinals, fields, valueDictionary);
+        hash = calculateHash();
+    }
+
+    /**
+     * A block with all fields (indexed by ordinal) before the deferred calculations.
+     */
+    FieldValuesBlock(MutableAgentField[] fieldsByOrdinal, Deferral deferral, ValueDictionary valueDictionary) {
+        fieldNamesSorted = null;
+        fieldOrdinalsSorted = null;
+        unregisteredFields = null;
+        this.deferral = deferral;
+        this.valueDictionary = valueDictionary;
+
+        int[] ordinals = new int[fieldsByOrdinal.length];
+        for (int ordinal = 0; ordinal < ordinals.length; ordinal++) {
+            ordinals[ordinal] = ordinal;
+        }
+
+        values = new String[fieldsByOrdinal.length];
+        confidences = new long[fieldsByOrdinal.length];
+        defaultValues = fill(ordinals, fieldsByOrdinal, valueDictionary);
+        hash = calculateHash();
+    }
+
+    private String[] fill(int[] ordinals, MutableAgentField[] fields, ValueDictionary dictionary) {
+        Arrays.fill(confidences, -1L);
+        String[] preparingDefaultValues = null;
+        for (int i = 0; i < ordinals.length; i++) {
+            MutableAgentField field = fields[i];
+            if (field == null) {
+                continue; // A field that was never set.
+            }
+            int ordinal = ordinals[i];
+            if (ordinal < 0) {
+                continue; // A field that is kept by name.
+            }
+            values[ordinal] = dictionary == null ? field.value : dictionary.canonicalize(field.value);
+            confidences[ordinal] = field.confidence;
+            if (!Objects.equals(field.defaultValue, FieldRegistry.defaultValueOf(ordinal))) {
+                if (preparingDefaultValues == null) {
+                    preparingDefaultValues = new String[values.length];
+                    for (int o = 0; o < values.length; o++) {
+                        preparingDefaultValues[o] = FieldRegistry.defaultValueOf(o);
+                    }
+                }
+                preparingDefaultValues[ordinal] = field.defaultValue;
+            }
+        }
+        return preparingDefaultValues;
+    }
+
+    private int calculateHash() {
+        int h = Objects.hashCode(fieldNamesSorted);
+        h = 31 * h + System.identityHashCode(deferral);
+        h = 31 * h + Arrays.hashCode(values);
+        h = 31 * h + Arrays.hashCode(confidences);
+        h = 31 * h + Arrays.hashCode(defaultValues);
+        h = 31 * h + Objects.hashCode(unregisteredFields);
+        return h;
+    }
+
+    /**
+     * @return The block with all calculations done and only the available fields.
+     */
+    FieldValuesBlock getComplete() {
+        FieldValuesBlock result = complete;
+        if (result == null) {
+            // Racing threads may both calculate this; the results are identical.
+            MutableUserAgent userAgent = new MutableUserAgent(deferral.wantedFieldNames);
+            MutableAgentField[] fieldsByOrdinal = getFieldsByOrdinal();
+            for (int ordinal = 0; ordinal < fieldsByOrdinal.length; ordinal++) {
+                if (fieldsByOrdinal[ordinal] != null) {
+                    userAgent.setFieldByOrdinal(ordinal, fieldsByOrdinal[ordinal]);
+                }
+            }
+            for (FieldCalculator calculator : deferral.calculators) {
+                calculator.calculate(userAgent);
+            }
+            List<String> fieldNames = userAgent.getAvailableFieldNamesSorted();
+            MutableAgentField[] fields = new MutableAgentField[fieldNames.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = userAgent.getFieldOrNull(fieldNames.get(i));
+            }
+            result = new FieldValuesBlock(fieldNames, fields, valueDictionary);
+            complete = result;
+        }
+        return result;
+    }
+
+    /**
+     * Mirrors the way MutableUserAgent.getAvailableFieldNamesSorted() determines if a field is available.
+     */
+    private boolean isAvailable(int ordinal) {
+        String fieldName = FieldRegistry.nameOf(ordinal);
+        if (SET_ALL_FIELDS.equals(fieldName)) {
+            return false;
+        }
+        boolean isDefaultValue = confidences[ordinal] < 0 || values[ordinal] == null;
+        if (deferral.wantedFieldNames == null) {
+            return !isDefaultValue || FieldRegistry.isStandardField(ordinal);
+        }
+        return !isDefaultValue && deferral.wantedFieldNames.contains(fieldName);
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field
+     * @return true if the value of this field is directly available in this block.
+     */
+    private boolean isDirect(int ordinal) {
+        return deferral == null || !deferral.calculatedOrdinals.get(ordinal);
+    }
+
+    List<String> getFieldNamesSorted() {
+        return getComplete().fieldNamesSorted;
+    }
+
+    /**
+     * Push all available fields (after all calculations) into the sink in the order of the sorted field names.
+     * @param sink The receiver of the field values
+     */
+    void forEachField(UserAgentResultSink sink) {
+        FieldValuesBlock block = getComplete();
+        for (int ordinal : block.fieldOrdinalsSorted) {
+            if (ordinal < 0) {
+                continue; // A sink only receives fields that have an ordinal.
+            }
+            sink.accept(ordinal, block.getValue(ordinal), block.confidences[ordinal]);
+        }
+    }
+
+    /**
+     * @return The ordinals of the fields in the order of the sorted field names (only for a complete block).
+     * A field that is kept by name has -1.
+     * NOTE: This is the internal array which must not be modified.
+     */
+    int[] getFieldOrdinalsSorted() {
+        return fieldOrdinalsSorted;
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field
+     * @return The value as it is stored (null means the default value).
+     */
+    String getStoredValue(int ordinal) {
+        return ordinal < values.length ? values[ordinal] : null;
+    }
+
+    String getDefaultValue(int ordinal) {
+        if (defaultValues == null) {
+            return FieldRegistry.defaultValueOf(ordinal);
+        }
+        return defaultValues[ordinal];
+    }
+
+    /**
+     * @param ordinal The ordinal of a registered field
+     * @return null if this field is not present.
+     */
+    AgentField get(int ordinal) {
+        if (ordinal < 0) {
+            return null;
+        }
+        if (!isDirect(ordinal)) {
+            return getComplete().get(ordinal);
+        }
+        if (ordinal >= values.length || (deferral != null && !isAvailable(ordinal))) {
+            return null;
+        }
+        String value = values[ordinal];
+        long confidence = confidences[ordinal];
+        String defaultValue = getDefaultValue(ordinal);
+        return new ImmutableAgentField(
+            value == null ? defaultValue : value,
+            confidence,
+            confidence < 0 || value == null,
+            defaultValue);
+    }
+
+    String getValue(int ordinal) {
+        if (ordinal < 0) {
+            return FieldRegistry.defaultValueOf(ordinal);
+        }
+        if (!isDirect(ordinal)) {
+            return getComplete().getValue(ordinal);
+        }
+        if (ordinal >= values.length || (deferral != null && !isAvailable(ordinal))) {
+            return FieldRegistry.defaultValueOf(ordinal);
+        }
+        String value = values[ordinal];
+        if (value == null) {
+            return getDefaultValue(ordinal);
+        }
+        return value;
+    }
+
+    long getConfidence(int ordinal) {
+        if (ordinal < 0) {
+            return -1L;
+        }
+        if (!isDirect(ordinal)) {
+            return getComplete().getConfidence(ordinal);
+        }
+        if (ordinal >= confidences.length || (deferral != null && !isAvailable(ordinal))) {
+            return -1L;
+        }
+        return confidences[ordinal];
+    }
+
+    private MutableAgentField getField(int ordinal) {
+        if (ordinal < values.length &&
+            (values[ordinal] != null ||
+             confidences[ordinal] != -1L ||
+             !Objects.equals(getDefaultValue(ordinal), FieldRegistry.defaultValueOf(ordinal)))) {
+            MutableAgentField field = new MutableAgentField(getDefaultValue(ordinal));
+            field.setValueForced(values[ordinal], confidences[ordinal]);
+            return field;
+        }
+        return null;
+    }
+
+    private MutableAgentField[] getFieldsByOrdinal() {
+        MutableAgentField[] fields = new MutableAgentField[values.length];
+        for (int ordinal = 0; ordinal < fields.length; ordinal++) {
+            fields[ordinal] = getField(ordinal);
+        }
+        return fields;
+    }
+
+    /**
+     * @param fieldName The name of a field that is not known in the {@link FieldRegistry}.
+     * @return null if this field is not present.
+     */
+    AgentField getUnregisteredField(String fieldName) {
+        MutableAgentField field = getStoredUnregisteredField(fieldName);
+        if (field == null) {
+            return null;
+        }
+        return new ImmutableAgentField(field);
+    }
+
+    /**
+     * @param fieldName The name of a field that is not known in the {@link FieldRegistry}.
+     * @return null if this field is not present.
+     * NOTE: This is the internal instance which must not be modified.
+     */
+    MutableAgentField getStoredUnregisteredField(String fieldName) {
+        FieldValuesBlock block = getComplete();
+        if (block.unregisteredFields == null) {
+            return null;
+        }
+        return block.unregisteredFields.get(fieldName);
+    }
+
+    /**
+     * @return The available fields (in the order of the sorted field names) after all calculations.
+     */
+    MutableAgentField[] getFields() {
+        FieldValuesBlock block = getComplete();
+        MutableAgentField[] fields = new MutableAgentField[block.fieldNamesSorted.size()];
+        for (int i = 0; i < fields.length; i++) {
+            int ordinal = block.fieldOrdinalsSorted[i];
+            if (ordinal < 0) {
+                MutableAgentField field = block.unregisteredFields.get(block.fieldNamesSorted.get(i));
+                fields[i] = new MutableAgentField(field.defaultValue);
+                fields[i].setValueForced(field.value, field.confidence);
+            } else {
+                fields[i] = block.getField(ordinal);
+            }
+        }
+        return fields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FieldValuesBlock)) {
+            return false;
+        }
+        FieldValuesBlock other = (FieldValuesBlock) o;
+        return hash == other.hash &&
+            deferral == other.deferral &&
+            Objects.equals(fieldNamesSorted, other.fieldNamesSorted) &&
+            Arrays.equals(values, other.values) &&
+            Arrays.equals(confidences, other.confidences) &&
+            Arrays.equals(defaultValues, other.defaultValues) &&
+            Objects.equals(unregisteredFields, other.unregisteredFields);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
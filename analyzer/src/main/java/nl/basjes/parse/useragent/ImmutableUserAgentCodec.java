@@ -0,0 +1,398 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.AgentField.MutableAgentField;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static nl.basjes.parse.useragent.UserAgent.PRE_SORTED_FIELDS_LIST;
+import static nl.basjes.parse.useragent.UserAgent.STANDARD_FIELDS;
+
+/**
+ * A compact binary form of an ImmutableUserAgent that is intended for shuffles and caches.
+ * <pre>
+ * version          byte         FORMAT_VERSION
+ * dictionary       zigzag int   The hash of the field name dictionary (must be the same when reading)
+ * flags            byte         1 = hasSyntaxError, 2 = hasAmbiguity, 4 = the useragent string is null
+ * ambiguityCount   varint
+ * useragent        string       (only if not null)
+ * fieldCount       varint
+ * per field:
+ *   name           varint       0 = a string with the name follows, n = entry n-1 of the dictionary
+ *   value          nullable string
+ *   confidence     zigzag long
+ *   defaultValue   varint       0 = the normal default value of this field, 1 = null, n = a string of n-2 bytes follows
+ * </pre>
+ * A string is a varint with the number of UTF-8 bytes followed by those bytes,
+ * a nullable string is the same with one added to the length (0 = null).
+ * Decoding rejects any string longer than MAX_STRING_LENGTH bytes and more than MAX_FIELDS fields
+ * before allocating anything for them.
+ * <br>
+ * The field names that are in the dictionary are written as a small number instead of the full name.
+ * The ordinals of the FieldRegistry are only used to find these quickly; they are never written because
+ * they differ between JVMs. Decoding never registers a field name; unknown names are kept by name. Both sides must use the same dictionary, the default is the list of standard fields.
+ */
+public final class ImmutableUserAgentCodec {
+
+    public static final byte FORMAT_VERSION = 1;
+
+    private static final int FLAG_SYNTAX_ERROR   = 1;
+    private static final int FLAG_AMBIGUITY      = 2;
+    private static final int FLAG_NULL_USERAGENT = 4;
+
+    // The lengths and counts in the data are checked against these before anything is allocated.
+    static final int MAX_STRING_LENGTH = 1 << 20;
+    static final int MAX_FIELDS        = 1 << 16;
+
+    private static final List<String> STANDARD_DICTIONARY;
+
+    static {
+        LinkedHashSet<String> names = new LinkedHashSet<>(PRE_SORTED_FIELDS_LIST);
+        names.addAll(STANDARD_FIELDS);
+        STANDARD_DICTIONARY = Collections.unmodifiableList(new ArrayList<>(names));
+    }
+
+    private final List<String> dictionary;
+    private final int          dictionaryHash;
+    private final int[]        dictionaryIndexByOrdinal; // -1 if not in the dictionary
+
+    /**
+     * A codec that uses the standard fields as the field name dictionary.
+     */
+    public ImmutableUserAgentCodec() {
+        this(STANDARD_DICTIONARY);
+    }
+
+    /**
+     * A codec with a specific field name dictionary (i.e. analyzer.getAllPossibleFieldNamesSorted()).
+     * @param fieldNameDictionary The field names that are written as a number. Reading must be done with the same list.
+     */
+    public ImmutableUserAgentCodec(List<String> fieldNameDictionary) {
+        dictionary = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(fieldNameDictionary)));
+        dictionaryHash = dictionary.hashCode();
+
+        int[] ordinals = dictionary.stream().mapToInt(FieldRegistry::findOrdinal).toArray();
+        dictionaryIndexByOrdinal = new int[Arrays.stream(ordinals).max().orElse(-1) + 1];
+        Arrays.fill(dictionaryIndexByOrdinal, -1);
+        for (int index = 0; index < ordinals.length; index++) {
+            if (ordinals[index] >= 0) {
+                dictionaryIndexByOrdinal[ordinals[index]] = index;
+            }
+        }
+    }
+
+    /**
+     * @return The field names that are written as a number.
+     */
+    public List<String> getFieldNameDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @param userAgent The instance that must be encoded
+     * @return The binary form
+     */
+    public byte[] encode(ImmutableUserAgent userAgent) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            encode(userAgent, out);
+        } catch (IOException e) {
+            throw new IllegalStateException("A ByteArrayOutputStream does not fail", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param userAgent The instance that must be encoded
+     * @param out Where the binary form must be written to
+     * @throws IOException If thrown by the OutputStream
+     */
+    public void encode(ImmutableUserAgent userAgent, OutputStream out) throws IOException {
+        out.write(FORMAT_VERSION);
+        writeVarInt(out, zigZag(dictionaryHash));
+
+        String userAgentString = userAgent.getUserAgentString();
+        int flags = 0;
+        if (userAgent.hasSyntaxError()) {
+            flags |= FLAG_SYNTAX_ERROR;
+        }
+        if (userAgent.hasAmbiguity()) {
+            flags |= FLAG_AMBIGUITY;
+        }
+        if (userAgentString == null) {
+            flags |= FLAG_NULL_USERAGENT;
+        }
+        out.write(flags);
+        writeVarInt(out, userAgent.getAmbiguityCount());
+        if (userAgentString != null) {
+            writeString(out, userAgentString, 0);
+        }
+
+        FieldValuesBlock block = userAgent.getFieldValues().getComplete();
+        int[] ordinals = block.getFieldOrdinalsSorted();
+        List<String> fieldNames = block.getFieldNamesSorted();
+        writeVarInt(out, ordinals.length);
+        for (int i = 0; i < ordinals.length; i++) {
+            int ordinal = ordinals[i];
+            if (ordinal < 0) {
+                encodeUnregisteredField(out, fieldNames.get(i), block.getStoredUnregisteredField(fieldNames.get(i)));
+                continue;
+            }
+            int index = ordinal < dictionaryIndexByOrdinal.length ? dictionaryIndexByOrdinal[ordinal] : -1;
+            if (index < 0) {
+                writeVarInt(out, 0);
+                writeString(out, FieldRegistry.nameOf(ordinal), 0);
+            } else {
+                writeVarInt(out, index + 1);
+            }
+            writeNullableString(out, block.getStoredValue(ordinal), 1);
+            writeVarLong(out, zigZag(block.getConfidence(ordinal)));
+
+            String defaultValue = block.getDefaultValue(ordinal);
+            if (Objects.equals(defaultValue, FieldRegistry.defaultValueOf(ordinal))) {
+                writeVarInt(out, 0);
+            } else {
+                writeNullableString(out, defaultValue, 2);
+            }
+        }
+    }
+
+    // A field that has no ordinal (rare) is written in exactly the same way.
+    private void encodeUnregisteredField(OutputStream out, String fieldName, MutableAgentField field) throws IOException {
+        int index = dictionary.indexOf(fieldName);
+        if (index < 0) {
+            writeVarInt(out, 0);
+            writeString(out, fieldName, 0);
+        } else {
+            writeVarInt(out, index + 1);
+        }
+        writeNullableString(out, field.value, 1);
+        writeVarLong(out, zigZag(field.confidence));
+        if (Objects.equals(field.defaultValue, FieldRegistry.defaultValueFor(fieldName))) {
+            writeVarInt(out, 0);
+        } else {
+            writeNullableString(out, field.defaultValue, 2);
+        }
+    }
+
+    /**
+     * @param bytes The binary form
+     * @return The decoded instance
+     * @throws IOException If the data is not valid for this codec
+     */
+    public ImmutableUserAgent decode(byte[] bytes) throws IOException {
+        return decode(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @param in Where the binary form must be read from (only the bytes of a single instance are read)
+     * @return The decoded instance
+     * @throws IOException If thrown by the InputStream or if the data is not valid for this codec
+     */
+    public ImmutableUserAgent decode(InputStream in) throws IOException {
+        int version = readByte(in);
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported ImmutableUserAgent format version " + version +
+                " (expected " + FORMAT_VERSION + ")");
+        }
+        if (unZigZag(readVarInt(in)) != dictionaryHash) {
+            throw new InvalidObjectException("The ImmutableUserAgent was written with a different field name dictionary");
+        }
+
+        int     flags           = readByte(in);
+        int     ambiguityCount  = readVarInt(in);
+        String  userAgentString = (flags & FLAG_NULL_USERAGENT) == 0 ? readString(in, readVarInt(in)) : null;
+
+        int count = readVarInt(in);
+        if (count < 0 || count > MAX_FIELDS) {
+            throw new InvalidObjectException("Invalid number of fields " + count + " in the ImmutableUserAgent data");
+        }
+        List<String>        fieldNames = new ArrayList<>(count);
+        MutableAgentField[] fields     = new MutableAgentField[count];
+        for (int i = 0; i < count; i++) {
+            int index = readVarInt(in);
+            String fieldName;
+            if (index == 0) {
+                fieldName = readString(in, readVarInt(in));
+            } else {
+                if (index > dictionary.size()) {
+                    throw new InvalidObjectException("Invalid field name reference " + index);
+                }
+                fieldName = dictionary.get(index - 1);
+            }
+            String value      = readNullableString(in, 1);
+            long   confidence = unZigZag(readVarLong(in));
+
+            String defaultValue;
+            int    defaultLength = readVarInt(in);
+            if (defaultLength == 0) {
+                defaultValue = FieldRegistry.defaultValueFor(fieldName);
+            } else if (defaultLength == 1) {
+                defaultValue = null;
+            } else {
+                defaultValue = readString(in, defaultLength - 2);
+            }
+
+            MutableAgentField field = new MutableAgentField(defaultValue);
+            field.setValueForced(value, confidence);
+            fieldNames.add(fieldName);
+            fields[i] = field;
+        }
+
+        return new ImmutableUserAgent(userAgentString,
+            (flags & FLAG_SYNTAX_ERROR) != 0,
+            (flags & FLAG_AMBIGUITY) != 0,
+            ambiguityCount,
+            fieldNames,
+            fields,
+            null);
+    }
+
+    // ------------------------------------------
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write(remaining);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    // The length is written with the offset added (to leave room for special values)
+    private static void writeString(OutputStream out, String value, int lengthOffset) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new InvalidObjectException("Unable to encode a string of " + bytes.length + " bytes");
+        }
+        writeVarInt(out, bytes.length + lengthOffset);
+        out.write(bytes);
+    }
+
+    private static void writeNullableString(OutputStream out, String value, int lengthOffset) throws IOException {
+        if (value == null) {
+            writeVarInt(out, lengthOffset - 1);
+        } else {
+            writeString(out, value, lengthOffset);
+        }
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException("Unexpected end of the ImmutableUserAgent data");
+        }
+        return value;
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new InvalidObjectException("Invalid varint in the ImmutableUserAgent data");
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte(in);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new InvalidObjectException("Invalid varlong in the ImmutableUserAgent data");
+    }
+
+    private static String readString(InputStream in, int length) throws IOException {
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new InvalidObjectException("Invalid string length " + length + " in the ImmutableUserAgent data");
+        }
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            int read = in.read(bytes, done, length - done);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of the ImmutableUserAgent data");
+            }
+            done += read;
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    private static String readNullableString(InputStream in, int lengthOffset) throws IOException {
+        int length = readVarInt(in);
+        if (length == lengthOffset - 1) {
+            return null;
+        }
+        return readString(in, length - lengthOffset);
+    }
+
+    @Override
+    public String toString() {
+        return "ImmutableUserAgentCodec{" +
+            "version=" + FORMAT_VERSION +
+            ", dictionary=" + dictionary.size() + " field names" +
+            '}';
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static nl.basjes.parse.useragent.debug.AbstractUserAgentAnalyzerTester.runTests;
+
+/**
+ * A wrapper around a UserAgentAnalyzer that allows replacing the analyzer with a new one
+ * (i.e. with new or changed rules) while parsing continues.
+ * A new analyzer is built (and optionally validated) completely before it atomically replaces the current one.
+ * Parses that are running during the switch are completed by the old analyzer, after that the old analyzer is destroyed.
+ * A parse via this wrapper that overlapped with the switch is redone with the new analyzer.
+ * All reloads (also those in the background) are done one after the other.
+ */
+public final class ReloadableUserAgentAnalyzer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReloadableUserAgentAnalyzer.class);
+
+    private final Supplier<UserAgentAnalyzer> analyzerFactory;
+    private final AtomicReference<UserAgentAnalyzer> current = new AtomicReference<>();
+    private final Object reloadLock = new Object();
+
+    // A single thread so overlapping background reloads are done one after the other.
+    private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Yauaa reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Create the wrapper and build the first analyzer.
+     * @param analyzerFactory Builds a new analyzer every time it is called (so it should create a new Builder).
+     *                        To validate the new analyzers the factory must build them with keepTests().
+     */
+    public ReloadableUserAgentAnalyzer(Supplier<UserAgentAnalyzer> analyzerFactory) {
+        this.analyzerFactory = analyzerFactory;
+        current.set(build());
+    }
+
+    /**
+     * @return The analyzer that is currently in use. Note that this analyzer is destroyed after a reload.
+     */
+    public UserAgentAnalyzer get() {
+        return current.get();
+    }
+
+    public ImmutableUserAgent parse(String userAgentString) {
+        while (true) {
+            UserAgentAnalyzer analyzer = current.get();
+            try {
+                ImmutableUserAgent result = analyzer.parse(userAgentString);
+                if (current.get() == analyzer) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (current.get() == analyzer) {
+                    throw e;
+                }
+            }
+            // The analyzer was replaced (and destroyed) during this parse: try again with the new one.
+        }
+    }
+
+    /**
+     * Build a new analyzer and replace the current one with it.
+     * If anything fails the current analyzer remains in use.
+     * @param validateWithTests Run all test cases of the new analyzer before using it.
+     * @param keepCache Retain the cached results of the current analyzer in the new analyzer.
+     *                  Note that these results may differ from what the new rules would produce.
+     * @return The new analyzer.
+     * @throws InvalidParserConfigurationException if the new analyzer could not be built or did not pass the tests.
+     */
+    public UserAgentAnalyzer reload(boolean validateWithTests, boolean keepCache) {
+        synchronized (reloadLock) {
+            long start = System.nanoTime();
+            UserAgentAnalyzer newAnalyzer = build();
+
+            if (validateWithTests) {
+                validate(newAnalyzer);
+            }
+
+            if (keepCache) {
+                newAnalyzer.copyCacheFrom(current.get());
+            }
+
+            UserAgentAnalyzer oldAnalyzer = current.getAndSet(newAnalyzer);
+            long stop = System.nanoTime();
+            LOG.info("Switched to the new analyzer (reload took {} msec).", (stop - start) / 1_000_000);
+            if (oldAnalyzer != null && oldAnalyzer != newAnalyzer) {
+                // A parse that is still running on the old analyzer holds its lock so it completes first.
+                oldAnalyzer.destroy();
+            }
+            return newAnalyzer;
+        }
+    }
+
+    /**
+     * Build a new analyzer in a background thread and replace the current one with it when it is ready.
+     * If a reload is already running this reload is started after that one has completed.
+     * @param validateWithTests Run all test cases of the new analyzer before using it.
+     * @param keepCache Retain the cached results of the current analyzer in the new analyzer.
+     * @return A future that completes with the new analyzer (or exceptionally if the reload failed).
+     */
+    public CompletableFuture<UserAgentAnalyzer> reloadInBackground(boolean validateWithTests, boolean keepCache) {
+        CompletableFuture<UserAgentAnalyzer> result = new CompletableFuture<>();
+        try {
+            reloadExecutor.execute(() -> {
+                try {
+                    result.complete(reload(validateWithTests, keepCache));
+                } catch (Throwable e) { // NOSONAR: Also an Error (like an OutOfMemoryError) must fail the future.
+                    LOG.error("Reloading the analyzer failed: {}", e.getMessage());
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new IllegalStateException("This analyzer has been destroyed.", e));
+        }
+        return result;
+    }
+
+    private UserAgentAnalyzer build() {
+        UserAgentAnalyzer analyzer = analyzerFactory.get();
+        if (analyzer == null) {
+            throw new InvalidParserConfigurationException("The analyzer factory did not provide an analyzer.");
+        }
+        analyzer.initializeMatchers();
+        return analyzer;
+    }
+
+    private static void validate(UserAgentAnalyzer analyzer) {
+        if (analyzer.getNumberOfTestCases() == 0) {
+            throw new InvalidParserConfigurationException(
+                "Unable to validate the new analyzer: it has no test cases (use keepTests()).");
+        }
+
+        // The test results must not end up in the cache.
+        int cacheSize = analyzer.getCacheSize();
+        analyzer.disableCaching();
+        StringBuilder errorMessage = new StringBuilder();
+        boolean ok = runTests(analyzer, false, true, null, false, false, errorMessage);
+        analyzer.setCacheSize(cacheSize);
+        if (!ok) {
+            throw new InvalidParserConfigurationException("The new analyzer failed the tests:\n" + errorMessage);
+        }
+    }
+
+    /**
+     * Destroy the current analyzer. After calling this method this instance becomes unusable.
+     */
+    public void destroy() {
+        reloadExecutor.shutdownNow();
+        synchronized (reloadLock) {
+            UserAgentAnalyzer analyzer = current.getAndSet(null);
+            if (analyzer != null) {
+                analyzer.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A JVM wide registry of the loaded rules (the parsed rule definitions, the lookups and the sets).
+ * All analyzers that are built with the same set of rules can share a single instance of these
+ * while each of them still builds its own matchers (which hold the state during parsing).
+ * A shared set of rules is kept as long as at least one analyzer that uses it has not been destroyed.
+ */
+final class RuleCoreRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RuleCoreRegistry.class);
+
+    private RuleCoreRegistry() {
+    }
+
+    private static final class RuleCore {
+        // Completed by the thread that loads the rules; all others wait for it.
+        private final CompletableFuture<AbstractUserAgentAnalyzerDirect> rules = new CompletableFuture<>();
+        // Only changed inside the atomic compute operations of the map.
+        private final AtomicInteger references = new AtomicInteger(0);
+    }
+
+    // The loading of the rules (which takes seconds) is done outside any lock
+    // so the other keys (and the release of the same key) are never blocked by it.
+    private static final Map<List<Object>, RuleCore> RULE_CORES = new ConcurrentHashMap<>();
+
+    /**
+     * Get the shared rules for the provided key and load them if they are not yet available.
+     * If the same rules are already being loaded by another thread this waits for that to complete.
+     * Every successful call to this method must be matched with a call to {@link #release(List)}.
+     * @param key The canonical description of all the rules that are loaded.
+     * @param loader Loads the rules if they are not yet available.
+     * @return The analyzer that holds the loaded rules (it has no matchers).
+     */
+    static AbstractUserAgentAnalyzerDirect acquire(List<Object> key,
+                                                   Supplier<AbstractUserAgentAnalyzerDirect> loader) {
+        RuleCore newRuleCore = new RuleCore();
+        RuleCore ruleCore = RULE_CORES.compute(key, (k, existing) -> {
+            RuleCore result = existing == null ? newRuleCore : existing;
+            result.references.incrementAndGet();
+            return result;
+        });
+
+        if (ruleCore == newRuleCore) {
+            try {
+                ruleCore.rules.complete(loader.get());
+            } catch (RuntimeException | Error e) {
+                // Nobody can use these rules: all waiting threads get the same failure.
+                RULE_CORES.remove(key, ruleCore);
+                ruleCore.rules.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            LOG.info("Reusing the already loaded rules for {}", key);
+        }
+
+        try {
+            return ruleCore.rules.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    /**
+     * Release the shared rules for the provided key. The rules are dropped when nothing uses them anymore.
+     * @param key The canonical description of all the rules that are loaded.
+     */
+    static void release(List<Object> key) {
+        RULE_CORES.computeIfPresent(key, (k, ruleCore) ->
+            ruleCore.references.decrementAndGet() <= 0 ? null : ruleCore);
+    }
+
+    static int getNumberOfRuleCores() {
+        return RULE_CORES.size();
+    }
+
+    static int getNumberOfReferences(List<Object> key) {
+        RuleCore ruleCore = RULE_CORES.get(key);
+        return ruleCore == null ? 0 : ruleCore.references.get();
+    }
+}
@@ -17,9 +17,18 @@
 
 package nl.basjes.parse.useragent;
 
+import com.esotericsoftware.kryo.DefaultSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 import nl.basjes.parse.useragent.AgentField.ImmutableAgentField;
 import nl.basjes.parse.useragent.AgentField.MutableAgentField;
 import nl.basjes.parse.useragent.analyze.Matcher;
+import nl.basjes.parse.useragent.classify.DeviceClass;
+import nl.basjes.parse.useragent.classify.UserAgentClassifier;
 import nl.basjes.parse.useragent.parser.UserAgentBaseListener;
 import nl.basjes.parse.useragent.utils.DefaultANTLRErrorListener;
 import org.antlr.v4.runtime.Parser;
@@ -27,17 +36,20 @@ import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
 import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
-import org.apache.commons.text.StringEscapeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -53,6 +65,31 @@ public interface UserAgent extends Serializable {
     AgentField get(String fieldName);
     String getValue(String fieldName);
     Long getConfidence(String fieldName);
+
+    /**
+     * Get the value of a field using the ordinal the {@link FieldRegistry} assigned to the field name.
+     * This avoids the hashing of the field name when retrieving many values.
+     * @param ordinal The ordinal of the field (see {@link FieldRegistry#findOrdinal(String)})
+     * @return The value of the field (or the default value if it is not present).
+     */
+    default String getValue(int ordinal) {
+        if (ordinal < 0 || ordinal >= FieldRegistry.size()) {
+            return FieldRegistry.defaultValueOf(ordinal);
+        }
+        return getValue(FieldRegistry.nameOf(ordinal));
+    }
+
+    /**
+     * Get the confidence of a field using the ordinal the {@link FieldRegistry} assigned to the field name.
+     * @param ordinal The ordinal of the field (see {@link FieldRegistry#findOrdinal(String)})
+     * @return The confidence of the field (or -1 if it is not present).
+     */
+    default long getConfidence(int ordinal) {
+        if (ordinal < 0 || ordinal >= FieldRegistry.size()) {
+            return -1L;
+        }
+        return getConfidence(FieldRegistry.nameOf(ordinal));
+    }
     boolean hasSyntaxError();
     boolean hasAmbiguity();
     int getAmbiguityCount();
@@ -247,15 +284,31 @@ public interface UserAgent extends Serializable {
 
     default String toYamlTestCase(boolean showConfidence, Map<String, String> comments) {
         StringBuilder sb = new StringBuilder(10240);
-        sb.append("\n");
-        sb.append("- test:\n");
-//        sb.append("#    options:\n");
-//        sb.append("#    - 'verbose'\n");
-//        sb.append("#    - 'init'\n");
-//        sb.append("#    - 'only'\n");
-        sb.append("    input:\n");
-        sb.append("      user_agent_string: '").append(escapeYaml(getUserAgentString())).append("'\n");
-        sb.append("    expected:\n");
+        try {
+            writeYamlTestCase(sb, showConfidence, comments);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Never happens with a StringBuilder
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the yaml test case form of this UserAgent without first building the entire String.
+     * @param out Where the yaml must be written to
+     * @param showConfidence Also write the confidence of every field
+     * @param comments The comments per field that must be added (can be null)
+     * @throws IOException If thrown by the Appendable
+     */
+    default void writeYamlTestCase(Appendable out, boolean showConfidence, Map<String, String> comments) throws IOException {
+        out.append("\n");
+        out.append("- test:\n");
+//        out.append("#    options:\n");
+//        out.append("#    - 'verbose'\n");
+//        out.append("#    - 'init'\n");
+//        out.append("#    - 'only'\n");
+        out.append("    input:\n");
+        out.append("      user_agent_string: '").append(escapeYaml(getUserAgentString())).append("'\n");
+        out.append("    expected:\n");
 
         List<String> fieldNames = getAvailableFieldNamesSorted();
 
@@ -273,41 +326,39 @@ public interface UserAgent extends Serializable {
 
         for (String fieldName : fieldNames) {
             AgentField field = get(fieldName);
-            sb.append("      ").append(fieldName);
+            out.append("      ").append(fieldName);
             for (int l = fieldName.length(); l < maxNameLength + 6; l++) {
-                sb.append(' ');
+                out.append(' ');
             }
             String value = escapeYaml(field.getValue());
-            sb.append(": '").append(value).append('\'');
+            out.append(": '").append(value).append('\'');
 
             if (showConfidence || comments != null) {
                 int l = value.length();
                 for (; l < maxValueLength + 5; l++) {
-                    sb.append(' ');
+                    out.append(' ');
                 }
-                sb.append("# ");
+                out.append("# ");
                 if (showConfidence) {
-                    sb.append(String.format("%8d", getConfidence(fieldName)));
+                    out.append(String.format("%8d", getConfidence(fieldName)));
                     if (field.isDefaultValue()) {
-                        sb.append(" [Default]");
+                        out.append(" [Default]");
                     }
                 }
                 if (comments != null) {
                     String comment = comments.get(fieldName);
                     if (comment != null) {
                         if (!field.isDefaultValue()) {
-                            sb.append("          ");
+                            out.append("          ");
                         }
-                        sb.append(" | ").append(comment);
+                        out.append(" | ").append(comment);
                     }
                 }
             }
 
-            sb.append('\n');
+            out.append('\n');
         }
-        sb.append("\n\n");
-
-        return sb.toString();
+        out.append("\n\n");
     }
 
     default Map<String, String> toMap() {
@@ -351,33 +402,25 @@ public interface UserAgent extends Serializable {
 
     default String toJson(List<String> fieldNames) {
         StringBuilder sb = new StringBuilder(10240);
-        sb.append("{");
-
-        boolean addSeparator = false;
-        for (String fieldName : fieldNames) {
-            if (addSeparator) {
-                sb.append(',');
-            } else {
-                addSeparator = true;
-            }
-            if (USERAGENT_FIELDNAME.equals(fieldName)) {
-                sb
-                    .append("\"Useragent\"")
-                    .append(':')
-                    .append('"').append(StringEscapeUtils.escapeJson(getUserAgentString())).append('"');
-            } else {
-                AgentField field = get(fieldName);
-                sb
-                    .append('"').append(StringEscapeUtils.escapeJson(fieldName)).append('"')
-                    .append(':')
-                    .append('"').append(StringEscapeUtils.escapeJson(field.getValue())).append('"');
-            }
+        try {
+            writeJson(sb, fieldNames);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Never happens with a StringBuilder
         }
-
-        sb.append("}");
         return sb.toString();
     }
 
+    /**
+     * Write the JSON form of the specified fields without any intermediate Strings.
+     * When writing many records use a single {@link UserAgentWriter} instead.
+     * @param out Where the JSON must be written to
+     * @param fieldNames The fields that must be written
+     * @throws IOException If thrown by the Appendable
+     */
+    default void writeJson(Appendable out, List<String> fieldNames) throws IOException {
+        new UserAgentWriter(fieldNames).writeJson(this, out);
+    }
+
     default String toXML() {
         List<String> fields = new ArrayList<>();
         fields.add(USERAGENT_FIELDNAME);
@@ -390,30 +433,26 @@ public interface UserAgent extends Serializable {
     }
 
     default String toXML(List<String> fieldNames) {
-        StringBuilder sb =
-            new StringBuilder(10240)
-                .append("<Yauaa>");
-
-        for (String fieldName : fieldNames) {
-            if (USERAGENT_FIELDNAME.equals(fieldName)) {
-                sb
-                    .append("<Useragent>")
-                    .append(StringEscapeUtils.escapeXml10(getUserAgentString()))
-                    .append("</Useragent>");
-            } else {
-                AgentField field = get(fieldName);
-                sb
-                    .append('<').append(StringEscapeUtils.escapeXml10(fieldName)).append('>')
-                    .append(StringEscapeUtils.escapeXml10(field.getValue()))
-                    .append("</").append(StringEscapeUtils.escapeXml10(fieldName)).append('>');
-            }
+        StringBuilder sb = new StringBuilder(10240);
+        try {
+            writeXML(sb, fieldNames);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Never happens with a StringBuilder
         }
-
-        sb.append("</Yauaa>");
-
         return sb.toString();
     }
 
+    /**
+     * Write the XML form of the specified fields without any intermediate Strings.
+     * When writing many records use a single {@link UserAgentWriter} instead.
+     * @param out Where the XML must be written to
+     * @param fieldNames The fields that must be written
+     * @throws IOException If thrown by the Appendable
+     */
+    default void writeXML(Appendable out, List<String> fieldNames) throws IOException {
+        new UserAgentWriter(fieldNames).writeXML(this, out);
+    }
+
     default String toString(String... fieldNames) {
         return toString(Arrays.asList(fieldNames));
     }
@@ -472,18 +511,13 @@ public interface UserAgent extends Serializable {
         return result;
     }
 
+    @DefaultSerializer(MutableUserAgent.KryoSerializer.class)
     class MutableUserAgent extends UserAgentBaseListener implements UserAgent, Serializable, DefaultANTLRErrorListener {
 
         private static final Logger LOG                     = LoggerFactory.getLogger(UserAgent.class);
 
         private static String getDefaultValueForField(String fieldName) {
-            if (fieldName.contains("NameVersion")) {
-                return UNKNOWN_NAME_VERSION;
-            }
-            if (fieldName.contains("Version")) {
-                return UNKNOWN_VERSION;
-            }
-            return UNKNOWN_VALUE;
+            return FieldRegistry.defaultValueFor(fieldName);
         }
 
         private Set<String> wantedFieldNames = null;
@@ -523,7 +557,7 @@ public interface UserAgent extends Serializable {
             hasSyntaxError = true;
             MutableAgentField syntaxError = new MutableAgentField("false");
             syntaxError.setValue("true", 1);
-            allFields.put(SYNTAX_ERROR, syntaxError);
+            putField(FieldRegistry.findOrdinal(SYNTAX_ERROR), syntaxError);
         }
 
         @Override
@@ -562,7 +596,127 @@ public interface UserAgent extends Serializable {
             return uaHashCode();
         }
 
-        private final Map<String, MutableAgentField> allFields = new HashMap<>();
+        // The fields are stored by their ordinal (see FieldRegistry).
+        // The ordinals differ between JVMs so these are (de)serialized by name.
+        private transient MutableAgentField[] fields;
+        // The ordinals of all fields that are present, in the order in which they were added.
+        private transient int[]               usedOrdinals;
+        private transient int                 usedOrdinalsCount;
+        // The fields without an ordinal (i.e. a name that is not part of any rule set) are kept by name.
+        // These are never registered because the registry only grows and every instance has room for all ordinals.
+        private transient Map<String, MutableAgentField> unregisteredFields;
+
+        {
+            initFields();
+        }
+
+        private void initFields() {
+            fields = new MutableAgentField[FieldRegistry.size()];
+            usedOrdinals = new int[8];
+            usedOrdinalsCount = 0;
+            unregisteredFields = null;
+        }
+
+        /**
+         * Store the fields that were kept by name under their ordinal if that name has been registered since
+         * (i.e. when the analyzer that owns this instance was deserialized). The field instances remain the same.
+         */
+        public void reindexFields() {
+            if (unregisteredFields == null) {
+                return;
+            }
+            Map<String, MutableAgentField> byName = unregisteredFields;
+            unregisteredFields = null;
+            byName.forEach(this::putField);
+        }
+
+        /**
+         * @return true if some field has a name that is not known in the {@link FieldRegistry}.
+         */
+        boolean hasUnregisteredFields() {
+            return unregisteredFields != null && !unregisteredFields.isEmpty();
+        }
+
+        private MutableAgentField getField(int ordinal) {
+            if (ordinal < 0 || ordinal >= fields.length) {
+                return null;
+            }
+            return fields[ordinal];
+        }
+
+        MutableAgentField getFieldByOrdinal(int ordinal) {
+            return getField(ordinal);
+        }
+
+        void setFieldByOrdinal(int ordinal, MutableAgentField field) {
+            putField(ordinal, field);
+        }
+
+        /**
+         * @return A copy of all fields indexed by their ordinal.
+         */
+        MutableAgentField[] getFieldsByOrdinal() {
+            int maxOrdinal = -1;
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                maxOrdinal = Math.max(maxOrdinal, usedOrdinals[i]);
+            }
+            return Arrays.copyOf(fields, maxOrdinal + 1);
+        }
+
+        // If set the analyzer only creates an ImmutableUserAgent from this instance and
+        // the deferred calculations are only done when they are needed.
+        private transient boolean derivedFieldsDeferred = false;
+
+        void deferDerivedFields() {
+            derivedFieldsDeferred = true;
+        }
+
+        boolean isDerivedFieldsDeferred() {
+            return derivedFieldsDeferred;
+        }
+
+        MutableAgentField getFieldOrNull(String fieldName) {
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal < 0) {
+                return unregisteredFields == null ? null : unregisteredFields.get(fieldName);
+            }
+            return getField(ordinal);
+        }
+
+        private MutableAgentField getOrCreateField(String fieldName) {
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            MutableAgentField field = ordinal < 0 ? getFieldOrNull(fieldName) : getField(ordinal);
+            if (field == null) {
+                field = new MutableAgentField(FieldRegistry.defaultValueFor(fieldName));
+                putField(fieldName, field);
+            }
+            return field;
+        }
+
+        private void putField(String fieldName, MutableAgentField field) {
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal >= 0) {
+                putField(ordinal, field);
+                return;
+            }
+            if (unregisteredFields == null) {
+                unregisteredFields = new LinkedHashMap<>();
+            }
+            unregisteredFields.put(fieldName, field);
+        }
+
+        private void putField(int ordinal, MutableAgentField field) {
+            if (ordinal >= fields.length) {
+                fields = Arrays.copyOf(fields, Math.max(ordinal + 1, FieldRegistry.size()));
+            }
+            if (fields[ordinal] == null) {
+                if (usedOrdinalsCount == usedOrdinals.length) {
+                    usedOrdinals = Arrays.copyOf(usedOrdinals, usedOrdinalsCount * 2);
+                }
+                usedOrdinals[usedOrdinalsCount++] = ordinal;
+            }
+            fields[ordinal] = field;
+        }
 
         private void setWantedFieldNames(Collection<String> newWantedFieldNames) {
             if (newWantedFieldNames != null) {
@@ -603,8 +757,11 @@ public interface UserAgent extends Serializable {
             hasAmbiguity = false;
             ambiguityCount = 0;
 
-            for (MutableAgentField field : allFields.values()) {
-                field.reset();
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                fields[usedOrdinals[i]].reset();
+            }
+            if (unregisteredFields != null) {
+                unregisteredFields.values().forEach(MutableAgentField::reset);
             }
         }
 
@@ -620,7 +777,7 @@ public interface UserAgent extends Serializable {
         }
 
         public void processSetAll() {
-            MutableAgentField setAllField = allFields.get(SET_ALL_FIELDS);
+            MutableAgentField setAllField = getField(FieldRegistry.findOrdinal(SET_ALL_FIELDS));
             if (setAllField == null) {
                 return;
             }
@@ -633,21 +790,27 @@ public interface UserAgent extends Serializable {
             }
 
             long confidence = setAllField.confidence;
-            for (Map.Entry<String, MutableAgentField> fieldEntry : allFields.entrySet()) {
-                if (!isSystemField(fieldEntry.getKey())) {
-                    fieldEntry.getValue().setValue(value, confidence);
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                int ordinal = usedOrdinals[i];
+                if (!isSystemField(FieldRegistry.nameOf(ordinal))) {
+                    fields[ordinal].setValue(value, confidence);
+                }
+            }
+            if (unregisteredFields != null) {
+                for (MutableAgentField field : unregisteredFields.values()) {
+                    field.setValue(value, confidence);
                 }
             }
         }
 
         public void set(String attribute, String value, long confidence) {
-            MutableAgentField field = allFields.get(attribute);
-            if (field == null) {
-                field = new MutableAgentField(getDefaultValueForField(attribute));
+            int ordinal = FieldRegistry.findOrdinal(attribute);
+            if (ordinal >= 0) {
+                set(ordinal, value, confidence);
+                return;
             }
-
             boolean wasEmpty = confidence == -1;
-            boolean updated  = field.setValue(value, confidence);
+            boolean updated  = getOrCreateField(attribute).setValue(value, confidence);
             if (debug && !wasEmpty) {
                 if (updated) {
                     LOG.info("USE  {} ({}) = {}", attribute, confidence, value);
@@ -655,33 +818,50 @@ public interface UserAgent extends Serializable {
                     LOG.info("SKIP {} ({}) = {}", attribute, confidence, value);
                 }
             }
-            allFields.put(attribute, field);
         }
 
-        public void setForced(String attribute, String value, long confidence) {
-            MutableAgentField field = allFields.get(attribute);
+        public void set(int ordinal, String value, long confidence) {
+            MutableAgentField field = getField(ordinal);
             if (field == null) {
-                field = new MutableAgentField(getDefaultValueForField(attribute));
+                field = new MutableAgentField(FieldRegistry.defaultValueOf(ordinal));
+                putField(ordinal, field);
+            }
+
+            boolean wasEmpty = confidence == -1;
+            boolean updated  = field.setValue(value, confidence);
+            if (debug && !wasEmpty) {
+                if (updated) {
+                    LOG.info("USE  {} ({}) = {}", FieldRegistry.nameOf(ordinal), confidence, value);
+                } else {
+                    LOG.info("SKIP {} ({}) = {}", FieldRegistry.nameOf(ordinal), confidence, value);
+                }
             }
+        }
+
+        public void setForced(String attribute, String value, long confidence) {
+            MutableAgentField field = getOrCreateField(attribute);
 
             boolean wasEmpty = confidence == -1;
             field.setValueForced(value, confidence);
             if (debug && !wasEmpty) {
                 LOG.info("USE  {} ({}) = {}", attribute, confidence, value);
             }
-            allFields.put(attribute, field);
         }
 
         // The appliedMatcher parameter is needed for development and debugging.
         public void set(MutableUserAgent newValuesUserAgent, Matcher appliedMatcher) { // NOSONAR: Unused parameter
-            for (String fieldName : newValuesUserAgent.allFields.keySet()) {
-                MutableAgentField field = newValuesUserAgent.allFields.get(fieldName);
-                set(fieldName, field.value, field.confidence);
+            for (int i = 0; i < newValuesUserAgent.usedOrdinalsCount; i++) {
+                int ordinal = newValuesUserAgent.usedOrdinals[i];
+                MutableAgentField field = newValuesUserAgent.fields[ordinal];
+                set(ordinal, field.value, field.confidence);
+            }
+            if (newValuesUserAgent.unregisteredFields != null) {
+                newValuesUserAgent.unregisteredFields.forEach((name, field) -> set(name, field.value, field.confidence));
             }
         }
 
         void setImmediateForTesting(String fieldName, MutableAgentField agentField) {
-            allFields.put(fieldName, agentField);
+            putField(fieldName, agentField);
         }
 
         public AgentField get(String fieldName) {
@@ -690,10 +870,7 @@ public interface UserAgent extends Serializable {
                 agentField.setValue(userAgentString, 0L);
                 return agentField;
             } else {
-                return allFields
-                    .computeIfAbsent(
-                        fieldName,
-                        f -> new MutableAgentField(getDefaultValueForField(fieldName)));
+                return getOrCreateField(fieldName);
             }
         }
 
@@ -701,18 +878,36 @@ public interface UserAgent extends Serializable {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return userAgentString;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getFieldOrNull(fieldName);
             if (field == null) {
                 return getDefaultValueForField(fieldName);
             }
             return field.getValue();
         }
 
+        @Override
+        public String getValue(int ordinal) {
+            AgentField field = getField(ordinal);
+            if (field == null) {
+                return FieldRegistry.defaultValueOf(ordinal);
+            }
+            return field.getValue();
+        }
+
         public Long getConfidence(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return 0L;
             }
-            AgentField field = allFields.get(fieldName);
+            AgentField field = getFieldOrNull(fieldName);
+            if (field == null) {
+                return -1L;
+            }
+            return field.getConfidence();
+        }
+
+        @Override
+        public long getConfidence(int ordinal) {
+            AgentField field = getField(ordinal);
             if (field == null) {
                 return -1L;
             }
@@ -721,24 +916,24 @@ public interface UserAgent extends Serializable {
 
         @Override
         public List<String> getAvailableFieldNamesSorted() {
-            List<String> fieldNames = new ArrayList<>(allFields.size() + 10);
+            List<String> fieldNames = new ArrayList<>(usedOrdinalsCount + 10);
             if (wantedFieldNames == null) {
                 fieldNames.addAll(STANDARD_FIELDS);
-                allFields.forEach((fieldName, field) -> {
-                    if (!fieldNames.contains(fieldName)) {
-                        if (!field.isDefaultValue()) {
-                            fieldNames.add(fieldName);
-                        }
-                    }
-                });
-            } else {
-                allFields.forEach((fieldName, field) -> {
-                    if (!fieldNames.contains(fieldName)) {
-                        if (!field.isDefaultValue()) {
-                            if (wantedFieldNames.contains(fieldName)) {
-                                fieldNames.add(fieldName);
-                            }
-                        }
+            }
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                int ordinal = usedOrdinals[i];
+                String fieldName = FieldRegistry.nameOf(ordinal);
+                if (!fields[ordinal].isDefaultValue() &&
+                    (wantedFieldNames == null || wantedFieldNames.contains(fieldName)) &&
+                    !fieldNames.contains(fieldName)) {
+                    fieldNames.add(fieldName);
+                }
+            }
+            if (unregisteredFields != null) {
+                unregisteredFields.forEach((fieldName, field) -> {
+                    if (!field.isDefaultValue() &&
+                        (wantedFieldNames == null || wantedFieldNames.contains(fieldName))) {
+                        fieldNames.add(fieldName);
                     }
                 });
             }
@@ -756,37 +951,307 @@ public interface UserAgent extends Serializable {
             return result;
         }
 
+        /**
+         * Push the same fields as getAvailableFieldNamesSorted() into the sink (in no particular order)
+         * without creating any intermediate objects.
+         * A field that has no ordinal in the {@link FieldRegistry} cannot be received by a sink and is skipped.
+         * @param sink The receiver of the field values
+         */
+        void forEachAvailableField(UserAgentResultSink sink) {
+            if (wantedFieldNames == null) {
+                for (int ordinal = 0; ordinal < STANDARD_FIELDS.size(); ordinal++) {
+                    sink.accept(ordinal, getValue(ordinal), getConfidence(ordinal));
+                }
+            }
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                int ordinal = usedOrdinals[i];
+                if (FieldRegistry.isStandardField(ordinal) && wantedFieldNames == null) {
+                    continue; // Already done
+                }
+                MutableAgentField field = fields[ordinal];
+                if (field.isDefaultValue()) {
+                    continue;
+                }
+                String fieldName = FieldRegistry.nameOf(ordinal);
+                if (SET_ALL_FIELDS.equals(fieldName) ||
+                    (wantedFieldNames != null && !wantedFieldNames.contains(fieldName))) {
+                    continue;
+                }
+                sink.accept(ordinal, field.getValue(), field.getConfidence());
+            }
+        }
+
+        /**
+         * Push the requested fields into the sink (in the order of the requested ordinals) with the same
+         * values and confidences as the ImmutableUserAgent of this result would have.
+         * A field that is not available is pushed with the value and confidence (-1) that
+         * the ImmutableUserAgent returns for it.
+         * @param fieldOrdinals The ordinals of the requested fields
+         * @param sink The receiver of the field values
+         */
+        void forEachField(int[] fieldOrdinals, UserAgentResultSink sink) {
+            for (int ordinal : fieldOrdinals) {
+                MutableAgentField field = getField(ordinal);
+                if (wantedFieldNames == null && FieldRegistry.isStandardField(ordinal)) {
+                    sink.accept(ordinal, getValue(ordinal), getConfidence(ordinal));
+                } else if (field == null || field.isDefaultValue() ||
+                    (wantedFieldNames != null && !wantedFieldNames.contains(FieldRegistry.nameOf(ordinal)))) {
+                    sink.accept(ordinal, FieldRegistry.defaultValueOf(ordinal), -1L);
+                } else {
+                    sink.accept(ordinal, field.getValue(), field.getConfidence());
+                }
+            }
+        }
+
+        private void writeObject(ObjectOutputStream stream) throws IOException {
+            stream.defaultWriteObject();
+            stream.writeInt(usedOrdinalsCount + (unregisteredFields == null ? 0 : unregisteredFields.size()));
+            for (int i = 0; i < usedOrdinalsCount; i++) {
+                int ordinal = usedOrdinals[i];
+                stream.writeUTF(FieldRegistry.nameOf(ordinal));
+                stream.writeObject(fields[ordinal]);
+            }
+            if (unregisteredFields != null) {
+                for (Map.Entry<String, MutableAgentField> entry : unregisteredFields.entrySet()) {
+                    stream.writeUTF(entry.getKey());
+                    stream.writeObject(entry.getValue());
+                }
+            }
+        }
+
+        private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+            stream.defaultReadObject();
+            initFields();
+            int count = stream.readInt();
+            for (int i = 0; i < count; i++) {
+                String fieldName = stream.readUTF();
+                putField(fieldName, (MutableAgentField) stream.readObject());
+            }
+        }
+
+        public static class KryoSerializer extends FieldSerializer<MutableUserAgent> {
+            public KryoSerializer(Kryo kryo, Class<?> type) {
+                super(kryo, type);
+            }
+
+            @Override
+            public void write(Kryo kryo, Output output, MutableUserAgent object) {
+                super.write(kryo, output, object);
+                Map<String, MutableAgentField> unregistered = object.unregisteredFields;
+                output.writeInt(object.usedOrdinalsCount + (unregistered == null ? 0 : unregistered.size()), true);
+                for (int i = 0; i < object.usedOrdinalsCount; i++) {
+                    int ordinal = object.usedOrdinals[i];
+                    output.writeString(FieldRegistry.nameOf(ordinal));
+                    // Written as a (possibly shared) object so references from the matcher actions remain intact.
+                    kryo.writeObject(output, object.fields[ordinal]);
+                }
+                if (unregistered != null) {
+                    for (Map.Entry<String, MutableAgentField> entry : unregistered.entrySet()) {
+                        output.writeString(entry.getKey());
+                        kryo.writeObject(output, entry.getValue());
+                    }
+                }
+            }
+
+            @Override
+            public MutableUserAgent read(Kryo kryo, Input input, Class<? extends MutableUserAgent> type) {
+                MutableUserAgent userAgent = super.read(kryo, input, type);
+                userAgent.initFields();
+                int count = input.readInt(true);
+                for (int i = 0; i < count; i++) {
+                    String fieldName = input.readString();
+                    userAgent.putField(fieldName, kryo.readObject(input, MutableAgentField.class));
+                }
+                return userAgent;
+            }
+        }
+
         @Override
         public String toString() {
             return toString(getAvailableFieldNamesSorted());
         }
     }
 
+    @DefaultSerializer(ImmutableUserAgent.KryoSerializer.class)
     class ImmutableUserAgent implements UserAgent {
-        private final String                            userAgentString;
-        private final ImmutableAgentField               userAgentStringField;
-        private final Map<String, ImmutableAgentField>  allFields;
-        private final List<String>                      availableFieldNamesSorted;
-        private final boolean                           hasSyntaxError;
-        private final boolean                           hasAmbiguity;
-        private final int                               ambiguityCount;
+        private final String            userAgentString;
+        // The field values are often shared with other instances that have the same results.
+        // The ordinals differ between JVMs so these are (de)serialized by name.
+        private final transient FieldValuesBlock fieldValues;
+        private final boolean           hasSyntaxError;
+        private final boolean           hasAmbiguity;
+        private final int               ambiguityCount;
+        // The DeviceClass (lowest bits) and the classifier flags derived from it are determined once.
+        private final transient int     classification;
+
+        private static final int           DEVICE_CLASS_ORDINAL        = FieldRegistry.findOrdinal(DEVICE_CLASS);
+        private static final DeviceClass[] DEVICE_CLASSES              = DeviceClass.values();
+        private static final int           DEVICE_CLASS_MASK           = 0x1F;
+        private static final int           NORMAL_CONSUMER_DEVICE_FLAG = 1 << 5;
+        private static final int           MOBILE_FLAG                 = 1 << 6;
+        private static final int           HUMAN_FLAG                  = 1 << 7;
+        private static final int           DELIBERATE_MISUSE_FLAG      = 1 << 8;
+
+        private static int classify(String deviceClassValue) {
+            DeviceClass deviceClass = UserAgentClassifier.getDeviceClass(deviceClassValue);
+            int result = deviceClass.ordinal();
+            if (UserAgentClassifier.isNormalConsumerDevice(deviceClass)) {
+                result |= NORMAL_CONSUMER_DEVICE_FLAG;
+            }
+            if (UserAgentClassifier.isMobile(deviceClass)) {
+                result |= MOBILE_FLAG;
+            }
+            if (UserAgentClassifier.isHuman(deviceClass)) {
+                result |= HUMAN_FLAG;
+            }
+            if (UserAgentClassifier.isDeliberateMisuse(deviceClass)) {
+                result |= DELIBERATE_MISUSE_FLAG;
+            }
+            return result;
+        }
 
         public ImmutableUserAgent(MutableUserAgent userAgent) {
+            this(userAgent, null);
+        }
+
+        /**
+         * Create an immutable copy of the provided MutableUserAgent.
+         * @param userAgent The user agent that is to be copied.
+         * @param valueDictionary The dictionary used to canonicalize and share the values (null means no sharing).
+         */
+        public ImmutableUserAgent(MutableUserAgent userAgent, ValueDictionary valueDictionary) {
+            this(userAgent, userAgent.getAvailableFieldNamesSorted(), valueDictionary);
+        }
+
+        private ImmutableUserAgent(MutableUserAgent userAgent, List<String> fieldNames, ValueDictionary valueDictionary) {
+            this(userAgent.userAgentString,
+                userAgent.hasSyntaxError,
+                userAgent.hasAmbiguity,
+                userAgent.ambiguityCount,
+                fieldNames,
+                fieldNames.stream().map(userAgent::getFieldOrNull).toArray(MutableAgentField[]::new),
+                valueDictionary);
+        }
+
+        ImmutableUserAgent(String userAgentString,
+                           boolean hasSyntaxError,
+                           boolean hasAmbiguity,
+                           int ambiguityCount,
+                           List<String> fieldNames,
+                           MutableAgentField[] fields,
+                           ValueDictionary valueDictionary) {
+            this.userAgentString = userAgentString;
+            this.hasSyntaxError = hasSyntaxError;
+            this.hasAmbiguity = hasAmbiguity;
+            this.ambiguityCount = ambiguityCount;
+
+            FieldValuesBlock block = new FieldValuesBlock(fieldNames, fields, valueDictionary);
+            fieldValues = valueDictionary == null ? block : valueDictionary.share(block);
+            classification = classify(fieldValues.getValue(DEVICE_CLASS_ORDINAL));
+        }
+
+        /**
+         * Create an immutable copy of the provided MutableUserAgent on which the deferred calculations
+         * have not yet been done.
+         */
+        ImmutableUserAgent(MutableUserAgent userAgent, ValueDictionary valueDictionary, FieldValuesBlock.Deferral deferral) {
             userAgentString = userAgent.userAgentString;
             hasSyntaxError = userAgent.hasSyntaxError;
             hasAmbiguity = userAgent.hasAmbiguity;
             ambiguityCount = userAgent.ambiguityCount;
 
-            userAgentStringField = new ImmutableAgentField(userAgentString, 0L, false, userAgentString);
+            FieldValuesBlock block = new FieldValuesBlock(userAgent.getFieldsByOrdinal(), deferral, valueDictionary);
+            fieldValues = valueDictionary == null ? block : valueDictionary.share(block);
+            classification = classify(fieldValues.getValue(DEVICE_CLASS_ORDINAL));
+        }
+
+        /**
+         * @param other The other instance
+         * @return true if both instances share the same field values instance.
+         */
+        boolean sharesFieldValuesWith(ImmutableUserAgent other) {
+            return fieldValues == other.fieldValues;
+        }
+
+        FieldValuesBlock getFieldValues() {
+            return fieldValues;
+        }
+
+        // Java serialization goes through this name based form.
+        private Object writeReplace() {
+            return new SerializedForm(this);
+        }
+
+        private void readObject(ObjectInputStream stream) throws InvalidObjectException {
+            throw new InvalidObjectException("An ImmutableUserAgent must be deserialized via its SerializedForm");
+        }
+
+        private static final class SerializedForm implements Serializable {
+            private final String              userAgentString;
+            private final boolean             hasSyntaxError;
+            private final boolean             hasAmbiguity;
+            private final int                 ambiguityCount;
+            private final List<String>        fieldNames;
+            private final MutableAgentField[] fields;
+
+            SerializedForm(ImmutableUserAgent userAgent) {
+                userAgentString = userAgent.userAgentString;
+                hasSyntaxError = userAgent.hasSyntaxError;
+                hasAmbiguity = userAgent.hasAmbiguity;
+                ambiguityCount = userAgent.ambiguityCount;
+                fieldNames = new ArrayList<>(userAgent.fieldValues.getFieldNamesSorted());
+                fields = userAgent.fieldValues.getFields();
+            }
+
+            private Object readResolve() {
+                return new ImmutableUserAgent(userAgentString, hasSyntaxError, hasAmbiguity, ambiguityCount, fieldNames, fields, null);
+            }
+        }
+
+        /**
+         * Writes the compact binary form of the {@link ImmutableUserAgentCodec}.
+         */
+        public static class KryoSerializer extends Serializer<ImmutableUserAgent> {
+            private final ImmutableUserAgentCodec codec;
+
+            public KryoSerializer() {
+                this(new ImmutableUserAgentCodec());
+            }
 
-            Map<String, ImmutableAgentField> preparingAllFields = new LinkedHashMap<>(userAgent.allFields.size());
+            /**
+             * @param codec The codec to use (i.e. with a field name dictionary for all the fields of an analyzer).
+             */
+            public KryoSerializer(ImmutableUserAgentCodec codec) {
+                this.codec = codec;
+                setImmutable(true);
+            }
 
-            for (String fieldName: userAgent.getAvailableFieldNamesSorted()) {
-                preparingAllFields.put(fieldName, new ImmutableAgentField((MutableAgentField) userAgent.get(fieldName)));
+            /**
+             * Explicitly registers ImmutableUserAgent with this serializer (i.e. when registration is required).
+             * This is a separate method so the Kryo classes are only loaded if Kryo is actually used.
+             * @param kryo The Kryo instance that needs to be configured.
+             */
+            static void configureKryo(Kryo kryo) {
+                kryo.register(ImmutableUserAgent.class, new KryoSerializer());
             }
 
-            allFields = Collections.unmodifiableMap(preparingAllFields);
-            availableFieldNamesSorted = Collections.unmodifiableList(userAgent.getAvailableFieldNamesSorted());
+            @Override
+            public void write(Kryo kryo, Output output, ImmutableUserAgent object) {
+                try {
+                    codec.encode(object, output);
+                } catch (IOException e) {
+                    throw new KryoException(e);
+                }
+            }
+
+            @Override
+            public ImmutableUserAgent read(Kryo kryo, Input input, Class<? extends ImmutableUserAgent> type) {
+                try {
+                    return codec.decode(input);
+                } catch (IOException e) {
+                    throw new KryoException(e);
+                }
+            }
         }
 
         @Override
@@ -796,39 +1261,49 @@ public interface UserAgent extends Serializable {
 
         public AgentField get(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
-                return userAgentStringField;
-            } else {
-                ImmutableAgentField agentField = allFields.get(fieldName);
-                if (agentField == null) {
-                    agentField = new ImmutableAgentField(MutableUserAgent.getDefaultValueForField(fieldName),
-                        -1,
-                        true,
-                        MutableUserAgent.getDefaultValueForField(fieldName));
-                }
-                return agentField;
+                return new ImmutableAgentField(userAgentString, 0L, false, userAgentString);
+            }
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            AgentField agentField = ordinal < 0 ? fieldValues.getUnregisteredField(fieldName) : fieldValues.get(ordinal);
+            if (agentField == null) {
+                String defaultValue = MutableUserAgent.getDefaultValueForField(fieldName);
+                return new ImmutableAgentField(defaultValue, -1, true, defaultValue);
             }
+            return agentField;
         }
 
         public String getValue(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return userAgentString;
             }
-            AgentField field = allFields.get(fieldName);
-            if (field == null) {
-                return MutableUserAgent.getDefaultValueForField(fieldName);
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal < 0) {
+                AgentField agentField = fieldValues.getUnregisteredField(fieldName);
+                return agentField == null ? MutableUserAgent.getDefaultValueForField(fieldName) : agentField.getValue();
             }
-            return field.getValue();
+            return fieldValues.getValue(ordinal);
+        }
+
+        @Override
+        public String getValue(int ordinal) {
+            return fieldValues.getValue(ordinal);
         }
 
         public Long getConfidence(String fieldName) {
             if (USERAGENT_FIELDNAME.equals(fieldName)) {
                 return 0L;
             }
-            AgentField field = allFields.get(fieldName);
-            if (field == null) {
-                return -1L;
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal < 0) {
+                AgentField agentField = fieldValues.getUnregisteredField(fieldName);
+                return agentField == null ? -1L : agentField.getConfidence();
             }
-            return field.getConfidence();
+            return fieldValues.getConfidence(ordinal);
+        }
+
+        @Override
+        public long getConfidence(int ordinal) {
+            return fieldValues.getConfidence(ordinal);
         }
 
         public boolean hasSyntaxError() {
@@ -843,9 +1318,52 @@ public interface UserAgent extends Serializable {
             return ambiguityCount;
         }
 
+        /**
+         * @return The DeviceClass as determined when this instance was created.
+         */
+        public DeviceClass getDeviceClass() {
+            return DEVICE_CLASSES[classification & DEVICE_CLASS_MASK];
+        }
+
+        /**
+         * @return Is this a 'normal' consumer device that can simply be bought/downloaded and used as intended.
+         */
+        public boolean isNormalConsumerDevice() {
+            return (classification & NORMAL_CONSUMER_DEVICE_FLAG) != 0;
+        }
+
+        /**
+         * @return Is this a 'mobile' device. (includes robots that want to be treated as mobile)
+         */
+        public boolean isMobile() {
+            return (classification & MOBILE_FLAG) != 0;
+        }
+
+        /**
+         * @return If this is probably a human using the device.
+         */
+        public boolean isHuman() {
+            return (classification & HUMAN_FLAG) != 0;
+        }
+
+        /**
+         * @return Do we see this as deliberate misuse?
+         */
+        public boolean isDeliberateMisuse() {
+            return (classification & DELIBERATE_MISUSE_FLAG) != 0;
+        }
+
         @Override
         public List<String> getAvailableFieldNamesSorted() {
-            return availableFieldNamesSorted;
+            return fieldValues.getFieldNamesSorted();
+        }
+
+        /**
+         * Push all available fields into the sink in the order of getAvailableFieldNamesSorted().
+         * @param sink The receiver of the field values
+         */
+        void forEachAvailableField(UserAgentResultSink sink) {
+            fieldValues.forEachField(sink);
         }
 
         @Override
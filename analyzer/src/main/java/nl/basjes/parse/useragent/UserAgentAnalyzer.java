@@ -21,6 +21,7 @@ import com.esotericsoftware.kryo.DefaultSerializer;
 import com.esotericsoftware.kryo.Kryo;
 
 import java.io.Serializable;
+import java.util.Collection;
 
 @DefaultSerializer(UserAgentAnalyzer.KryoSerializer.class)
 public final class UserAgentAnalyzer extends AbstractUserAgentAnalyzer implements Serializable {
@@ -35,6 +36,33 @@ public final class UserAgentAnalyzer extends AbstractUserAgentAnalyzer implement
         }
     }
 
+    /**
+     * Create a new analyzer that only extracts the specified fields by reusing the rules that have already been
+     * loaded by this analyzer. This avoids scanning the classpath and parsing all the Yaml files again.
+     * The lookups and sets are shared between the two analyzers.
+     * All other settings (cache size, maximum useragent length, value dictionary size, keeping the tests,
+     * immediate or delayed initialization, compiling the matchers on demand and the preheat) are copied
+     * from this analyzer. The field calculators are the standard ones for the requested fields.
+     * Note that this is NOT cheap: only the loading of the rules is skipped. The derived analyzer still
+     * creates and initializes all of its own matchers (and does the preheat) which is a large part of the
+     * time and memory needed to build a new analyzer.
+     * Only possible on an analyzer that was built in this JVM (i.e. not deserialized) and was not destroyed.
+     * @param fieldNames The names of the fields the new analyzer must extract.
+     * @return A new analyzer for only the requested fields.
+     */
+    public UserAgentAnalyzer deriveWithFields(Collection<String> fieldNames) {
+        UserAgentAnalyzerBuilder builder = newBuilder()
+            .withFields(fieldNames)
+            .withCache(getCacheSize())
+            .withUserAgentMaxLength(getUserAgentMaxLength())
+            .withValueDictionary(getValueDictionarySize())
+            .hideMatcherLoadStats();
+        if (willKeepTests()) {
+            builder.keepTests();
+        }
+        return builder.deriveFrom(this).build();
+    }
+
     /**
      * This is used to configure the provided Kryo instance if Kryo serialization is desired.
      * The expected type here is Object because otherwise the Kryo library becomes
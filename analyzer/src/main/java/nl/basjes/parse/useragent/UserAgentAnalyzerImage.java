@@ -0,0 +1,221 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.utils.YauaaVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A rule image is the standard Java serialization of a fully initialized {@link UserAgentAnalyzer}
+ * (matchers, compiled walk lists, lookups, sets and the inform index) with a checked header in front of it.
+ * Loading such an image skips the classpath scan, the Yaml parsing and the compilation of all
+ * the walk expressions, but every object is still decoded and allocated by the Java deserialization
+ * (in the measurements this was about 4 times faster than building from the Yaml rules).
+ * This is NOT a zero copy image format that is used directly from the file.
+ * <p>
+ * What this adds to plain Java serialization is:
+ * <ul>
+ * <li>A small header (magic, format version and the exact Yauaa version that wrote it).
+ * An image is only accepted by the exact same Yauaa version; anything else must be rebuilt from the Yaml rules.</li>
+ * <li>Only the classes of Yauaa itself and the few JDK types it uses (collections, boxed primitives and arrays)
+ * are accepted while reading; anything else in the file is rejected before it is instantiated.</li>
+ * </ul>
+ */
+public final class UserAgentAnalyzerImage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserAgentAnalyzerImage.class);
+
+    static final int    MAGIC          = 0x59554149; // "YUAI"
+    static final int    FORMAT_VERSION = 1;
+
+    private UserAgentAnalyzerImage() {
+    }
+
+    /**
+     * Write the provided analyzer as a rule image.
+     * The analyzer is fully initialized before it is written.
+     * @param analyzer The analyzer to store.
+     * @param imageFile The file to write the image to (will be overwritten).
+     * @throws IOException When writing fails.
+     */
+    public static void write(UserAgentAnalyzer analyzer, Path imageFile) throws IOException {
+        analyzer.initializeMatchers();
+        long start = System.nanoTime();
+        try (OutputStream      out     = new BufferedOutputStream(Files.newOutputStream(imageFile), 1 << 16);
+             DataOutputStream  header  = new DataOutputStream(out)) {
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeUTF(YauaaVersion.getVersion());
+            header.flush();
+
+            try (ObjectOutputStream objects = new ObjectOutputStream(header)) {
+                objects.writeObject(analyzer);
+            }
+        }
+        long stop = System.nanoTime();
+        LOG.info("Wrote rule image {} ({} bytes) in {} msec",
+            imageFile, Files.size(imageFile), (stop - start) / 1000000);
+    }
+
+    /**
+     * Load an analyzer from a rule image that was written by {@link #write(UserAgentAnalyzer, Path)}.
+     * @param imageFile The image file.
+     * @return The ready to use analyzer.
+     * @throws IOException When reading fails.
+     * @throws InvalidParserConfigurationException When the file is not a rule image of this exact Yauaa version.
+     */
+    public static UserAgentAnalyzer load(Path imageFile) throws IOException {
+        long start = System.nanoTime();
+        UserAgentAnalyzer analyzer;
+        try (DataInputStream header = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(imageFile), 1 << 16))) {
+            analyzer = readImage(imageFile, header);
+        }
+        long stop = System.nanoTime();
+        LOG.info("Loaded rule image {} in {} msec", imageFile, (stop - start) / 1000000);
+        return analyzer;
+    }
+
+    private static UserAgentAnalyzer readImage(Path imageFile, DataInputStream header) throws IOException {
+        int magic;
+        int formatVersion;
+        try {
+            magic = header.readInt();
+            formatVersion = header.readInt();
+        } catch (EOFException e) {
+            throw new InvalidParserConfigurationException("The file " + imageFile + " is not a Yauaa rule image.", e);
+        }
+        if (magic != MAGIC) {
+            throw new InvalidParserConfigurationException("The file " + imageFile + " is not a Yauaa rule image.");
+        }
+        if (formatVersion != FORMAT_VERSION) {
+            throw new InvalidParserConfigurationException(
+                "The rule image " + imageFile + " has format version " + formatVersion +
+                " which is not supported (expected " + FORMAT_VERSION + ").");
+        }
+        String imageVersion = header.readUTF();
+        String runtimeVersion = YauaaVersion.getVersion();
+        if (!runtimeVersion.equals(imageVersion)) {
+            throw new InvalidParserConfigurationException(
+                "The rule image " + imageFile + " was written by \"" + imageVersion +
+                "\" and cannot be used by \"" + runtimeVersion + "\".");
+        }
+
+        try (ObjectInputStream objects = new ImageObjectInputStream(header)) {
+            return (UserAgentAnalyzer) objects.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+            throw new InvalidParserConfigurationException("The rule image " + imageFile + " is corrupt.", e);
+        }
+    }
+
+    /**
+     * Build step: writes the rule image of the full default rule set.
+     * @param args The single argument is the file to write the image to.
+     * @throws IOException When writing fails.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: UserAgentAnalyzerImage <image file>");
+        }
+        UserAgentAnalyzer analyzer = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        write(analyzer, Paths.get(args[0]));
+    }
+
+    /**
+     * Only resolves the classes that can actually occur in an analyzer.
+     */
+    private static final class ImageObjectInputStream extends ObjectInputStream {
+        private static final String YAUAA_PACKAGE = "nl.basjes.parse.useragent.";
+
+        private static final Set<String> ALLOWED_JDK_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Boolean",
+            "java.lang.Enum",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Number",
+            "java.lang.Object",
+            "java.lang.String",
+            "java.util.ArrayList",
+            "java.util.HashMap",
+            "java.util.HashSet",
+            "java.util.LinkedHashMap",
+            "java.util.LinkedHashSet",
+            "java.util.TreeMap",
+            "java.util.TreeSet",
+            "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptyMap",
+            "java.util.Collections$EmptySet"
+        ));
+
+        ImageObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        private static boolean isAllowed(String className) {
+            String name = className;
+            while (name.startsWith("[")) {
+                name = name.substring(1);
+            }
+            if (name.startsWith("L") && name.endsWith(";")) {
+                name = name.substring(1, name.length() - 1);
+            } else if (name.length() == 1) {
+                return true; // An array of primitives
+            }
+            return name.startsWith(YAUAA_PACKAGE) || ALLOWED_JDK_CLASSES.contains(name);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "This class is not allowed in a rule image");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws InvalidClassException {
+            throw new InvalidClassException("A rule image cannot contain proxy classes");
+        }
+    }
+}
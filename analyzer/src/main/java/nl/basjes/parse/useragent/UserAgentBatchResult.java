@@ -0,0 +1,119 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of {@link AbstractUserAgentAnalyzerDirect#analyzeBatch(List, List)} in a columnar form.
+ * For each requested field there is a column with (for each input) the id of the value in the value dictionary
+ * which is shared by all columns.
+ */
+public final class UserAgentBatchResult {
+    private final List<String> fieldNames;
+    private final int          numberOfRows;
+    private final int[][]      columns;
+    private final List<String> valueDictionary;
+    private final int          numberOfDistinctInputs;
+
+    UserAgentBatchResult(List<String> fieldNames, int numberOfRows, int[][] columns,
+                         List<String> valueDictionary, int numberOfDistinctInputs) {
+        this.fieldNames = Collections.unmodifiableList(fieldNames);
+        this.numberOfRows = numberOfRows;
+        this.columns = columns;
+        this.valueDictionary = Collections.unmodifiableList(valueDictionary);
+        this.numberOfDistinctInputs = numberOfDistinctInputs;
+    }
+
+    /**
+     * @return The names of the fields in the order of the columns.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * @return The number of rows (i.e. the number of inputs) in this batch.
+     */
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    /**
+     * @return The number of different inputs in this batch (each of these was analyzed only once).
+     */
+    public int getNumberOfDistinctInputs() {
+        return numberOfDistinctInputs;
+    }
+
+    /**
+     * @param column The index of the column (see getFieldNames())
+     * @return For each row the id of the value in the value dictionary. NOTE: This is the internal array which must not be modified.
+     */
+    public int[] getColumn(int column) {
+        return columns[column];
+    }
+
+    /**
+     * @param fieldName The name of a requested field
+     * @return For each row the id of the value in the value dictionary. NOTE: This is the internal array which must not be modified.
+     * @throws IllegalArgumentException if the field was not requested
+     */
+    public int[] getColumn(String fieldName) {
+        int column = fieldNames.indexOf(fieldName);
+        if (column < 0) {
+            throw new IllegalArgumentException("The field \"" + fieldName + "\" was not requested in this batch.");
+        }
+        return columns[column];
+    }
+
+    /**
+     * @return All values that are used in the columns (the index in this list is the id).
+     */
+    public List<String> getValueDictionary() {
+        return valueDictionary;
+    }
+
+    /**
+     * @param id The id as found in a column
+     * @return The value
+     */
+    public String getValue(int id) {
+        return valueDictionary.get(id);
+    }
+
+    /**
+     * @param row The row (i.e. the index of the input)
+     * @param fieldName The name of a requested field
+     * @return The value of this field for the specified row
+     */
+    public String getValue(int row, String fieldName) {
+        return valueDictionary.get(getColumn(fieldName)[row]);
+    }
+
+    @Override
+    public String toString() {
+        return "UserAgentBatchResult{" +
+            "fieldNames=" + fieldNames +
+            ", rows=" + getNumberOfRows() +
+            ", distinctInputs=" + numberOfDistinctInputs +
+            ", values=" + valueDictionary.size() +
+            '}';
+    }
+}
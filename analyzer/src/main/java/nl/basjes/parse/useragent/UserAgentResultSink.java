@@ -0,0 +1,36 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+/**
+ * Receives the results of {@link AbstractUserAgentAnalyzerDirect#parse(CharSequence, UserAgentResultSink)}
+ * directly from the analyzer without the creation of an intermediate ImmutableUserAgent.
+ * This is intended for integrations (like SQL engines) that copy the few fields they need into their own structures.
+ */
+@FunctionalInterface
+public interface UserAgentResultSink {
+    /**
+     * Called once for every field of the parse result that is pushed into the sink
+     * (see the parse method that was used for which fields and in what order).
+     * Note that this is called while the analyzer is locked so this should not do anything expensive.
+     * @param fieldOrdinal The ordinal of the field (see {@link FieldRegistry#findOrdinal(String)})
+     * @param value The value of the field
+     * @param confidence The confidence of the value (-1 means it is the default value)
+     */
+    void accept(int fieldOrdinal, String value, long confidence);
+}
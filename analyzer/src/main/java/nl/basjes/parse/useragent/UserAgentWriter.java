@@ -0,0 +1,180 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+
+/**
+ * Writes the JSON and XML forms (the same as {@link UserAgent#toJson()} and {@link UserAgent#toXML()})
+ * of many UserAgents directly to an Appendable without creating intermediate Strings.
+ * The escaped field names are only created once per writer so a single writer should be used for all records.
+ * To write to an OutputStream wrap it once in a {@link java.io.Writer} (like {@link #newWriter(OutputStream)})
+ * and use that same Writer for all records.
+ * A UserAgentWriter is thread safe.
+ */
+public final class UserAgentWriter {
+
+    // The escaped field name in all the forms that are written.
+    private static final class FieldOutput {
+        private final String fieldName;
+        private final String jsonPrefix;
+        private final String xmlOpen;
+        private final String xmlClose;
+
+        FieldOutput(String fieldName) {
+            this.fieldName = fieldName;
+            jsonPrefix = '"' + StringEscapeUtils.escapeJson(fieldName) + "\":\"";
+            String xmlName = StringEscapeUtils.escapeXml10(fieldName);
+            xmlOpen = '<' + xmlName + '>';
+            xmlClose = "</" + xmlName + '>';
+        }
+    }
+
+    // Null means the useragent and all available fields of each record.
+    private final FieldOutput[] fieldOutputs;
+    private final Map<String, FieldOutput> availableFieldOutputs = new ConcurrentHashMap<>();
+
+    /**
+     * A writer that writes the Useragent and all available fields of each record.
+     */
+    public UserAgentWriter() {
+        fieldOutputs = null;
+    }
+
+    /**
+     * A writer that writes only the specified fields of each record.
+     * @param fieldNames The names of the fields in the order in which they must be written.
+     */
+    public UserAgentWriter(List<String> fieldNames) {
+        fieldOutputs = fieldNames.stream().map(FieldOutput::new).toArray(FieldOutput[]::new);
+    }
+
+    private FieldOutput[] getFieldOutputs(UserAgent userAgent) {
+        if (fieldOutputs != null) {
+            return fieldOutputs;
+        }
+        List<String> fieldNames = new ArrayList<>();
+        fieldNames.add(USERAGENT_FIELDNAME);
+        fieldNames.addAll(userAgent.getAvailableFieldNamesSorted());
+        FieldOutput[] result = new FieldOutput[fieldNames.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = availableFieldOutputs.computeIfAbsent(fieldNames.get(i), FieldOutput::new);
+        }
+        return result;
+    }
+
+    private static String getValue(UserAgent userAgent, FieldOutput fieldOutput) {
+        if (USERAGENT_FIELDNAME.equals(fieldOutput.fieldName)) {
+            return userAgent.getUserAgentString();
+        }
+        return userAgent.getValue(fieldOutput.fieldName);
+    }
+
+    /**
+     * Write the JSON form of the userAgent.
+     * @param userAgent The userAgent that is to be written
+     * @param out Where the JSON must be written to
+     * @throws IOException If thrown by the Appendable
+     */
+    public void writeJson(UserAgent userAgent, Appendable out) throws IOException {
+        out.append('{');
+        boolean addSeparator = false;
+        for (FieldOutput fieldOutput : getFieldOutputs(userAgent)) {
+            if (addSeparator) {
+                out.append(',');
+            } else {
+                addSeparator = true;
+            }
+            out.append(fieldOutput.jsonPrefix);
+            appendJsonEscaped(getValue(userAgent, fieldOutput), out);
+            out.append('"');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Write the XML form of the userAgent.
+     * @param userAgent The userAgent that is to be written
+     * @param out Where the XML must be written to
+     * @throws IOException If thrown by the Appendable
+     */
+    public void writeXML(UserAgent userAgent, Appendable out) throws IOException {
+        out.append("<Yauaa>");
+        for (FieldOutput fieldOutput : getFieldOutputs(userAgent)) {
+            out.append(fieldOutput.xmlOpen);
+            appendXmlEscaped(getValue(userAgent, fieldOutput), out);
+            out.append(fieldOutput.xmlClose);
+        }
+        out.append("</Yauaa>");
+    }
+
+    /**
+     * Create the Writer that must be used for all records that are written to the OutputStream.
+     * @param out The OutputStream to write to
+     * @return A buffered UTF-8 Writer (flush or close it when done)
+     */
+    public static Writer newWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+    }
+
+    // Almost all values are plain ASCII that need no escaping at all.
+    // Only the others are escaped in exactly the same way as StringEscapeUtils does.
+
+    private static void appendJsonEscaped(String value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < ' ' || c > '~' || c == '"' || c == '\\' || c == '/') {
+                out.append(StringEscapeUtils.escapeJson(value));
+                return;
+            }
+        }
+        out.append(value);
+    }
+
+    private static void appendXmlEscaped(String value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < ' ' || c > '~' || c == '"' || c == '&' || c == '\'' || c == '<' || c == '>') {
+                out.append(StringEscapeUtils.escapeXml10(value));
+                return;
+            }
+        }
+        out.append(value);
+    }
+}
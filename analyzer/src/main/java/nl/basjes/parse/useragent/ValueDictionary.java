@@ -0,0 +1,184 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.apache.commons.collections4.map.LRUMap;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded dictionary of the values that are put in the parse results.
+ * Many results contain the same values ("Desktop", "Chrome", "Unknown", ...) which are often created
+ * as separate String instances by the calculators and the walk steps. This dictionary maps all of
+ * them to a single canonical instance and gives each of them a stable int id.
+ * <br>
+ * A value is only admitted after it has been seen twice (rare values like UUIDs and email addresses
+ * are only kept in a bounded list of candidates) and once the dictionary is full no new values are admitted.
+ * An admitted value is never removed so the ids are stable for the lifetime of the dictionary.
+ * <br>
+ * The same is done for the complete set of field values of a result: many different useragents
+ * have exactly the same results so all of those share a single instance. These are only weakly referenced
+ * so they are retained only as long as some result (i.e. a cache entry) still uses them.
+ */
+public final class ValueDictionary {
+
+    private final int maxSize;
+
+    private final Map<String, Integer> ids;
+    private volatile String[] values;
+    private int size = 0;
+
+    // The values that have been seen only once (guarded by 'this').
+    private final LRUMap<String, String> candidates;
+
+    // The field values blocks that are still in use (guarded by itself).
+    private final Map<FieldValuesBlock, WeakReference<FieldValuesBlock>> blocks;
+
+    /**
+     * @param maxSize The maximum number of values in the dictionary (0 = disable the dictionary).
+     */
+    public ValueDictionary(int maxSize) {
+        this.maxSize = Math.max(maxSize, 0);
+        ids = new ConcurrentHashMap<>(Math.min(this.maxSize, 1024));
+        values = new String[Math.min(this.maxSize, 1024)];
+        candidates = this.maxSize == 0 ? null : new LRUMap<>(this.maxSize);
+        blocks = this.maxSize == 0 ? null : new WeakHashMap<>();
+    }
+
+    /**
+     * Get the canonical instance of the value.
+     * @param value The value that is to be canonicalized.
+     * @return An equal String which (if the value was admitted into the dictionary) is the shared instance.
+     */
+    public String canonicalize(String value) {
+        if (value == null || maxSize == 0) {
+            return value;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return values[id];
+        }
+        return admit(value);
+    }
+
+    private synchronized String admit(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return values[id];
+        }
+        if (size >= maxSize) {
+            return value;
+        }
+        String candidate = candidates.remove(value);
+        if (candidate == null) {
+            candidates.put(value, value);
+            return value;
+        }
+        // Seen twice: the first instance becomes the canonical one.
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(size * 2, maxSize));
+        }
+        values[size] = candidate;
+        ids.put(candidate, size);
+        size++;
+        return candidate;
+    }
+
+    /**
+     * Get the shared instance of an equal set of field values.
+     * @param block The field values that are to be canonicalized.
+     * @return An equal block which (if the dictionary is enabled) is the shared instance.
+     */
+    FieldValuesBlock share(FieldValuesBlock block) {
+        if (blocks == null) {
+            return block;
+        }
+        synchronized (blocks) {
+            WeakReference<FieldValuesBlock> sharedReference = blocks.get(block);
+            FieldValuesBlock shared = sharedReference == null ? null : sharedReference.get();
+            if (shared != null) {
+                return shared;
+            }
+            blocks.put(block, new WeakReference<>(block));
+            return block;
+        }
+    }
+
+    /**
+     * @return The number of distinct field values blocks that are currently shared.
+     */
+    int getNumberOfSharedBlocks() {
+        if (blocks == null) {
+            return 0;
+        }
+        synchronized (blocks) {
+            return blocks.size();
+        }
+    }
+
+    /**
+     * @param value The value
+     * @return The id of this value or -1 if this value is not in the dictionary.
+     */
+    public int getId(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * @param id The id of a value
+     * @return The value with this id
+     * @throws IllegalArgumentException if there is no value with this id.
+     */
+    public String getValue(int id) {
+        String[] currentValues = values;
+        if (id < 0 || id >= currentValues.length || currentValues[id] == null) {
+            throw new IllegalArgumentException("There is no value with id " + id);
+        }
+        return currentValues[id];
+    }
+
+    /**
+     * @return The number of values in the dictionary.
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return The maximum number of values in the dictionary.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ValueDictionary{size=" + size() + ", maxSize=" + maxSize + '}';
+    }
+}
@@ -18,6 +18,7 @@
 package nl.basjes.parse.useragent.analyze;
 
 import nl.basjes.parse.useragent.AgentField;
+import nl.basjes.parse.useragent.FieldRegistry;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import nl.basjes.parse.useragent.utils.YamlUtils;
 import org.slf4j.Logger;
@@ -35,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 import static nl.basjes.parse.useragent.UserAgent.SET_ALL_FIELDS;
 import static nl.basjes.parse.useragent.analyze.Matcher.ConfigLine.Type.EXTRACT;
@@ -54,6 +56,7 @@ public class Matcher implements Serializable {
     private MutableUserAgent newValuesUserAgent = null;
 
     private long actionsThatRequireInput;
+    private boolean compileOnDemand = false;
     private boolean verbose;
     private boolean permanentVerbose;
 
@@ -238,7 +241,8 @@ public class Matcher implements Serializable {
                         new MatcherExtractAction(configLine.attribute, configLine.confidence, configLine.expression, this);
                     dynamicActions.add(action);
 
-                    // Make sure the field actually exists
+                    // Make sure the field actually exists (the field names of the rules are the only ones that get an ordinal)
+                    FieldRegistry.ordinalOf(configLine.attribute);
                     newValuesUserAgent.set(configLine.attribute, "Dummy", -9999);
                     action.setResultAgentField((AgentField.MutableAgentField) newValuesUserAgent.get(configLine.attribute));
                     break;
@@ -249,6 +253,25 @@ public class Matcher implements Serializable {
 
     }
 
+    public void setCompileOnDemand(boolean newCompileOnDemand) {
+        this.compileOnDemand = newCompileOnDemand;
+    }
+
+    boolean isCompileOnDemand() {
+        return compileOnDemand;
+    }
+
+    // The position of this matcher in the list of all matchers of the analyzer.
+    private int matcherIndex = -1;
+
+    public void setMatcherIndex(int newMatcherIndex) {
+        this.matcherIndex = newMatcherIndex;
+    }
+
+    public int getMatcherIndex() {
+        return matcherIndex;
+    }
+
     public void initialize() {
         long newEntries = 0;
         long initStart = System.nanoTime();
@@ -345,6 +368,25 @@ public class Matcher implements Serializable {
     }
 
 
+    /**
+     * @return The expressions of all actions (variables, require and extract) of this matcher.
+     */
+    public List<String> getAllMatchExpressions() {
+        List<String> expressions = new ArrayList<>(variableActions.size() + dynamicActions.size() + fixedStringActions.size());
+        variableActions.forEach(action -> expressions.add(action.getMatchExpression()));
+        dynamicActions.forEach(action -> expressions.add(action.getMatchExpression()));
+        fixedStringActions.forEach(action -> expressions.add(action.getMatchExpression()));
+        return expressions;
+    }
+
+    /**
+     * After deserialization the field names of this matcher may not yet be known in the FieldRegistry of this JVM.
+     */
+    public void registerFieldNames() {
+        getAllPossibleFieldNames().forEach(FieldRegistry::ordinalOf);
+        newValuesUserAgent.reindexFields();
+    }
+
     public Set<String> getAllPossibleFieldNames() {
         Set<String> results = new TreeSet<>();
         results.addAll(getAllPossibleFieldNames(dynamicActions));
@@ -353,6 +395,24 @@ public class Matcher implements Serializable {
         return results;
     }
 
+    /**
+     * @param fieldNames The names of the fields that are needed.
+     * @return true if this matcher can set any of these fields (this includes setting all fields at once).
+     */
+    public boolean canSetAnyOf(Collection<String> fieldNames) {
+        for (String fieldName : getAllPossibleFieldNames(dynamicActions)) {
+            if (SET_ALL_FIELDS.equals(fieldName) || fieldNames.contains(fieldName)) {
+                return true;
+            }
+        }
+        for (String fieldName : getAllPossibleFieldNames(fixedStringActions)) {
+            if (SET_ALL_FIELDS.equals(fieldName) || fieldNames.contains(fieldName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private Set<String> getAllPossibleFieldNames(List<MatcherAction> actions) {
         Set<String> results = new TreeSet<>();
         for (MatcherAction action: actions) {
@@ -364,15 +424,52 @@ public class Matcher implements Serializable {
         return results;
     }
 
+    // If not null then initialize() records the registrations with the analyzer here instead of doing them directly.
+    private transient List<Consumer<Analyzer>> deferredRegistrations = null;
+
+    /**
+     * Initialize this matcher without modifying any of the datastructures of the analyzer.
+     * This allows initializing many matchers in parallel.
+     * Afterwards {@link #registerDeferred()} must be called for all of them in the original order
+     * which produces exactly the same analyzer as when they had been initialized one by one.
+     */
+    public void initializeDeferred() {
+        deferredRegistrations = new ArrayList<>();
+        initialize();
+    }
+
+    /**
+     * Pass all registrations that were recorded by {@link #initializeDeferred()} to the analyzer.
+     */
+    public void registerDeferred() {
+        List<Consumer<Analyzer>> registrations = deferredRegistrations;
+        deferredRegistrations = null;
+        if (registrations != null) {
+            registrations.forEach(registration -> registration.accept(analyzer));
+        }
+    }
+
     public void lookingForRange(String treeName, WordRangeVisitor.Range range) {
+        if (deferredRegistrations != null) {
+            deferredRegistrations.add(target -> target.lookingForRange(treeName, range));
+            return;
+        }
         analyzer.lookingForRange(treeName, range);
     }
 
     public void informMeAbout(MatcherAction matcherAction, String keyPattern) {
+        if (deferredRegistrations != null) {
+            deferredRegistrations.add(target -> target.informMeAbout(matcherAction, keyPattern));
+            return;
+        }
         analyzer.informMeAbout(matcherAction, keyPattern);
     }
 
     public void informMeAboutPrefix(MatcherAction matcherAction, String keyPattern, String prefix) {
+        if (deferredRegistrations != null) {
+            deferredRegistrations.add(target -> target.informMeAboutPrefix(matcherAction, keyPattern, prefix));
+            return;
+        }
         analyzer.informMeAboutPrefix(matcherAction, keyPattern, prefix);
     }
 
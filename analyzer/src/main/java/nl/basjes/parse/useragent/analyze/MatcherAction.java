@@ -82,7 +82,7 @@ public abstract class MatcherAction implements Serializable {
     TreeExpressionEvaluator evaluator;
 
     TreeExpressionEvaluator getEvaluatorForUnitTesting() {
-        return evaluator;
+        return getEvaluator();
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(MatcherAction.class);
@@ -95,8 +95,14 @@ public abstract class MatcherAction implements Serializable {
         return mustHaveMatches;
     }
 
+    public Matcher getMatcher() {
+        return matcher;
+    }
+
     public void destroy() {
-        evaluator.destroy();
+        if (evaluator != null) {
+            evaluator.destroy();
+        }
     }
 
     boolean verbose = false;
@@ -143,7 +149,7 @@ public abstract class MatcherAction implements Serializable {
         setVerbose(newMatcher.getVerbose());
     }
 
-    public long initialize() {
+    private ParserRuleContext parseMatchExpression() {
         InitErrorListener errorListener = new InitErrorListener();
 
         CodePointCharStream input = CharStreams.fromString(this.matchExpression);
@@ -161,24 +167,42 @@ public abstract class MatcherAction implements Serializable {
         // We couldn't ditch the double quotes around the fixed values in the parsing phase.
         // So we ditch them here. We simply walk the tree and modify some of the tokens.
         new UnQuoteValues().visit(requiredPattern);
+        return requiredPattern;
+    }
 
-        // Now we create an evaluator instance
-        evaluator = new TreeExpressionEvaluator(requiredPattern, matcher, verbose);
-
-        // Is a fixed value (i.e. no events will ever be fired)?
-        String fixedValue = evaluator.getFixedValue();
-        if (fixedValue != null) {
-            setFixedValue(fixedValue);
-            mustHaveMatches = false;
-            matches = new MatchesList(0);
-            return 0; // Not interested in any patterns
-        }
-
-        // If this is a failIfFound we do not need any matches from the hashmap.
-        if (this instanceof MatcherFailIfFoundAction) {
-            mustHaveMatches = false;
+    public long initialize() {
+        ParserRuleContext requiredPattern = parseMatchExpression();
+
+        long prunedEntries = 0;
+        if (matcher.isCompileOnDemand() &&
+            TreeExpressionEvaluator.calculateFixedValue(requiredPattern) == null &&
+            !TreeExpressionEvaluator.canMatchWithoutInput(requiredPattern)) {
+            // Only the inform registrations are done now.
+            // The evaluator is built the first time this action actually receives input.
+            // Without any IsNull, DefaultIfNull or Lookup with a default value the WalkList
+            // will always need input so we know the outcome of evaluator.mustHaveMatches().
+            evaluator = null;
+            mustHaveMatches = !(this instanceof MatcherFailIfFoundAction);
         } else {
-            mustHaveMatches = evaluator.mustHaveMatches();
+            // Now we create an evaluator instance
+            evaluator = new TreeExpressionEvaluator(requiredPattern, matcher, verbose);
+
+            // Is a fixed value (i.e. no events will ever be fired)?
+            String fixedValue = evaluator.getFixedValue();
+            if (fixedValue != null) {
+                setFixedValue(fixedValue);
+                mustHaveMatches = false;
+                matches = new MatchesList(0);
+                return 0; // Not interested in any patterns
+            }
+
+            // If this is a failIfFound we do not need any matches from the hashmap.
+            if (this instanceof MatcherFailIfFoundAction) {
+                mustHaveMatches = false;
+            } else {
+                mustHaveMatches = evaluator.mustHaveMatches();
+            }
+            prunedEntries = prepareEvaluator(evaluator);
         }
 
         int informs = calculateInformPath(this, "agent", requiredPattern);
@@ -193,7 +217,28 @@ public abstract class MatcherAction implements Serializable {
             listSize = 1;
         }
         this.matches = new MatchesList(listSize);
-        return informs;
+        return informs - prunedEntries;
+    }
+
+    /**
+     * @return The evaluator of this action, if it was not yet built (compile on demand) it is built now.
+     */
+    TreeExpressionEvaluator getEvaluator() {
+        if (evaluator == null) {
+            TreeExpressionEvaluator newEvaluator = new TreeExpressionEvaluator(parseMatchExpression(), matcher, verbose);
+            prepareEvaluator(newEvaluator);
+            evaluator = newEvaluator;
+        }
+        return evaluator;
+    }
+
+    /**
+     * Allows a specific action to optimize the freshly built evaluator.
+     * @param newEvaluator The evaluator that was just created.
+     * @return The number of inform entries that were made obsolete.
+     */
+    protected long prepareEvaluator(TreeExpressionEvaluator newEvaluator) {
+        return 0;
     }
 
     protected abstract ParserRuleContext parseWalkerExpression(UserAgentTreeWalkerParser parser);
@@ -333,7 +378,7 @@ public abstract class MatcherAction implements Serializable {
     public abstract boolean obtainResult();
 
     boolean isValidWithoutMatches() {
-        return matches.isEmpty() && !evaluator.mustHaveMatches();
+        return matches.isEmpty() && !getEvaluator().mustHaveMatches();
     }
 
     /**
@@ -341,8 +386,9 @@ public abstract class MatcherAction implements Serializable {
      * actually perform the analysis and do the (expensive) tree walking and matching.
      */
     void processInformedMatches() {
+        TreeExpressionEvaluator actionEvaluator = getEvaluator();
         for (MatchesList.Match match : matches) {
-            WalkResult matchedValue = evaluator.evaluate(match.getResult(), match.getKey(), match.getValue());
+            WalkResult matchedValue = actionEvaluator.evaluate(match.getResult(), match.getKey(), match.getValue());
             if (matchedValue != null) {
                 inform(match.getKey(), matchedValue);
                 return; // We always stick to the first match
@@ -350,7 +396,7 @@ public abstract class MatcherAction implements Serializable {
         }
 
         if (isValidWithoutMatches()) {
-            WalkResult matchedValue = evaluator.evaluate(null, null, null);
+            WalkResult matchedValue = actionEvaluator.evaluate(null, null, null);
             if (matchedValue != null) {
                 inform(null, matchedValue);
             }
@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze;
 
+import nl.basjes.parse.useragent.analyze.treewalker.TreeExpressionEvaluator;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser;
 import org.antlr.v4.runtime.ParserRuleContext;
@@ -40,10 +41,8 @@ public class MatcherFailIfFoundAction extends MatcherAction {
     }
 
     @Override
-    public long initialize() {
-        long newEntries = super.initialize();
-        newEntries -= evaluator.pruneTrailingStepsThatCannotFail();
-        return newEntries;
+    protected long prepareEvaluator(TreeExpressionEvaluator newEvaluator) {
+        return newEvaluator.pruneTrailingStepsThatCannotFail();
     }
 
     protected void setFixedValue(String fixedValue) {
@@ -57,7 +56,7 @@ public class MatcherFailIfFoundAction extends MatcherAction {
     public void inform(String key, String value, ParseTree result) {
         super.inform(key, value, result);
         // If there are NO additional steps then we can immediately conclude this is matcher must fail.
-        if (evaluator.isEmpty()) {
+        if (getEvaluator().isEmpty()) {
             matcher.failImmediately();
         }
     }
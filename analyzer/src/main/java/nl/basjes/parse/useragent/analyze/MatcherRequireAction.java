@@ -17,6 +17,7 @@
 
 package nl.basjes.parse.useragent.analyze;
 
+import nl.basjes.parse.useragent.analyze.treewalker.TreeExpressionEvaluator;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser;
 import org.antlr.v4.runtime.ParserRuleContext;
@@ -39,10 +40,8 @@ public class MatcherRequireAction extends MatcherAction {
     }
 
     @Override
-    public long initialize() {
-        long newEntries = super.initialize();
-        newEntries -= evaluator.pruneTrailingStepsThatCannotFail();
-        return newEntries;
+    protected long prepareEvaluator(TreeExpressionEvaluator newEvaluator) {
+        return newEvaluator.pruneTrailingStepsThatCannotFail();
     }
 
     protected void setFixedValue(String fixedValue) {
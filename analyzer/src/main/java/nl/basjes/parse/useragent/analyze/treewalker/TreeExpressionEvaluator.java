@@ -22,10 +22,12 @@ import nl.basjes.parse.useragent.analyze.Matcher;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerBaseVisitor;
+import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherDefaultIfNullContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathIsInLookupContainsContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathIsInLookupContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathIsInLookupPrefixContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathIsNotInLookupPrefixContext;
+import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathIsNullContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathLookupContainsContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathLookupContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.MatcherPathLookupPrefixContext;
@@ -82,7 +84,11 @@ public class TreeExpressionEvaluator implements Serializable {
         return fixedValue;
     }
 
-    private String calculateFixedValue(ParserRuleContext requiredPattern) {
+    /**
+     * @param requiredPattern The parsed expression
+     * @return The fixed value in case of a fixed value. NULL if a dynamic value
+     */
+    public static String calculateFixedValue(ParserRuleContext requiredPattern) {
         return new UserAgentTreeWalkerBaseVisitor<String>() {
 
             @Override
@@ -143,6 +149,44 @@ public class TreeExpressionEvaluator implements Serializable {
         }.visit(requiredPattern);
     }
 
+    /**
+     * @param requiredPattern The parsed expression
+     * @return True if the WalkList of this expression contains a step that can produce a value without any input.
+     */
+    public static boolean canMatchWithoutInput(ParserRuleContext requiredPattern) {
+        return new UserAgentTreeWalkerBaseVisitor<Boolean>() {
+            @Override
+            protected Boolean defaultResult() {
+                return Boolean.FALSE;
+            }
+
+            @Override
+            protected boolean shouldVisitNextChild(RuleNode node, Boolean currentResult) {
+                return !currentResult;
+            }
+
+            @Override
+            protected Boolean aggregateResult(Boolean aggregate, Boolean nextResult) {
+                return aggregate || nextResult;
+            }
+
+            @Override
+            public Boolean visitMatcherPathIsNull(MatcherPathIsNullContext ctx) {
+                return Boolean.TRUE;
+            }
+
+            @Override
+            public Boolean visitMatcherDefaultIfNull(MatcherDefaultIfNullContext ctx) {
+                return Boolean.TRUE;
+            }
+
+            @Override
+            public Boolean visitMatcherPathLookup(MatcherPathLookupContext ctx) {
+                return ctx.defaultValue != null || visitChildren(ctx);
+            }
+        }.visit(requiredPattern);
+    }
+
     // ------------------------------------------
 
     public WalkResult evaluate(ParseTree tree, String key, String value) {
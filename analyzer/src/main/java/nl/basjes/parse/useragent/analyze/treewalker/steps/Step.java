@@ -18,8 +18,6 @@
 package nl.basjes.parse.useragent.analyze.treewalker.steps;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
-import nl.basjes.parse.useragent.parser.UserAgentParser;
-import nl.basjes.parse.useragent.parser.UserAgentParser.CommentSeparatorContext;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
@@ -27,8 +25,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.List;
 
+import static nl.basjes.parse.useragent.parser.UserAgentParser.RULE_commentSeparator;
+import static nl.basjes.parse.useragent.parser.UserAgentParser.RULE_productName;
+import static nl.basjes.parse.useragent.parser.UserAgentParser.RULE_productVersion;
+import static nl.basjes.parse.useragent.parser.UserAgentParser.RULE_productVersionWithCommas;
+import static nl.basjes.parse.useragent.parser.UserAgentParser.ruleNames;
 import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceText;
+import static nl.basjes.parse.useragent.utils.AntlrUtils.getSourceTextSlice;
 
 public abstract class Step implements Serializable {
     protected static final Logger LOG = LoggerFactory.getLogger(Step.class);
@@ -80,26 +85,85 @@ public abstract class Step implements Serializable {
         return result;
     }
 
+    // The grammar has less than 64 rules and none of them have labeled alternatives.
+    // So the rule index of a node uniquely identifies the type of the node and a set of
+    // node types fits in a single long. Testing a bit is a lot cheaper than a chain of instanceof checks.
+    static {
+        if (ruleNames.length > Long.SIZE) {
+            throw new IllegalStateException("The UserAgent grammar has too many rules (" + ruleNames.length + ") for a rule mask.");
+        }
+    }
+
+    /**
+     * Create a bitmask that contains all of the provided rule indexes (i.e. UserAgentParser.RULE_... ).
+     * @param ruleIndexes The rule indexes that must be part of the mask.
+     * @return The mask to be used in isRuleInMask.
+     */
+    public static long ruleMask(int... ruleIndexes) {
+        long mask = 0;
+        for (int ruleIndex: ruleIndexes) {
+            mask |= 1L << ruleIndex;
+        }
+        return mask;
+    }
+
+    /**
+     * Check if the provided tree is a rule node of one of the types in the mask.
+     * @param tree The node to check.
+     * @param mask The mask as created by ruleMask.
+     * @return True if the tree is a rule node of a type that is in the mask.
+     */
+    public static boolean isRuleInMask(ParseTree tree, long mask) {
+        return tree instanceof ParserRuleContext &&
+               ((mask >>> ((ParserRuleContext) tree).getRuleIndex()) & 1L) != 0;
+    }
+
+    // Needed because of the way the ANTLR rules have been defined.
+    private static final long SKIP_WHEN_GOING_UP =
+        ruleMask(RULE_productName, RULE_productVersion, RULE_productVersionWithCommas);
+
     protected final ParseTree up(ParseTree tree) {
         if (tree == null) {
             return null;
         }
 
         ParseTree parent = tree.getParent();
-
-        // Needed because of the way the ANTLR rules have been defined.
-        if (parent instanceof UserAgentParser.ProductNameContext ||
-            parent instanceof UserAgentParser.ProductVersionContext ||
-            parent instanceof UserAgentParser.ProductVersionWithCommasContext
-            ) {
-            return up(parent);
+        while (isRuleInMask(parent, SKIP_WHEN_GOING_UP)) {
+            parent = parent.getParent();
         }
         return parent;
     }
 
+    private static final long SEPARATOR = ruleMask(RULE_commentSeparator);
+
     public static boolean treeIsSeparator(ParseTree tree) {
-        return tree instanceof CommentSeparatorContext
-            || tree instanceof TerminalNode;
+        if (tree instanceof ParserRuleContext) {
+            return ((SEPARATOR >>> ((ParserRuleContext) tree).getRuleIndex()) & 1L) != 0;
+        }
+        return tree instanceof TerminalNode;
+    }
+
+    /**
+     * Find the position of the child in the list of children of the parent.
+     * @param parent The parent node (usually obtained via up(child)).
+     * @param child  The child node that is to be found.
+     * @return The index in parent.children or -1 if not found.
+     */
+    protected static int indexOfChild(ParseTree parent, ParseTree child) {
+        if (!(parent instanceof ParserRuleContext)) {
+            return -1;
+        }
+        List<ParseTree> children = ((ParserRuleContext) parent).children;
+        if (children == null) {
+            return -1;
+        }
+        int size = children.size();
+        for (int i = 0; i < size; i++) {
+            if (children.get(i) == child) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     protected String getActualValue(ParseTree tree, String value) {
@@ -109,6 +173,21 @@ public abstract class Step implements Serializable {
         return value;
     }
 
+    /**
+     * Same as getActualValue but if the value is the implicit full value of the tree this returns a TextSlice
+     * on top of the input instead of creating a new String.
+     * Use this for steps that only need to inspect the value.
+     * @param tree  The tree to get the value of.
+     * @param value The value (null means to use the implicit 'full' value).
+     * @return The value to inspect.
+     */
+    protected CharSequence getActualValueSlice(ParseTree tree, String value) {
+        if (value == null) {
+            return getSourceTextSlice((ParserRuleContext)tree);
+        }
+        return value;
+    }
+
     /**
      * This will walk into the tree and recurse through all the remaining steps.
      * This must iterate of all possibilities and return the first matching result.
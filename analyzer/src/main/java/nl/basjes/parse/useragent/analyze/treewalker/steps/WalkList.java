@@ -90,6 +90,7 @@ import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.StepPrevContex
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.StepStartsWithValueContext;
 import nl.basjes.parse.useragent.parser.UserAgentTreeWalkerParser.StepUpContext;
 import nl.basjes.parse.useragent.utils.AntlrUtils;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveSet;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -99,7 +100,6 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -332,7 +332,7 @@ public class WalkList implements Serializable {
             Map<String, String> lookup = getLookup(lookupName);
 
             // No need to write new code for essentially the same in a different syntax
-            add(new StepIsInSet(lookupName, new LinkedHashSet<>(lookup.keySet())));
+            add(new StepIsInSet(lookupName, new CaseInsensitiveSet(lookup.keySet())));
             return null; // Void
         }
 
@@ -638,7 +638,7 @@ public class WalkList implements Serializable {
             if (lookupSet == null) {
                 Map<String, String> lookup = lookups.get(lookupSetName);
                 if (lookup != null) {
-                    lookupSet = new LinkedHashSet<>(lookup.keySet());
+                    lookupSet = new CaseInsensitiveSet(lookup.keySet());
                 }
             }
             if (lookupSet == null) {
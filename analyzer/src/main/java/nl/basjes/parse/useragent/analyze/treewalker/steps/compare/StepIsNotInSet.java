@@ -19,34 +19,34 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.compare;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveSet;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.Collections;
 import java.util.Set;
 
 public class StepIsNotInSet extends Step {
 
     private final String listName;
-    private final Set<String> list;
+    private final CaseInsensitiveSet list;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepIsNotInSet() {
         listName = "<< Should not be seen anywhere >>";
-        list = Collections.emptySet();
+        list = new CaseInsensitiveSet();
     }
 
     public StepIsNotInSet(String listName, Set<String> list) {
         this.listName = listName;
-        this.list = list;
+        this.list = CaseInsensitiveSet.of(list);
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
         if (actualValue != null &&
-            !list.contains(actualValue.toLowerCase())) {
-            return walkNextStep(tree, actualValue);
+            !list.contains(actualValue)) {
+            return walkNextStep(tree, value);
         }
         return null;
     }
@@ -21,6 +21,10 @@ import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.Locale;
+
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.equalsIgnoreCase;
+
 public class StepNotEquals extends Step {
 
     private final String desiredValue;
@@ -31,16 +35,16 @@ public class StepNotEquals extends Step {
     }
 
     public StepNotEquals(String desiredValue) {
-        this.desiredValue = desiredValue.toLowerCase();
+        this.desiredValue = desiredValue.toLowerCase(Locale.ROOT);
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
         if (actualValue != null &&
-            !actualValue.equalsIgnoreCase(desiredValue)) {
-            return walkNextStep(tree, actualValue);
+            !equalsIgnoreCase(actualValue, desiredValue)) {
+            return walkNextStep(tree, value);
         }
         return null;
     }
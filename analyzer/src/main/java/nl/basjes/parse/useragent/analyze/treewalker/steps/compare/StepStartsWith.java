@@ -21,6 +21,10 @@ import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.Locale;
+
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.startsWithIgnoreCase;
+
 public class StepStartsWith extends Step {
 
     private final String desiredValue;
@@ -31,16 +35,17 @@ public class StepStartsWith extends Step {
     }
 
     public StepStartsWith(String desiredValue) {
-        this.desiredValue = desiredValue.toLowerCase();
+        this.desiredValue = desiredValue.toLowerCase(Locale.ROOT);
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
         if (actualValue != null &&
-            actualValue.toLowerCase().startsWith(desiredValue)) {
-            return walkNextStep(tree, actualValue);
+            startsWithIgnoreCase(actualValue, desiredValue)) {
+            // Passing the original (possibly implicit) value avoids creating a String we may never need.
+            return walkNextStep(tree, value);
         }
         return null;
     }
@@ -19,39 +19,36 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.HashSet;
 import java.util.Map;
 
 public class StepIsInLookupContains extends Step {
 
-    private final String          lookupName;
-    private final HashSet<String> lookupKeys;
+    private final String                     lookupName;
+    private final CaseInsensitiveMap<String> lookup;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepIsInLookupContains() {
         lookupName = null;
-        lookupKeys = null;
+        lookup = null;
     }
 
     public StepIsInLookupContains(String lookupName, Map<String, String> lookup) {
         this.lookupName = lookupName;
-        this.lookupKeys = new HashSet<>(lookup.keySet());
+        this.lookup = CaseInsensitiveMap.of(lookup);
+        this.lookup.prepareContainsLookups();
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
-        if (actualValue != null) {
-            String compareInput = actualValue.toLowerCase();
-            for (String key : lookupKeys) {
-                if (compareInput.contains(key)) {
-                    return walkNextStep(tree, actualValue);
-                }
-            }
+        if (actualValue != null && lookup.isAnyKeyContainedIn(actualValue)) {
+            return walkNextStep(tree, value);
         }
+
         // Not found:
         return null;
     }
@@ -17,18 +17,17 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
-import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.util.Map;
 
 public class StepIsInLookupPrefix extends Step {
 
-    private final String            lookupName;
-    private final PrefixMap<String> prefixMap;
+    private final String                     lookupName;
+    private final CaseInsensitiveMap<String> prefixMap;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepIsInLookupPrefix() {
@@ -38,24 +37,19 @@ public class StepIsInLookupPrefix extends Step {
 
     public StepIsInLookupPrefix(String lookupName, Map<String, String> prefixList) {
         this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        // The prefix trie is shared by all steps that use the same lookup.
+        this.prefixMap = CaseInsensitiveMap.of(prefixList);
+        this.prefixMap.preparePrefixLookups();
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
-        String result = null;
-
-        if (actualValue != null) {
-            result = prefixMap.getLongestMatch(actualValue);
-        }
-
-        if (result == null) {
+        if (actualValue == null || !prefixMap.isAnyKeyPrefixOf(actualValue)) {
             return null;
         }
-        return walkNextStep(tree, actualValue);
+        return walkNextStep(tree, value);
     }
 
     @Override
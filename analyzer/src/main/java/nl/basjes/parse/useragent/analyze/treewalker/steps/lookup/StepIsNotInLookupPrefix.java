@@ -17,56 +17,58 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
-import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveSet;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 public class StepIsNotInLookupPrefix extends Step {
 
-    private final String            lookupName;
-    private final PrefixMap<String> prefixMap;
+    private final String                     lookupName;
+    // Exactly one of these two is used (the prefix tries are shared by all steps using the same lookup/set).
+    private final CaseInsensitiveMap<String> prefixMap;
+    private final CaseInsensitiveSet         prefixSet;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepIsNotInLookupPrefix() {
         lookupName = null;
         prefixMap = null;
+        prefixSet = null;
     }
 
     public StepIsNotInLookupPrefix(String lookupName, Map<String, String> prefixList) {
         this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        this.prefixMap = CaseInsensitiveMap.of(prefixList);
+        this.prefixMap.preparePrefixLookups();
+        this.prefixSet = null;
     }
 
     public StepIsNotInLookupPrefix(String lookupName, Set<String> prefixSet) {
         this.lookupName = lookupName;
-        this.prefixMap = new StringPrefixMap<>(false);
+        this.prefixMap = null;
+        this.prefixSet = CaseInsensitiveSet.of(prefixSet);
+        this.prefixSet.preparePrefixLookups();
+    }
 
-        Map<String, String> theMap = new HashMap<>((int)(prefixSet.size()/0.75F));
-        prefixSet.forEach(v -> theMap.put(v, ""));
-        this.prefixMap.putAll(theMap);
+    private boolean hasPrefixOf(CharSequence actualValue) {
+        if (prefixMap != null) {
+            return prefixMap.isAnyKeyPrefixOf(actualValue);
+        }
+        return prefixSet.isAnyValuePrefixOf(actualValue);
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
-
-        String result = null;
-
-        if (actualValue != null) {
-            result = prefixMap.getLongestMatch(actualValue);
-        }
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
-        if (result != null) {
+        if (actualValue != null && hasPrefixOf(actualValue)) {
             return null;
         }
-        return walkNextStep(tree, actualValue);
+        return walkNextStep(tree, value);
     }
 
     @Override
@@ -19,29 +19,29 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.Collections;
 import java.util.Map;
 
 public class StepLookup extends Step {
 
     private final String lookupName;
-    private final Map<String, String> lookup;
+    private final CaseInsensitiveMap<String> lookup;
     private final String  defaultValue;
     private final boolean canFail;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepLookup() {
         lookupName = "<< Should not be seen anywhere >>";
-        lookup = Collections.emptyMap();
+        lookup = new CaseInsensitiveMap<>();
         defaultValue = "<< Should not be seen anywhere >>";
         canFail = false;
     }
 
     public StepLookup(String lookupName, Map<String, String> lookup, String defaultValue) {
         this.lookupName = lookupName;
-        this.lookup = lookup;
+        this.lookup = CaseInsensitiveMap.of(lookup);
         this.defaultValue = defaultValue;
         canFail = defaultValue == null;
     }
@@ -63,7 +63,7 @@ public class StepLookup extends Step {
         String result = null;
 
         if (actualValue != null) {
-            result = lookup.get(actualValue.toLowerCase());
+            result = lookup.get(actualValue);
         }
 
         if (result == null) {
@@ -19,40 +19,40 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-import java.util.Collections;
 import java.util.Map;
 
 public class StepLookupContains extends Step {
 
     private final String lookupName;
-    private final Map<String, String> lookup;
+    private final CaseInsensitiveMap<String> lookup;
     private final String defaultValue;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepLookupContains() {
         lookupName = "<< Should not be seen anywhere >>";
-        lookup = Collections.emptyMap();
+        lookup = new CaseInsensitiveMap<>();
         defaultValue = "<< Should not be seen anywhere >>";
     }
 
     public StepLookupContains(String lookupName, Map<String, String> lookup, String defaultValue) {
         this.lookupName = lookupName;
-        this.lookup = lookup;
+        this.lookup = CaseInsensitiveMap.of(lookup);
+        this.lookup.prepareContainsLookups();
         this.defaultValue = defaultValue;
     }
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String input = getActualValue(tree, value);
+        CharSequence input = getActualValueSlice(tree, value);
 
         if (input != null) {
-            input = input.toLowerCase();
-            for (Map.Entry<String, String> entry: lookup.entrySet()) {
-                if (input.contains(entry.getKey())) {
-                    return walkNextStep(tree, entry.getValue());
-                }
+            // The first key (in the order of the lookup) that is contained in the input wins.
+            String result = lookup.getFirstContainedIn(input);
+            if (result != null) {
+                return walkNextStep(tree, result);
             }
         }
 
@@ -17,20 +17,19 @@
 
 package nl.basjes.parse.useragent.analyze.treewalker.steps.lookup;
 
-import nl.basjes.collections.PrefixMap;
-import nl.basjes.collections.prefixmap.StringPrefixMap;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import nl.basjes.parse.useragent.utils.CaseInsensitiveMap;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.util.Map;
 
 public class StepLookupPrefix extends Step {
 
-    private final String            lookupName;
-    private final String            defaultValue;
-    private final PrefixMap<String> prefixMap;
-    private final boolean           canFail;
+    private final String                     lookupName;
+    private final String                     defaultValue;
+    private final CaseInsensitiveMap<String> prefixMap;
+    private final boolean                    canFail;
 
     @SuppressWarnings("unused") // Private constructor for serialization systems ONLY (like Kryo)
     private StepLookupPrefix() {
@@ -43,8 +42,9 @@ public class StepLookupPrefix extends Step {
     public StepLookupPrefix(String lookupName, Map<String, String> prefixList, String defaultValue) {
         this.lookupName = lookupName;
         this.defaultValue = defaultValue;
-        this.prefixMap = new StringPrefixMap<>(false);
-        this.prefixMap.putAll(prefixList);
+        // The prefix trie is shared by all steps that use the same lookup.
+        this.prefixMap = CaseInsensitiveMap.of(prefixList);
+        this.prefixMap.preparePrefixLookups();
         canFail = defaultValue == null;
     }
 
@@ -55,12 +55,12 @@ public class StepLookupPrefix extends Step {
 
     @Override
     public WalkResult walk(ParseTree tree, String value) {
-        String actualValue = getActualValue(tree, value);
+        CharSequence actualValue = getActualValueSlice(tree, value);
 
         String result = null;
 
         if (actualValue != null) {
-            result = prefixMap.getLongestMatch(actualValue);
+            result = prefixMap.getLongestPrefixOf(actualValue);
         }
 
         if (result == null) {
@@ -19,31 +19,28 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.List;
+
 public class StepNext extends Step {
 
     private ParseTree next(ParseTree tree) {
         ParseTree parent = up(tree);
 
-        if (parent == null) {
+        int index = indexOfChild(parent, tree);
+        if (index == -1) {
             return null;
         }
 
-        ParseTree child;
-        boolean foundCurrent = false;
-        for (int i = 0; i < parent.getChildCount(); i++) {
-            child = parent.getChild(i);
-            if (foundCurrent) {
-                if (treeIsSeparator(child)) {
-                    continue;
-                }
+        List<ParseTree> children = ((ParserRuleContext) parent).children;
+        int size = children.size();
+        for (int i = index + 1; i < size; i++) {
+            ParseTree child = children.get(i);
+            if (!treeIsSeparator(child)) {
                 return child;
             }
-
-            if (child == tree) {
-                foundCurrent = true;
-            }
         }
         return null; // There is no next
     }
@@ -19,30 +19,38 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import java.util.List;
+
 public class StepPrev extends Step {
 
     private ParseTree prev(ParseTree tree) {
         ParseTree parent = up(tree);
 
-        if (parent == null) {
+        if (!(parent instanceof ParserRuleContext)) {
+            return null;
+        }
+
+        List<ParseTree> children = ((ParserRuleContext) parent).children;
+        if (children == null) {
             return null;
         }
 
-        ParseTree prevChild = null;
-        ParseTree child = null;
-        int i;
-        for (i = 0; i < parent.getChildCount(); i++) {
+        int index = indexOfChild(parent, tree);
+        if (index == -1) {
+            // Not a direct child (up() skipped a level): same as the last child.
+            index = children.size() - 1;
+        }
+
+        for (int i = index - 1; i >= 0; i--) {
+            ParseTree child = children.get(i);
             if (!treeIsSeparator(child)) {
-                prevChild = child;
-            }
-            child = parent.getChild(i);
-            if (child == tree) {
-                break; // Found it
+                return child;
             }
         }
-        return prevChild;
+        return null; // There is no previous
     }
 
     @Override
@@ -19,12 +19,12 @@ package nl.basjes.parse.useragent.analyze.treewalker.steps.walk;
 
 import nl.basjes.parse.useragent.analyze.treewalker.steps.Step;
 import nl.basjes.parse.useragent.analyze.treewalker.steps.WalkList.WalkResult;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
 
-public class StepPrevN extends Step {
+import java.util.List;
 
-    private static final int SIZE = 20;
-    private transient ParseTree[] children = null;
+public class StepPrevN extends Step {
 
     private final int steps;
 
@@ -40,28 +40,21 @@ public class StepPrevN extends Step {
     private ParseTree prev(ParseTree tree) {
         ParseTree parent = up(tree);
 
-        if (parent == null) {
+        int index = indexOfChild(parent, tree);
+        if (index == -1) {
             return null;
         }
 
-        if (children== null) {
-            children = new ParseTree[SIZE];
-        }
-
-        int lastChildIndex = -1;
-        ParseTree child = null;
-        int i;
-        for (i = 0; i < parent.getChildCount(); i++) {
-            if (!treeIsSeparator(child)) {
-                lastChildIndex++;
-                children[lastChildIndex] = child;
+        List<ParseTree> children = ((ParserRuleContext) parent).children;
+        int stepsToDo = steps;
+        for (int i = index - 1; i >= 0; i--) {
+            ParseTree child = children.get(i);
+            if (treeIsSeparator(child)) {
+                continue;
             }
-            child = parent.getChild(i);
-            if (child == tree) {
-                if (lastChildIndex < steps) {
-                    break; // There is no previous
-                }
-                return children[lastChildIndex - steps + 1];
+            stepsToDo--;
+            if (stepsToDo == 0) {
+                return child;
             }
         }
         return null; // There is no previous
@@ -24,6 +24,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.function.Predicate;
 
+import static nl.basjes.parse.useragent.analyze.treewalker.steps.Step.isRuleInMask;
 import static nl.basjes.parse.useragent.analyze.treewalker.steps.Step.treeIsSeparator;
 
 public class ChildIterable {
@@ -43,6 +44,18 @@ public class ChildIterable {
         this.isWantedClassPredicate = isWantedClassPredicate;
     }
 
+    /**
+     * @param privateNumberRange If the numbering is only over the wanted children.
+     * @param start The first wanted child (1 based).
+     * @param end The last wanted child (1 based).
+     * @param wantedRuleMask The mask (see Step.ruleMask) of the node types that are wanted.
+     */
+    public ChildIterable(boolean privateNumberRange,
+                         int start, int end,
+                         long wantedRuleMask) {
+        this(privateNumberRange, start, end, tree -> isRuleInMask(tree, wantedRuleMask));
+    }
+
     public Iterator<ParseTree> iterator(ParserRuleContext treeContext) {
         return new ChildIterator(treeContext);
     }
@@ -81,6 +81,11 @@ public class ConcatNONDuplicatedCalculator extends FieldCalculator {
         userAgent.set(targetName, value, confidence);
     }
 
+    @Override
+    public boolean canBeDeferred() {
+        return true;
+    }
+
     @Override
     public String getCalculatedFieldName() {
         return targetName;
@@ -32,6 +32,15 @@ public abstract class FieldCalculator implements Serializable {
         return Collections.emptySet();
     }
 
+    /**
+     * A calculator can be deferred (i.e. only be run when the calculated field is actually requested)
+     * if it ONLY sets the calculated field and ONLY uses the dependencies and the calculated field itself.
+     * @return true if this calculator can be deferred.
+     */
+    public boolean canBeDeferred() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return "Calculate " + getDependencies() + " ==> " + getCalculatedFieldName();
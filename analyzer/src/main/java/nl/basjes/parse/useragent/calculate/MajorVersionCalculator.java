@@ -55,6 +55,11 @@ public class MajorVersionCalculator extends FieldCalculator {
         }
     }
 
+    @Override
+    public boolean canBeDeferred() {
+        return true;
+    }
+
     @Override
     public String getCalculatedFieldName() {
         return majorVersionName;
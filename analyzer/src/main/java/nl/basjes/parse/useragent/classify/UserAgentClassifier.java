@@ -18,6 +18,7 @@
 package nl.basjes.parse.useragent.classify;
 
 import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
 
 import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
 import static nl.basjes.parse.useragent.classify.DeviceClass.ANONYMIZED;
@@ -42,8 +43,23 @@ import static nl.basjes.parse.useragent.classify.DeviceClass.WATCH;
 public final class UserAgentClassifier {
     private UserAgentClassifier(){} // Utility class
 
+    /**
+     * @param userAgent The instance that needs to be classified.
+     * @return The DeviceClass of this instance (precomputed if this is an ImmutableUserAgent).
+     */
     public static DeviceClass getDeviceClass(UserAgent userAgent) {
-        switch (userAgent.getValue(DEVICE_CLASS)) {
+        if (userAgent instanceof ImmutableUserAgent) {
+            return ((ImmutableUserAgent) userAgent).getDeviceClass();
+        }
+        return getDeviceClass(userAgent.getValue(DEVICE_CLASS));
+    }
+
+    /**
+     * @param deviceClass The value of the DeviceClass field.
+     * @return The matching DeviceClass or UNCLASSIFIED if there is none.
+     */
+    public static DeviceClass getDeviceClass(String deviceClass) {
+        switch (deviceClass) {
             case "Desktop":                return DESKTOP;
             case "Anonymized":             return ANONYMIZED;
             case "Mobile":                 return MOBILE;
@@ -70,7 +86,18 @@ public final class UserAgentClassifier {
      * @return Is this a 'normal' consumer device that can simply be bought/downloaded and used as intended.
      */
     public static boolean isNormalConsumerDevice(UserAgent userAgent) {
-        switch (getDeviceClass(userAgent)) {
+        if (userAgent instanceof ImmutableUserAgent) {
+            return ((ImmutableUserAgent) userAgent).isNormalConsumerDevice();
+        }
+        return isNormalConsumerDevice(getDeviceClass(userAgent));
+    }
+
+    /**
+     * @param deviceClass The DeviceClass that needs to be classified.
+     * @return Is this a 'normal' consumer device that can simply be bought/downloaded and used as intended.
+     */
+    public static boolean isNormalConsumerDevice(DeviceClass deviceClass) {
+        switch (deviceClass) {
             case DESKTOP:
             case MOBILE:
             case TABLET:
@@ -101,7 +128,18 @@ public final class UserAgentClassifier {
      * @return Is this a 'mobile' device. (includes robots that want to be treated as mobile)
      */
     public static boolean isMobile(UserAgent userAgent) {
-        switch (getDeviceClass(userAgent)) {
+        if (userAgent instanceof ImmutableUserAgent) {
+            return ((ImmutableUserAgent) userAgent).isMobile();
+        }
+        return isMobile(getDeviceClass(userAgent));
+    }
+
+    /**
+     * @param deviceClass The DeviceClass that needs to be classified.
+     * @return Is this a 'mobile' device. (includes robots that want to be treated as mobile)
+     */
+    public static boolean isMobile(DeviceClass deviceClass) {
+        switch (deviceClass) {
             case MOBILE:
             case TABLET:
             case PHONE:
@@ -132,7 +170,18 @@ public final class UserAgentClassifier {
      * @return If this is probably a human using the device.
      */
     public static boolean isHuman(UserAgent userAgent) {
-        switch (getDeviceClass(userAgent)) {
+        if (userAgent instanceof ImmutableUserAgent) {
+            return ((ImmutableUserAgent) userAgent).isHuman();
+        }
+        return isHuman(getDeviceClass(userAgent));
+    }
+
+    /**
+     * @param deviceClass The DeviceClass that needs to be classified.
+     * @return If this is probably a human using the device.
+     */
+    public static boolean isHuman(DeviceClass deviceClass) {
+        switch (deviceClass) {
             case DESKTOP:
             case MOBILE:
             case TABLET:
@@ -163,7 +212,18 @@ public final class UserAgentClassifier {
      * @return Do we see this as deliberate misuse?
      */
     public static boolean isDeliberateMisuse(UserAgent userAgent) {
-        switch (getDeviceClass(userAgent)) {
+        if (userAgent instanceof ImmutableUserAgent) {
+            return ((ImmutableUserAgent) userAgent).isDeliberateMisuse();
+        }
+        return isDeliberateMisuse(getDeviceClass(userAgent));
+    }
+
+    /**
+     * @param deviceClass The DeviceClass that needs to be classified.
+     * @return Do we see this as deliberate misuse?
+     */
+    public static boolean isDeliberateMisuse(DeviceClass deviceClass) {
+        switch (deviceClass) {
             case ANONYMIZED:
             case ROBOT_IMITATOR:
             case HACKER:
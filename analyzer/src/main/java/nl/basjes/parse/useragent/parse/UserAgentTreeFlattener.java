@@ -54,10 +54,10 @@ import nl.basjes.parse.useragent.parser.UserAgentParser.UserAgentContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.UuIdContext;
 import nl.basjes.parse.useragent.parser.UserAgentParser.VersionWordsContext;
 import nl.basjes.parse.useragent.utils.Splitter;
+import nl.basjes.parse.useragent.utils.StringCharStream;
 import nl.basjes.parse.useragent.utils.VersionSplitter;
 import nl.basjes.parse.useragent.utils.WordSplitter;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CodePointCharStream;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTree;
@@ -270,7 +270,7 @@ public class UserAgentTreeFlattener extends UserAgentBaseListener implements Ser
     private UserAgentContext parseUserAgent(MutableUserAgent userAgent) {
         String userAgentString = EvilManualUseragentStringHacks.fixIt(userAgent.getUserAgentString());
 
-        CodePointCharStream input = CharStreams.fromString(userAgentString);
+        CharStream input = StringCharStream.fromString(userAgentString);
         UserAgentLexer lexer = new UserAgentLexer(input);
 
         CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -0,0 +1,176 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.isAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.toLowerAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.toLowerCase;
+
+/**
+ * An Aho-Corasick automaton to find which of a list of (lowercase) patterns occur in a text (case insensitive).
+ * Patterns are numbered in the order in which they were provided, and a search returns the lowest numbered pattern
+ * that is contained in the text. So a single pass over the text finds the same answer as checking the patterns
+ * one by one with a 'contains', no matter how many patterns there are.
+ */
+final class AhoCorasick {
+    private static final int ROOT = 0;
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    // The transitions of state S are in childChars/childStates [childStart[S], childStart[S+1]) sorted by character.
+    private final int[]  childStart;
+    private final char[] childChars;
+    private final int[]  childStates;
+
+    // The state to continue with if there is no transition for the next character.
+    private final int[]  failure;
+
+    // The lowest pattern number that is matched when arriving in this state (NO_MATCH if none).
+    private final int[]  firstPattern;
+
+    /**
+     * @param patterns The patterns in the order of preference (they will be lowercased).
+     */
+    AhoCorasick(Collection<String> patterns) {
+        // Build the trie
+        List<TreeMap<Character, Integer>> transitions = new ArrayList<>();
+        List<Integer> ownPattern = new ArrayList<>();
+        transitions.add(new TreeMap<>());
+        ownPattern.add(NO_MATCH);
+
+        int patternNumber = 0;
+        for (String pattern : patterns) {
+            String lowerCasePattern = toLowerCase(pattern);
+            int state = ROOT;
+            for (int i = 0; i < lowerCasePattern.length(); i++) {
+                Character c = lowerCasePattern.charAt(i);
+                Integer next = transitions.get(state).get(c);
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new TreeMap<>());
+                    ownPattern.add(NO_MATCH);
+                    transitions.get(state).put(c, next);
+                }
+                state = next;
+            }
+            ownPattern.set(state, Math.min(ownPattern.get(state), patternNumber));
+            patternNumber++;
+        }
+
+        int states = transitions.size();
+        childStart   = new int[states + 1];
+        int transitionCount = 0;
+        for (int state = 0; state < states; state++) {
+            childStart[state] = transitionCount;
+            transitionCount += transitions.get(state).size();
+        }
+        childStart[states] = transitionCount;
+        childChars   = new char[transitionCount];
+        childStates  = new int[transitionCount];
+        for (int state = 0; state < states; state++) {
+            int index = childStart[state];
+            for (Map.Entry<Character, Integer> transition : transitions.get(state).entrySet()) {
+                childChars[index]  = transition.getKey();
+                childStates[index] = transition.getValue();
+                index++;
+            }
+        }
+
+        // Breadth first so the failure state (which is less deep) is always done before the state itself.
+        failure      = new int[states];
+        firstPattern = new int[states];
+        firstPattern[ROOT] = ownPattern.get(ROOT);
+        Queue<Integer> todo = new ArrayDeque<>();
+        todo.add(ROOT);
+        while (!todo.isEmpty()) {
+            int state = todo.remove();
+            for (int index = childStart[state]; index < childStart[state + 1]; index++) {
+                char c = childChars[index];
+                int child = childStates[index];
+                int fail = ROOT;
+                if (state != ROOT) {
+                    int candidate = failure[state];
+                    while (true) {
+                        int next = next(candidate, c);
+                        if (next >= 0) {
+                            fail = next;
+                            break;
+                        }
+                        if (candidate == ROOT) {
+                            break;
+                        }
+                        candidate = failure[candidate];
+                    }
+                }
+                failure[child] = fail;
+                firstPattern[child] = Math.min(ownPattern.get(child), firstPattern[fail]);
+                todo.add(child);
+            }
+        }
+    }
+
+    private int next(int state, char c) {
+        int index = Arrays.binarySearch(childChars, childStart[state], childStart[state + 1], c);
+        if (index < 0) {
+            return -1;
+        }
+        return childStates[index];
+    }
+
+    /**
+     * @param input The text to search in (in any case)
+     * @return The lowest number of a pattern that occurs in the input, or -1 if none of them do.
+     */
+    int firstMatch(CharSequence input) {
+        CharSequence text = input;
+        if (!isAscii(text)) {
+            text = toLowerCase(text.toString()); // Only ASCII is folded in place
+        }
+
+        int best = firstPattern[ROOT];
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length && best != 0; i++) {
+            char c = toLowerAscii(text.charAt(i));
+            while (true) {
+                int next = next(state, c);
+                if (next >= 0) {
+                    state = next;
+                    break;
+                }
+                if (state == ROOT) {
+                    break;
+                }
+                state = failure[state];
+            }
+            if (firstPattern[state] < best) {
+                best = firstPattern[state];
+            }
+        }
+        return best == NO_MATCH ? -1 : best;
+    }
+}
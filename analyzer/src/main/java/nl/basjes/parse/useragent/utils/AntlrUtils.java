@@ -37,7 +37,34 @@ public final class AntlrUtils {
             return ""; // Just return the empty string.
         }
         CharStream inputStream = ctx.start.getInputStream();
+        if (inputStream instanceof StringCharStream) {
+            return ((StringCharStream) inputStream).getSource().substring(startIndex, stopIndex + 1);
+        }
         return inputStream.getText(new Interval(startIndex, stopIndex));
     }
 
+    /**
+     * Get the source text of the node without copying the characters (if possible).
+     * @param ctx The node in the tree
+     * @return The source text as a TextSlice over the original input, or a String if that is not possible.
+     */
+    public static CharSequence getSourceTextSlice(ParserRuleContext ctx){
+        if (ctx == null) {
+            return null;
+        }
+        if (ctx.start == null || ctx.stop == null) {
+            return ctx.getText();
+        }
+        CharStream inputStream = ctx.start.getInputStream();
+        if (!(inputStream instanceof StringCharStream)) {
+            return getSourceText(ctx);
+        }
+        int startIndex = ctx.start.getStartIndex();
+        int stopIndex = ctx.stop.getStopIndex();
+        if (stopIndex < startIndex) {
+            return ""; // Just return the empty string.
+        }
+        return new TextSlice(((StringCharStream) inputStream).getSource(), startIndex, stopIndex + 1);
+    }
+
 }
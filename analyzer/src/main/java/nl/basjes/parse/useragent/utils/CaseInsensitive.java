@@ -0,0 +1,197 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import java.util.Locale;
+
+/**
+ * Case insensitive comparisons that do not create new (lowercased) Strings.
+ * In all of these the 'value' parameter MUST already be lowercase.
+ * All ASCII characters are folded in place; as soon as a non-ASCII character is found the
+ * comparison falls back to lowercasing the full text (non-ASCII lowercasing can change the length).
+ */
+public final class CaseInsensitive {
+    private CaseInsensitive() {
+    }
+
+    static final char NON_ASCII = 0x80;
+
+    /**
+     * Lowercase an ASCII character (the caller must ensure it is ASCII).
+     * @param c The ASCII character.
+     * @return The lowercase version of the character.
+     */
+    static char toLowerAscii(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return c;
+    }
+
+    /**
+     * The way all lowercasing for case insensitive compares must be done.
+     * @param value The value to lowercase
+     * @return The lowercase value
+     */
+    public static String toLowerCase(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static final int NO_MATCH  = 0;
+    private static final int MATCH     = 1;
+    private static final int NOT_ASCII = 2;
+
+    /**
+     * @param text The value to compare
+     * @param textOffset Where in the text to start comparing
+     * @param value The value that must be in the text at the offset (MUST be lowercase).
+     * @return MATCH, NO_MATCH or NOT_ASCII if a non ASCII character was found before the outcome was known.
+     */
+    private static int regionMatchesAscii(CharSequence text, int textOffset, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(textOffset + i);
+            if (c >= NON_ASCII) {
+                return NOT_ASCII;
+            }
+            if (toLowerAscii(c) != value.charAt(i)) {
+                return NO_MATCH;
+            }
+        }
+        return MATCH;
+    }
+
+    /**
+     * @param text The value to check (for example a String or TextSlice)
+     * @param value The (lowercase) value to compare against.
+     * @return True if the text is the same as the value (ignoring case).
+     */
+    public static boolean equalsIgnoreCase(CharSequence text, String value) {
+        if (text.length() == value.length()) {
+            int result = regionMatchesAscii(text, 0, value);
+            if (result != NOT_ASCII) {
+                return result == MATCH;
+            }
+        } else if (isAscii(text)) {
+            return false;
+        }
+        return toLowerCase(text.toString()).equals(value);
+    }
+
+    /**
+     * @param text The value to check (for example a String or TextSlice)
+     * @param prefix The (lowercase) prefix to look for.
+     * @return True if the text starts with the prefix (ignoring case).
+     */
+    public static boolean startsWithIgnoreCase(CharSequence text, String prefix) {
+        if (text.length() >= prefix.length()) {
+            int result = regionMatchesAscii(text, 0, prefix);
+            if (result != NOT_ASCII) {
+                return result == MATCH;
+            }
+        } else if (isAscii(text)) {
+            return false;
+        }
+        return toLowerCase(text.toString()).startsWith(prefix);
+    }
+
+    /**
+     * @param text The value to check (for example a String or TextSlice)
+     * @param postfix The (lowercase) postfix to look for.
+     * @return True if the text ends with the postfix (ignoring case).
+     */
+    public static boolean endsWithIgnoreCase(CharSequence text, String postfix) {
+        int offset = text.length() - postfix.length();
+        if (offset >= 0) {
+            int result = regionMatchesAscii(text, offset, postfix);
+            if (result != NOT_ASCII) {
+                return result == MATCH;
+            }
+        } else if (isAscii(text)) {
+            return false;
+        }
+        return toLowerCase(text.toString()).endsWith(postfix);
+    }
+
+    /**
+     * @param text The value to check (for example a String or TextSlice)
+     * @param value The (lowercase) value to look for.
+     * @return True if the text contains the value (ignoring case).
+     */
+    public static boolean containsIgnoreCase(CharSequence text, String value) {
+        if (!isAscii(text)) {
+            return toLowerCase(text.toString()).contains(value);
+        }
+        int last = text.length() - value.length();
+        for (int i = 0; i <= last; i++) {
+            if (regionMatchesAscii(text, i, value) == MATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param text The text to check
+     * @return True if all characters are ASCII.
+     */
+    public static boolean isAscii(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) >= NON_ASCII) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calculates the hashCode of the lowercase version of the text without creating it.
+     * Only valid if the text is ASCII (see isAscii).
+     * @param text The (ASCII) text
+     * @return The same value as toLowerCase(text.toString()).hashCode()
+     */
+    static int lowerCaseHashCode(CharSequence text) {
+        int length = text.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + toLowerAscii(text.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Only valid if the text is ASCII (see isAscii).
+     * @param text The (ASCII) text
+     * @param lowerCaseValue The lowercase value to compare with
+     * @return True if the text is the same as the lowercase value (ignoring case).
+     */
+    static boolean equalsLowerCaseAscii(CharSequence text, String lowerCaseValue) {
+        int length = text.length();
+        if (length != lowerCaseValue.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (toLowerAscii(text.charAt(i)) != lowerCaseValue.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
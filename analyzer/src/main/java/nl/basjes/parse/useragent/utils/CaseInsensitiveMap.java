@@ -0,0 +1,383 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.equalsLowerCaseAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.isAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.lowerCaseHashCode;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.toLowerCase;
+
+/**
+ * A Map with case insensitive String keys.
+ * All keys are stored in lowercase (so iterating over the keys gives the lowercase versions).
+ * A get can be done with any CharSequence (like a TextSlice) without creating a lowercase copy
+ * of it: the hash and the compare are done on the case folded characters in place.
+ * Iteration is in insertion order (like a LinkedHashMap) and removing entries is not supported.
+ * @param <V> The type of the values
+ */
+public final class CaseInsensitiveMap<V> extends AbstractMap<String, V> implements Serializable {
+    private static final int MINIMAL_TABLE_SIZE = 16;
+
+    // The entries in insertion order.
+    private String[] keys;
+    private Object[] values;
+    private int      size;
+
+    // Open addressing hash table with linear probing.
+    // Each cell has (index in keys + 1) so 0 means empty.
+    private int[]    table;
+
+    // Lazily built for the 'contains' lookups.
+    private transient volatile AhoCorasick containsMatcher;
+
+    // Lazily built for the 'prefix' lookups.
+    private transient volatile DoubleArrayPrefixTrie prefixTrie;
+
+    public CaseInsensitiveMap() {
+        this(8);
+    }
+
+    public CaseInsensitiveMap(int expectedSize) {
+        int capacity = Math.max(expectedSize, 1);
+        keys   = new String[capacity];
+        values = new Object[capacity];
+        table  = new int[tableSizeFor(capacity)];
+    }
+
+    public CaseInsensitiveMap(Map<String, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+    /**
+     * @param map The map that must be case insensitive.
+     * @param <V> The type of the values
+     * @return The provided map if it already is a CaseInsensitiveMap, else a case insensitive copy.
+     */
+    public static <V> CaseInsensitiveMap<V> of(Map<String, V> map) {
+        if (map instanceof CaseInsensitiveMap) {
+            return (CaseInsensitiveMap<V>) map;
+        }
+        return new CaseInsensitiveMap<>(map);
+    }
+
+    private static int tableSizeFor(int entries) {
+        int tableSize = MINIMAL_TABLE_SIZE;
+        while (tableSize < entries * 2) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int indexOfLowerCase(String lowerCaseKey) {
+        int hash = lowerCaseKey.hashCode();
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (true) {
+            int cell = table[slot];
+            if (cell == 0) {
+                return -1;
+            }
+            String key = keys[cell - 1];
+            if (key.hashCode() == hash && key.equals(lowerCaseKey)) {
+                return cell - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @param text The key to look for (in any case).
+     * @return The index of the entry or -1 if not present.
+     */
+    int indexOf(CharSequence text) {
+        if (!isAscii(text)) {
+            return indexOfLowerCase(toLowerCase(text.toString()));
+        }
+        int hash = lowerCaseHashCode(text);
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        while (true) {
+            int cell = table[slot];
+            if (cell == 0) {
+                return -1;
+            }
+            String key = keys[cell - 1];
+            if (key.hashCode() == hash && equalsLowerCaseAscii(text, key)) {
+                return cell - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    private void insertInTable(int index) {
+        int mask = table.length - 1;
+        int slot = spread(keys[index].hashCode()) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof CharSequence)) {
+            return null;
+        }
+        int index = indexOf((CharSequence) key);
+        if (index < 0) {
+            return null;
+        }
+        return valueAt(index);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof CharSequence && indexOf((CharSequence) key) >= 0;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        String lowerCaseKey = toLowerCase(Objects.requireNonNull(key, "A CaseInsensitiveMap does not support null keys"));
+        int index = indexOfLowerCase(lowerCaseKey);
+        if (index >= 0) {
+            V oldValue = valueAt(index);
+            values[index] = value;
+            return oldValue;
+        }
+
+        containsMatcher = null;
+        prefixTrie = null;
+        if (size == keys.length) {
+            int newCapacity = keys.length * 2;
+            keys   = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+        keys[size] = lowerCaseKey;
+        values[size] = value;
+        size++;
+
+        if (size * 2 > table.length) {
+            table = new int[table.length * 2];
+            for (int i = 0; i < size; i++) {
+                insertInTable(i);
+            }
+        } else {
+            insertInTable(size - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(table, 0);
+        size = 0;
+        containsMatcher = null;
+        prefixTrie = null;
+    }
+
+    private AhoCorasick getContainsMatcher() {
+        AhoCorasick matcher = containsMatcher;
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = containsMatcher;
+                if (matcher == null) {
+                    matcher = new AhoCorasick(Arrays.asList(keys).subList(0, size));
+                    containsMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Build the datastructures needed for getFirstContainedIn and isAnyKeyContainedIn now instead of at the first use.
+     */
+    public void prepareContainsLookups() {
+        getContainsMatcher();
+    }
+
+    /**
+     * Find the first key (in insertion order) that occurs somewhere in the text (case insensitive).
+     * This is done in a single pass over the text regardless of the number of keys.
+     * @param text The text in which the keys are searched.
+     * @return The value of the first key that is contained in the text or null if none are.
+     */
+    public V getFirstContainedIn(CharSequence text) {
+        int index = getContainsMatcher().firstMatch(text);
+        if (index < 0) {
+            return null;
+        }
+        return valueAt(index);
+    }
+
+    /**
+     * @param text The text in which the keys are searched.
+     * @return True if at least one of the keys occurs somewhere in the text (case insensitive).
+     */
+    public boolean isAnyKeyContainedIn(CharSequence text) {
+        return getContainsMatcher().firstMatch(text) >= 0;
+    }
+
+    private DoubleArrayPrefixTrie getPrefixTrie() {
+        DoubleArrayPrefixTrie trie = prefixTrie;
+        if (trie == null) {
+            synchronized (this) {
+                trie = prefixTrie;
+                if (trie == null) {
+                    trie = new DoubleArrayPrefixTrie(Arrays.asList(keys).subList(0, size));
+                    prefixTrie = trie;
+                }
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Build the datastructures needed for getLongestPrefixOf and isAnyKeyPrefixOf now instead of at the first use.
+     */
+    public void preparePrefixLookups() {
+        getPrefixTrie();
+    }
+
+    /**
+     * Find the longest key that is a prefix of the text (case insensitive).
+     * @param text The text that should start with one of the keys.
+     * @return The value of the longest key that is a prefix of the text or null if none are.
+     */
+    public V getLongestPrefixOf(CharSequence text) {
+        int index = getPrefixTrie().longestPrefixIndex(text);
+        if (index < 0) {
+            return null;
+        }
+        return valueAt(index);
+    }
+
+    /**
+     * @param text The text that should start with one of the keys.
+     * @return True if at least one of the keys is a prefix of the text (case insensitive).
+     */
+    public boolean isAnyKeyPrefixOf(CharSequence text) {
+        return getPrefixTrie().longestPrefixIndex(text) >= 0;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<Entry<String, V>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return new IndexEntry(next++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private final class IndexEntry implements Entry<String, V> {
+        private final int index;
+
+        private IndexEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return keys[index];
+        }
+
+        @Override
+        public V getValue() {
+            return valueAt(index);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V oldValue = valueAt(index);
+            values[index] = value;
+            return oldValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return Objects.equals(getKey(), other.getKey()) && Objects.equals(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
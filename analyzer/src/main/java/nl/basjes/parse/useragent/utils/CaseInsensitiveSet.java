@@ -0,0 +1,94 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A Set of case insensitive Strings (all values are stored in lowercase).
+ * A contains can be done with any CharSequence (like a TextSlice) without creating a lowercase copy of it.
+ * Iteration is in insertion order (like a LinkedHashSet) and removing values is not supported.
+ */
+public final class CaseInsensitiveSet extends AbstractSet<String> implements Serializable {
+    private final CaseInsensitiveMap<Boolean> map;
+
+    public CaseInsensitiveSet() {
+        map = new CaseInsensitiveMap<>();
+    }
+
+    public CaseInsensitiveSet(Collection<String> values) {
+        map = new CaseInsensitiveMap<>(values.size());
+        addAll(values);
+    }
+
+    /**
+     * @param set The set that must be case insensitive.
+     * @return The provided set if it already is a CaseInsensitiveSet, else a case insensitive copy.
+     */
+    public static CaseInsensitiveSet of(Set<String> set) {
+        if (set instanceof CaseInsensitiveSet) {
+            return (CaseInsensitiveSet) set;
+        }
+        return new CaseInsensitiveSet(set);
+    }
+
+    @Override
+    public boolean add(String value) {
+        return map.put(value, Boolean.TRUE) == null;
+    }
+
+    @Override
+    public boolean contains(Object value) {
+        return map.containsKey(value);
+    }
+
+    /**
+     * Build the datastructures needed for isAnyValuePrefixOf now instead of at the first use.
+     */
+    public void preparePrefixLookups() {
+        map.preparePrefixLookups();
+    }
+
+    /**
+     * @param text The text that should start with one of the values.
+     * @return True if at least one of the values is a prefix of the text (case insensitive).
+     */
+    public boolean isAnyValuePrefixOf(CharSequence text) {
+        return map.isAnyKeyPrefixOf(text);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return map.keySet().iterator();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+}
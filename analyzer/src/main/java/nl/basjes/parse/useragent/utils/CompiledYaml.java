@@ -0,0 +1,303 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.error.Mark;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A compact token based binary form of a composed Yaml rule file.
+ * Reading this recreates the same Yaml node tree (values and line numbers) that the Yaml parser produces,
+ * so the existing loading code is used unchanged but without the cost of scanning and parsing the Yaml text.
+ * <p>
+ * The build writes a compiled file next to each bundled rule file (Foo.yaml gets Foo.yaml.bin).
+ * Each compiled file contains the size and checksum of the Yaml it was made from.
+ * If those do not match the actual Yaml file the compiled form is ignored.
+ */
+public final class CompiledYaml {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledYaml.class);
+
+    public static final String SUFFIX = ".bin";
+
+    private static final int MAGIC          = 0x59524C53; // "YRLS"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte SCALAR   = 1;
+    private static final byte SEQUENCE = 2;
+    private static final byte MAPPING  = 3;
+
+    private static final int[] NO_BUFFER = new int[0];
+
+    private CompiledYaml() {
+    }
+
+    private static long checksum(byte[] yamlBytes) {
+        CRC32 crc = new CRC32();
+        crc.update(yamlBytes, 0, yamlBytes.length);
+        return crc.getValue();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Write the compiled form of the provided Yaml.
+     * @param yamlBytes The original Yaml file content.
+     * @param output Where to write the compiled form to.
+     * @throws IOException In case of problems writing.
+     */
+    public static void write(byte[] yamlBytes, OutputStream output) throws IOException {
+        Node root = YamlUtils.createYaml().compose(new UnicodeReader(new ByteArrayInputStream(yamlBytes)));
+
+        // First collect all distinct strings so they are stored only once.
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        collectStrings(root, strings, stringTable);
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(yamlBytes.length);
+        out.writeLong(checksum(yamlBytes));
+
+        writeVarInt(out, stringTable.size());
+        for (String string : stringTable) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+
+        out.writeBoolean(root != null);
+        if (root != null) {
+            writeNode(out, root, strings);
+        }
+        out.flush();
+    }
+
+    private static void collectString(String value, Map<String, Integer> strings, List<String> stringTable) {
+        strings.computeIfAbsent(value, v -> {
+            stringTable.add(v);
+            return stringTable.size() - 1;
+        });
+    }
+
+    private static void collectStrings(Node node, Map<String, Integer> strings, List<String> stringTable) {
+        if (node == null) {
+            return;
+        }
+        switch (node.getNodeId()) {
+            case scalar:
+                collectString(node.getTag().getValue(), strings, stringTable);
+                collectString(((ScalarNode) node).getValue(), strings, stringTable);
+                break;
+            case sequence:
+                for (Node child : ((SequenceNode) node).getValue()) {
+                    collectStrings(child, strings, stringTable);
+                }
+                break;
+            case mapping:
+                for (NodeTuple tuple : ((MappingNode) node).getValue()) {
+                    collectStrings(tuple.getKeyNode(), strings, stringTable);
+                    collectStrings(tuple.getValueNode(), strings, stringTable);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported Yaml node: " + node.getNodeId());
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node, Map<String, Integer> strings) throws IOException {
+        switch (node.getNodeId()) {
+            case scalar:
+                out.writeByte(SCALAR);
+                writeVarInt(out, node.getStartMark().getLine());
+                writeVarInt(out, strings.get(node.getTag().getValue()));
+                writeVarInt(out, strings.get(((ScalarNode) node).getValue()));
+                break;
+            case sequence:
+                List<Node> children = ((SequenceNode) node).getValue();
+                out.writeByte(SEQUENCE);
+                writeVarInt(out, node.getStartMark().getLine());
+                writeVarInt(out, children.size());
+                for (Node child : children) {
+                    writeNode(out, child, strings);
+                }
+                break;
+            case mapping:
+                List<NodeTuple> tuples = ((MappingNode) node).getValue();
+                out.writeByte(MAPPING);
+                writeVarInt(out, node.getStartMark().getLine());
+                writeVarInt(out, tuples.size());
+                for (NodeTuple tuple : tuples) {
+                    writeNode(out, tuple.getKeyNode(), strings);
+                    writeNode(out, tuple.getValueNode(), strings);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported Yaml node: " + node.getNodeId());
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Read the compiled form of a Yaml file.
+     * @param input The compiled form.
+     * @param yamlBytes The content of the Yaml file this should have been compiled from.
+     * @param filename The name of the Yaml file (used in the line information of the nodes).
+     * @return The root node of the Yaml, or null if the compiled form does not belong to this Yaml content.
+     * @throws IOException In case of problems reading.
+     */
+    public static Node read(InputStream input, byte[] yamlBytes, String filename) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC ||
+            in.readInt() != FORMAT_VERSION ||
+            in.readInt() != yamlBytes.length ||
+            in.readLong() != checksum(yamlBytes)) {
+            LOG.warn("Ignoring the outdated compiled form of {}", filename);
+            return null;
+        }
+
+        String[] strings = new String[readVarInt(in)];
+        byte[] buffer = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int length = readVarInt(in);
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, length);
+            strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        if (!in.readBoolean()) {
+            return null; // An empty Yaml file
+        }
+        return readNode(in, strings, filename, new HashMap<>());
+    }
+
+    private static Node readNode(DataInputStream in, String[] strings, String filename, Map<String, Tag> tags) throws IOException {
+        byte type = in.readByte();
+        int line = readVarInt(in);
+        Mark mark = new Mark(filename, 0, line, 0, NO_BUFFER, 0);
+        switch (type) {
+            case SCALAR:
+                Tag tag = tags.computeIfAbsent(strings[readVarInt(in)], Tag::new);
+                String value = strings[readVarInt(in)];
+                return new ScalarNode(tag, value, mark, mark, DumperOptions.ScalarStyle.PLAIN);
+            case SEQUENCE:
+                int size = readVarInt(in);
+                List<Node> children = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    children.add(readNode(in, strings, filename, tags));
+                }
+                return new SequenceNode(Tag.SEQ, true, children, mark, mark, DumperOptions.FlowStyle.BLOCK);
+            case MAPPING:
+                int entries = readVarInt(in);
+                List<NodeTuple> tuples = new ArrayList<>(entries);
+                for (int i = 0; i < entries; i++) {
+                    Node key = readNode(in, strings, filename, tags);
+                    Node valueNode = readNode(in, strings, filename, tags);
+                    tuples.add(new NodeTuple(key, valueNode));
+                }
+                return new MappingNode(Tag.MAP, true, tuples, mark, mark, DumperOptions.FlowStyle.BLOCK);
+            default:
+                throw new IOException("Corrupt compiled Yaml " + filename + ": unknown node type " + type);
+        }
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Build step: compile all Yaml files in the provided directory (recursively).
+     * @param args The single argument is the directory that contains the Yaml rule files.
+     * @throws IOException In case of problems reading or writing.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: CompiledYaml <directory with yaml files>");
+        }
+        List<Path> yamlFiles;
+        try (Stream<Path> files = Files.walk(Paths.get(args[0]))) {
+            yamlFiles = files
+                .filter(file -> file.getFileName().toString().endsWith(".yaml"))
+                .collect(Collectors.toList());
+        }
+        long yamlBytesTotal = 0;
+        long compiledBytesTotal = 0;
+        for (Path yamlFile : yamlFiles) {
+            byte[] yamlBytes = Files.readAllBytes(yamlFile);
+            Path compiledFile = yamlFile.resolveSibling(yamlFile.getFileName() + SUFFIX);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(compiledFile))) {
+                write(yamlBytes, out);
+            }
+            yamlBytesTotal += yamlBytes.length;
+            compiledBytesTotal += Files.size(compiledFile);
+        }
+        LOG.info("Compiled {} Yaml files ({} bytes) into {} bytes.", yamlFiles.size(), yamlBytesTotal, compiledBytesTotal);
+    }
+}
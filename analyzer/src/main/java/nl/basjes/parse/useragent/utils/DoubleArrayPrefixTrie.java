@@ -0,0 +1,233 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.NON_ASCII;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.isAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.toLowerAscii;
+import static nl.basjes.parse.useragent.utils.CaseInsensitive.toLowerCase;
+
+/**
+ * A frozen case insensitive double-array trie to find the longest key that is a prefix of a text.
+ * The characters are first mapped to a compact alphabet (only the characters that occur in the keys)
+ * and a transition from state S with character code C goes to state T = base[S] + C which is valid only if check[T] == S.
+ * A search does not allocate anything (unless the text contains non-ASCII characters).
+ */
+public final class DoubleArrayPrefixTrie {
+    private static final int ROOT    = 0;
+    private static final int UNUSED  = -1;
+
+    // Character to code mapping: ASCII directly, the rest via a binary search.
+    private final int[]  asciiCodes = new int[NON_ASCII];
+    private final char[] otherChars;
+    private final int[]  otherCodes;
+
+    private int[] base;
+    private int[] check;
+    private int[] keyIndex; // The index of the key that ends in this state (or UNUSED)
+
+    /**
+     * @param keys The keys in order (the index of the key in this collection is what a search returns).
+     */
+    public DoubleArrayPrefixTrie(Collection<String> keys) {
+        // First a simple trie
+        List<TreeMap<Character, Integer>> transitions = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        transitions.add(new TreeMap<>());
+        ends.add(UNUSED);
+        TreeSet<Character> alphabet = new TreeSet<>();
+
+        int index = 0;
+        for (String key : keys) {
+            String lowerCaseKey = toLowerCase(key);
+            int state = ROOT;
+            for (int i = 0; i < lowerCaseKey.length(); i++) {
+                Character c = lowerCaseKey.charAt(i);
+                alphabet.add(c);
+                Integer next = transitions.get(state).get(c);
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new TreeMap<>());
+                    ends.add(UNUSED);
+                    transitions.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (ends.get(state) == UNUSED) {
+                ends.set(state, index); // Same as a map: the first one with this key.
+            }
+            index++;
+        }
+
+        // The compact alphabet (code 0 means 'not in any key')
+        List<Character> others = new ArrayList<>();
+        List<Integer> othersCodes = new ArrayList<>();
+        int code = 1;
+        for (Character c : alphabet) {
+            if (c < NON_ASCII) {
+                asciiCodes[c] = code;
+            } else {
+                others.add(c);
+                othersCodes.add(code);
+            }
+            code++;
+        }
+        otherChars = new char[others.size()];
+        otherCodes = new int[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            otherChars[i] = others.get(i);
+            otherCodes[i] = othersCodes.get(i);
+        }
+
+        // Now place all states in the double array (breadth first).
+        int capacity = Math.max(16, transitions.size() * 2);
+        base     = new int[capacity];
+        check    = new int[capacity];
+        keyIndex = new int[capacity];
+        Arrays.fill(check, UNUSED);
+        Arrays.fill(keyIndex, UNUSED);
+
+        int[] placedAt = new int[transitions.size()];
+        placedAt[ROOT] = ROOT;
+        check[ROOT] = ROOT;
+        int firstFree = 1;
+
+        Queue<Integer> todo = new ArrayDeque<>();
+        todo.add(ROOT);
+        while (!todo.isEmpty()) {
+            int node = todo.remove();
+            int slot = placedAt[node];
+            keyIndex[slot] = ends.get(node);
+
+            TreeMap<Character, Integer> children = transitions.get(node);
+            if (children.isEmpty()) {
+                continue;
+            }
+            int[] codes = new int[children.size()];
+            int i = 0;
+            for (Character c : children.keySet()) {
+                codes[i++] = codeOf(c);
+            }
+
+            // Find the first base where all children fit.
+            while (firstFree < check.length && check[firstFree] != UNUSED) {
+                firstFree++;
+            }
+            int candidate = Math.max(1, firstFree - codes[0]);
+            while (!fits(candidate, codes)) {
+                candidate++;
+            }
+            base[slot] = candidate;
+
+            i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                int childSlot = candidate + codes[i++];
+                check[childSlot] = slot;
+                placedAt[child.getValue()] = childSlot;
+                todo.add(child.getValue());
+            }
+        }
+
+        // Trim the arrays to what is actually used.
+        int length = check.length;
+        while (length > 1 && check[length - 1] == UNUSED) {
+            length--;
+        }
+        base     = Arrays.copyOf(base, length);
+        check    = Arrays.copyOf(check, length);
+        keyIndex = Arrays.copyOf(keyIndex, length);
+    }
+
+    private boolean fits(int candidate, int[] codes) {
+        int needed = candidate + codes[codes.length - 1] + 1;
+        if (needed > check.length) {
+            int newCapacity = Math.max(needed, check.length * 2);
+            int oldCapacity = check.length;
+            base     = Arrays.copyOf(base, newCapacity);
+            check    = Arrays.copyOf(check, newCapacity);
+            keyIndex = Arrays.copyOf(keyIndex, newCapacity);
+            Arrays.fill(check, oldCapacity, newCapacity, UNUSED);
+            Arrays.fill(keyIndex, oldCapacity, newCapacity, UNUSED);
+        }
+        for (int code : codes) {
+            if (check[candidate + code] != UNUSED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int codeOf(char c) {
+        if (c < NON_ASCII) {
+            return asciiCodes[c];
+        }
+        int index = Arrays.binarySearch(otherChars, c);
+        if (index < 0) {
+            return 0;
+        }
+        return otherCodes[index];
+    }
+
+    /**
+     * @param input The text (in any case)
+     * @return The index of the longest key that is a prefix of the text, or -1 if there is none.
+     */
+    public int longestPrefixIndex(CharSequence input) {
+        CharSequence text = input;
+        if (!isAscii(text)) {
+            text = toLowerCase(text.toString()); // Only ASCII is folded in place
+        }
+
+        int state = ROOT;
+        int result = keyIndex[ROOT];
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            int code = codeOf(toLowerAscii(text.charAt(i)));
+            if (code == 0) {
+                break;
+            }
+            int next = base[state] + code;
+            if (next >= check.length || check[next] != state) {
+                break;
+            }
+            state = next;
+            if (keyIndex[state] != UNUSED) {
+                result = keyIndex[state];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of slots in the double array (for statistics).
+     */
+    public int size() {
+        return check.length;
+    }
+}
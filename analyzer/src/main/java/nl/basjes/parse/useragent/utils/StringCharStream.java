@@ -0,0 +1,129 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A CharStream directly on top of a String.
+ * This is only valid if the String does not contain any surrogate pairs (because ANTLR works on code points
+ * and here the code point index is the same as the char index).
+ * The advantage is that the original String remains available so the source text of a node in the
+ * tree can be obtained as a substring (or a TextSlice) without copying the characters around.
+ */
+public final class StringCharStream implements CharStream {
+    private final String source;
+    private final int    size;
+    private       int    position = 0;
+
+    private StringCharStream(String source) {
+        this.source = source;
+        this.size = source.length();
+    }
+
+    /**
+     * Create the CharStream that is to be used to lex the provided input.
+     * @param input The input string
+     * @return A StringCharStream if possible, else the standard ANTLR CodePointCharStream.
+     */
+    public static CharStream fromString(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if (Character.isSurrogate(input.charAt(i))) {
+                return CharStreams.fromString(input);
+            }
+        }
+        return new StringCharStream(input);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    @Override
+    public void consume() {
+        if (size - position == 0) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int offset;
+        if (i > 0) {
+            offset = position + i - 1;
+        } else if (i < 0) {
+            offset = position + i;
+        } else {
+            return 0; // Undefined
+        }
+        if (offset < 0 || offset >= size) {
+            return IntStream.EOF;
+        }
+        return source.charAt(offset);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+        // Nothing to do
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = Math.min(index, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int startIdx = Math.min(interval.a, size);
+        int stopIdx = Math.min(interval.b + 1, size);
+        if (stopIdx <= startIdx) {
+            return "";
+        }
+        return source.substring(startIdx, stopIdx);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+/**
+ * A read only view on a part of a String.
+ * Used to inspect the source text of a node in the parse tree without creating a new String.
+ * Only when the actual value is needed (toString) the characters are copied.
+ */
+public final class TextSlice implements CharSequence {
+    private final String source;
+    private final int    offset;
+    private final int    length;
+
+    public TextSlice(String source, int start, int end) {
+        if (start < 0 || end > source.length() || start > end) {
+            throw new IndexOutOfBoundsException("Invalid slice [" + start + "," + end + ") of a String with length " + source.length());
+        }
+        this.source = source;
+        this.offset = start;
+        this.length = end - start;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside the slice of length " + length);
+        }
+        return source.charAt(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Invalid subSequence [" + start + "," + end + ") of a slice with length " + length);
+        }
+        return new TextSlice(source, offset + start, offset + end);
+    }
+
+    @Override
+    public String toString() {
+        return source.substring(offset, offset + length);
+    }
+}
@@ -18,6 +18,8 @@
 package nl.basjes.parse.useragent.utils;
 
 import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.nodes.MappingNode;
 import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.nodes.NodeTuple;
@@ -30,6 +32,12 @@ import java.util.List;
 public final class YamlUtils {
     private YamlUtils() {}
 
+    public static Yaml createYaml() {
+        final LoaderOptions yamlLoaderOptions = new LoaderOptions();
+        yamlLoaderOptions.setMaxAliasesForCollections(200); // We use this many in the hacker/sql injection config.
+        return new Yaml(yamlLoaderOptions);
+    }
+
     public static void requireNodeInstanceOf(Class<?> clazz, Node node, String filename, String error) {
         if (!clazz.isInstance(node)) {
             throw new InvalidParserConfigurationException(
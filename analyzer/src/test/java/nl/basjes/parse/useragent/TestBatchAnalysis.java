@@ -0,0 +1,102 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestBatchAnalysis {
+
+    private void verifyBatch(UserAgentAnalyzer uaa, List<String> fields) {
+        List<String> inputs = new ArrayList<>();
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            inputs.add(testCase.get("input").get("user_agent_string"));
+        }
+        // Every input is in there twice
+        inputs.addAll(new ArrayList<>(inputs));
+
+        UserAgentBatchResult batch = uaa.analyzeBatch(inputs, fields);
+
+        List<String> fieldNames = fields == null ? uaa.getAllPossibleFieldNamesSorted() : fields;
+        assertEquals(fieldNames, batch.getFieldNames());
+        assertEquals(inputs.size(), batch.getNumberOfRows());
+        assertEquals(new HashSet<>(inputs).size(), batch.getNumberOfDistinctInputs());
+        assertEquals(new HashSet<>(batch.getValueDictionary()).size(), batch.getValueDictionary().size(), "Duplicate values");
+
+        for (int row = 0; row < inputs.size(); row++) {
+            String input = inputs.get(row);
+            UserAgent userAgent = uaa.parse(input);
+            for (int column = 0; column < fieldNames.size(); column++) {
+                String fieldName = fieldNames.get(column);
+                assertEquals(userAgent.getValue(fieldName), batch.getValue(row, fieldName),           input + " --> " + fieldName);
+                assertEquals(userAgent.getValue(fieldName), batch.getValue(batch.getColumn(column)[row]), input + " --> " + fieldName);
+            }
+        }
+    }
+
+    @Test
+    void testBatchAllFields() {
+        verifyBatch(UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build(), null);
+    }
+
+    @Test
+    void testBatchSomeFields() {
+        verifyBatch(UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build(),
+            Arrays.asList("DeviceClass", USERAGENT_FIELDNAME, "AgentNameVersionMajor", "SomethingElse"));
+    }
+
+    @Test
+    void testBatchEdgeCases() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .build();
+
+        UserAgentBatchResult batch = uaa.analyzeBatch(Arrays.asList("", null, "", null), Arrays.asList("DeviceClass", "DeviceClass"));
+        assertEquals(4, batch.getNumberOfRows());
+        assertEquals(2, batch.getNumberOfDistinctInputs());
+        assertEquals(Collections.singletonList("DeviceClass"), batch.getFieldNames());
+        assertEquals(uaa.parse("").getValue("DeviceClass"),           batch.getValue(0, "DeviceClass"));
+        assertEquals(uaa.parse((String) null).getValue("DeviceClass"), batch.getValue(1, "DeviceClass"));
+        assertThrows(IllegalArgumentException.class, () -> batch.getColumn("DeviceName"));
+
+        UserAgentBatchResult empty = uaa.analyzeBatch(new ArrayList<>(), new ArrayList<>());
+        assertEquals(0, empty.getNumberOfRows());
+        assertEquals(0, empty.getValueDictionary().size());
+    }
+}
@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
 import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME_VERSION;
@@ -111,4 +112,47 @@ class TestCalculators {
         assertEquals(pair.brand, userAgent.getValue(DEVICE_BRAND));
     }
 
+    private void verifyDeferredCalculations(UserAgentAnalyzer uaa) {
+        List<String> fieldNames = new ArrayList<>(uaa.getAllPossibleFieldNamesSorted());
+        fieldNames.add("SomethingElse");
+
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            String input = testCase.get("input").get("user_agent_string");
+            // The String variant defers the derived fields, the MutableUserAgent variant calculates them all.
+            UserAgent deferred  = uaa.parse(input);
+            UserAgent immediate = uaa.parse(new MutableUserAgent(input, uaa.getWantedFieldNames()));
+
+            for (String fieldName : fieldNames) {
+                assertEquals(immediate.get(fieldName),           deferred.get(fieldName),           input + " --> " + fieldName);
+                assertEquals(immediate.getValue(fieldName),      deferred.getValue(fieldName),      input + " --> " + fieldName);
+                assertEquals(immediate.getConfidence(fieldName), deferred.getConfidence(fieldName), input + " --> " + fieldName);
+            }
+            assertEquals(immediate.getAvailableFieldNamesSorted(), deferred.getAvailableFieldNamesSorted(), input);
+            assertEquals(immediate, deferred, input);
+        }
+    }
+
+    @Test
+    void testDeferredCalculationsAllFields() {
+        verifyDeferredCalculations(UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .withoutValueDictionary()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build());
+    }
+
+    @Test
+    void testDeferredCalculationsSomeFields() {
+        verifyDeferredCalculations(UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField(UserAgent.DEVICE_CLASS)
+            .withField(AGENT_NAME_VERSION_MAJOR)
+            .withField(UserAgent.WEBVIEW_APP_NAME_VERSION_MAJOR)
+            .keepTests()
+            .build());
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME;
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME_VERSION_MAJOR;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_BRAND;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_NAME;
+import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_NAME;
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestFieldSet {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestFieldSet.class);
+
+    private static final String IPHONE =
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 11_2_5 like Mac OS X) AppleWebKit/604.5.6 " +
+        "(KHTML, like Gecko) Version/11.0 Mobile/15D60 Safari/604.1";
+
+    private void verifyFieldSet(UserAgentAnalyzer uaa, List<String> fieldNames) {
+        FieldSet fieldSet = uaa.createFieldSet(fieldNames);
+        LOG.info("{}", fieldSet);
+        assertEquals(fieldNames, fieldSet.getFieldNames());
+        assertTrue(fieldSet.getNumberOfActiveMatchers() < uaa.getAllMatchers().size(), fieldSet.toString());
+
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            String input = testCase.get("input").get("user_agent_string");
+            ImmutableUserAgent expected = uaa.parse(input);
+            ImmutableUserAgent actual   = uaa.parse(input, fieldSet);
+            for (String fieldName : fieldNames) {
+                assertEquals(expected.getValue(fieldName), actual.getValue(fieldName), input + " --> " + fieldName);
+            }
+            // Like with an analyzer for specific fields: fields that have the default value are not available.
+            for (String fieldName : actual.getAvailableFieldNamesSorted()) {
+                assertTrue(fieldSet.getNeededFieldNames().contains(fieldName), input + " --> unexpected " + fieldName);
+                assertEquals(expected.getConfidence(fieldName), actual.getConfidence(fieldName), input + " --> " + fieldName);
+            }
+        }
+    }
+
+    @Test
+    void testFieldSets() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build();
+
+        verifyFieldSet(uaa, Collections.singletonList(DEVICE_CLASS));
+        verifyFieldSet(uaa, Arrays.asList(OPERATING_SYSTEM_NAME, AGENT_NAME_VERSION_MAJOR));
+        verifyFieldSet(uaa, Arrays.asList(DEVICE_NAME, USERAGENT_FIELDNAME));
+
+        // A calculated field also needs everything it is calculated from
+        FieldSet deviceName = uaa.createFieldSet(DEVICE_NAME);
+        assertTrue(deviceName.getNeededFieldNames().contains(DEVICE_BRAND));
+        assertFalse(deviceName.getNeededFieldNames().contains(AGENT_NAME));
+        assertEquals(IPHONE, uaa.parse(IPHONE, deviceName).getValue(USERAGENT_FIELDNAME));
+        assertEquals("Apple iPhone", uaa.parse(IPHONE, deviceName).getValue(DEVICE_NAME));
+
+        InvalidParserConfigurationException exception =
+            assertThrows(InvalidParserConfigurationException.class, () -> uaa.createFieldSet(DEVICE_CLASS, "NoSuchField"));
+        assertTrue(exception.getMessage().contains("NoSuchField"));
+    }
+
+    @Test
+    void testCachedFullResultIsReused() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(10)
+            .hideMatcherLoadStats()
+            .build();
+
+        FieldSet deviceClass = uaa.createFieldSet(DEVICE_CLASS);
+
+        // Not yet cached: only the needed work is done and the result is cached for this FieldSet only.
+        ImmutableUserAgent projected = uaa.parse(IPHONE, deviceClass);
+        assertEquals("Phone", projected.getValue(DEVICE_CLASS));
+        assertFalse(projected.getAvailableFieldNamesSorted().contains(AGENT_NAME));
+        assertSame(projected, uaa.parse(IPHONE, deviceClass));
+        assertNotSame(projected, uaa.parse(IPHONE, uaa.createFieldSet(DEVICE_CLASS)));
+
+        ImmutableUserAgent full = uaa.parse(IPHONE);
+        assertNotSame(projected, full);
+        assertEquals("Safari", full.getValue(AGENT_NAME));
+
+        // Now the full result is in the cache.
+        assertSame(full, uaa.parse(IPHONE, deviceClass));
+    }
+
+    @Test
+    void testFieldSetResultsShareTheCache() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(2)
+            .hideMatcherLoadStats()
+            .build();
+
+        FieldSet deviceClass = uaa.createFieldSet(DEVICE_CLASS);
+        FieldSet agentName   = uaa.createFieldSet(AGENT_NAME);
+
+        ImmutableUserAgent projectedDeviceClass = uaa.parse(IPHONE, deviceClass);
+        ImmutableUserAgent projectedAgentName   = uaa.parse(IPHONE, agentName);
+        assertSame(projectedDeviceClass, uaa.parse(IPHONE, deviceClass));
+        assertSame(projectedAgentName,   uaa.parse(IPHONE, agentName));
+
+        // All results are in the one analyzer cache: an other FieldSet evicts the oldest result.
+        uaa.parse(IPHONE, uaa.createFieldSet(DEVICE_NAME));
+        assertNotSame(projectedDeviceClass, uaa.parse(IPHONE, deviceClass));
+    }
+
+    @Test
+    void testCachedFieldSetOfOtherAnalyzer() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(10)
+            .hideMatcherLoadStats()
+            .withField(DEVICE_CLASS)
+            .build();
+
+        UserAgentAnalyzer other = UserAgentAnalyzer
+            .newBuilder()
+            .withCache(10)
+            .hideMatcherLoadStats()
+            .withField(DEVICE_CLASS)
+            .build();
+
+        // Even if the result is in the cache a FieldSet of an other analyzer is rejected.
+        uaa.parse(IPHONE);
+        FieldSet fieldSet = other.createFieldSet(DEVICE_CLASS);
+        assertThrows(IllegalArgumentException.class, () -> uaa.parse(IPHONE, fieldSet));
+    }
+
+    @Test
+    void testFieldSetOfOtherAnalyzer() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField(DEVICE_CLASS)
+            .build();
+
+        UserAgentAnalyzer other = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField(DEVICE_CLASS)
+            .build();
+
+        FieldSet fieldSet = other.createFieldSet(DEVICE_CLASS);
+        assertThrows(IllegalArgumentException.class, () -> uaa.parse(IPHONE, fieldSet));
+        assertEquals("Phone", other.parse(IPHONE, fieldSet).getValue(DEVICE_CLASS));
+
+        // The analyzer was not built for this field
+        assertThrows(InvalidParserConfigurationException.class, () -> uaa.createFieldSet(AGENT_NAME));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.parse.useragent.AgentField.MutableAgentField;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestImmutableUserAgentCodec {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestImmutableUserAgentCodec.class);
+
+    private void assertSame(ImmutableUserAgent expected, ImmutableUserAgent actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.hasSyntaxError(),      actual.hasSyntaxError());
+        assertEquals(expected.hasAmbiguity(),        actual.hasAmbiguity());
+        assertEquals(expected.getAmbiguityCount(),   actual.getAmbiguityCount());
+        for (String fieldName : expected.getAvailableFieldNamesSorted()) {
+            assertEquals(expected.get(fieldName), actual.get(fieldName), fieldName);
+        }
+    }
+
+    private static byte[] javaSerialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void testAllTestCases() throws IOException {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build();
+
+        ImmutableUserAgentCodec standardCodec   = new ImmutableUserAgentCodec();
+        ImmutableUserAgentCodec dictionaryCodec = new ImmutableUserAgentCodec(uaa.getAllPossibleFieldNamesSorted());
+
+        List<ImmutableUserAgent> userAgents = new ArrayList<>();
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            userAgents.add(uaa.parse(testCase.get("input").get("user_agent_string")));
+        }
+
+        long javaBytes       = 0;
+        long standardBytes   = 0;
+        long dictionaryBytes = 0;
+        for (ImmutableUserAgent userAgent : userAgents) {
+            byte[] standard   = standardCodec.encode(userAgent);
+            byte[] dictionary = dictionaryCodec.encode(userAgent);
+            assertSame(userAgent, standardCodec.decode(standard));
+            assertSame(userAgent, dictionaryCodec.decode(dictionary));
+
+            javaBytes       += javaSerialize(userAgent).length;
+            standardBytes   += standard.length;
+            dictionaryBytes += dictionary.length;
+        }
+
+        LOG.info("Serialized {} results: Java = {} bytes, Codec = {} bytes, Codec with all field names = {} bytes",
+            userAgents.size(), javaBytes, standardBytes, dictionaryBytes);
+        assertTrue(standardBytes < javaBytes);
+        assertTrue(dictionaryBytes <= standardBytes);
+
+        // A rough speed comparison
+        int rounds = 10;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (ImmutableUserAgent userAgent : userAgents) {
+                javaSerialize(userAgent);
+            }
+        }
+        long javaNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (ImmutableUserAgent userAgent : userAgents) {
+                dictionaryCodec.decode(dictionaryCodec.encode(userAgent));
+            }
+        }
+        long codecNs = System.nanoTime() - start;
+        LOG.info("Serialize {} results: Java = {} ms (write only), Codec = {} ms (write and read)",
+            rounds * userAgents.size(), javaNs / 1_000_000, codecNs / 1_000_000);
+    }
+
+    @Test
+    void testSpecialValues() throws IOException {
+        MutableUserAgent mutableAgent = new MutableUserAgent("Some Agent \u00e9\u20ac\uD83D\uDE00");
+        mutableAgent.set("DeviceClass", "Phone", 10);
+        mutableAgent.set("DeviceName", "Negative", -5);
+        mutableAgent.set("CodecTestField", "\u00e9\u20ac\uD83D\uDE00", Long.MAX_VALUE);
+        mutableAgent.setImmediateForTesting("CodecTestDefault", new MutableAgentField("Foo"));
+        mutableAgent.set("CodecTestDefault", "Bar", 3);
+        mutableAgent.setImmediateForTesting("CodecTestNullDefault", new MutableAgentField(null));
+        mutableAgent.set("CodecTestNullDefault", "Something", 1);
+
+        ImmutableUserAgentCodec codec = new ImmutableUserAgentCodec(Arrays.asList("DeviceClass", "CodecTestField"));
+        for (ImmutableUserAgent userAgent : Arrays.asList(
+            new ImmutableUserAgent(mutableAgent),
+            new ImmutableUserAgent(new MutableUserAgent((String) null)))) {
+            assertSame(userAgent, codec.decode(codec.encode(userAgent)));
+            assertSame(userAgent, new ImmutableUserAgentCodec().decode(new ImmutableUserAgentCodec().encode(userAgent)));
+        }
+    }
+
+    @Test
+    void testInvalidData() {
+        ImmutableUserAgent userAgent = new ImmutableUserAgent(new MutableUserAgent("Some Agent"));
+        byte[] bytes = new ImmutableUserAgentCodec().encode(userAgent);
+
+        // Different dictionary
+        assertThrows(InvalidObjectException.class,
+            () -> new ImmutableUserAgentCodec(Arrays.asList("DeviceClass", "DeviceName")).decode(bytes));
+
+        // Different version
+        byte[] otherVersion = bytes.clone();
+        otherVersion[0] = ImmutableUserAgentCodec.FORMAT_VERSION + 1;
+        assertThrows(InvalidObjectException.class, () -> new ImmutableUserAgentCodec().decode(otherVersion));
+
+        // Truncated
+        assertThrows(EOFException.class,
+            () -> new ImmutableUserAgentCodec().decode(Arrays.copyOf(bytes, bytes.length - 1)));
+
+        // A string length that is far too big must be rejected before anything is allocated
+        byte[] shortAgent = new ImmutableUserAgentCodec().encode(new ImmutableUserAgent(new MutableUserAgent("X")));
+        int lengthPosition = new String(shortAgent, UTF_8).indexOf('X') - 1;
+        assertEquals(1, shortAgent[lengthPosition]);
+        byte[] hugeLength = new byte[shortAgent.length + 4];
+        System.arraycopy(shortAgent, 0, hugeLength, 0, lengthPosition);
+        byte[] maxIntVarInt = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07};
+        System.arraycopy(maxIntVarInt, 0, hugeLength, lengthPosition, maxIntVarInt.length);
+        System.arraycopy(shortAgent, lengthPosition + 1, hugeLength, lengthPosition + 5, shortAgent.length - lengthPosition - 1);
+        assertThrows(InvalidObjectException.class, () -> new ImmutableUserAgentCodec().decode(hugeLength));
+    }
+
+    @Test
+    void testKryo() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .build();
+        ImmutableUserAgent userAgent = uaa.parse("Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+
+        // The default serializer
+        Kryo kryo = new Kryo();
+        AbstractUserAgentAnalyzer.configureKryo(kryo);
+        Output output = new Output(1024, -1);
+        kryo.writeObject(output, userAgent);
+        kryo.writeObject(output, userAgent);
+        Input input = new Input(output.toBytes());
+        assertSame(userAgent, kryo.readObject(input, ImmutableUserAgent.class));
+        assertSame(userAgent, kryo.readObject(input, ImmutableUserAgent.class));
+
+        // With a field name dictionary
+        Kryo dictionaryKryo = new Kryo();
+        AbstractUserAgentAnalyzer.configureKryo(dictionaryKryo);
+        dictionaryKryo.register(ImmutableUserAgent.class,
+            new ImmutableUserAgent.KryoSerializer(new ImmutableUserAgentCodec(uaa.getAllPossibleFieldNamesSorted())));
+        Output dictionaryOutput = new Output(1024, -1);
+        dictionaryKryo.writeObject(dictionaryOutput, userAgent);
+        assertSame(userAgent, dictionaryKryo.readObject(new Input(dictionaryOutput.toBytes()), ImmutableUserAgent.class));
+    }
+}
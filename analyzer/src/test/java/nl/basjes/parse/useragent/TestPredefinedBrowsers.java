@@ -55,6 +55,21 @@ class TestPredefinedBrowsers {
         uaa.destroy();
     }
 
+    @Test
+    void validateAllPredefinedBrowsersCompiledOnDemand() {
+        UserAgentAnalyzerTester uaa = UserAgentAnalyzerTester
+            .newBuilder()
+            .compileMatchersOnDemand()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        LOG.info("==============================================================");
+        LOG.info("Validating when compiling the matchers on demand");
+        LOG.info("--------------------------------------------------------------");
+        assertTrue(uaa.runTests(false, true, null, false, false));
+        uaa.destroy();
+    }
+
     private void validateAllPredefinedBrowsersMultipleFields(Collection<String> fields) {
         LOG.info("==============================================================");
         LOG.info("Validating when ONLY asking for {}", fields.toString());
@@ -0,0 +1,166 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestReloadableUserAgentAnalyzer {
+
+    private final AtomicReference<String> ruleValue     = new AtomicReference<>();
+    private final AtomicReference<String> expectedValue = new AtomicReference<>();
+    private final AtomicBoolean           failBuild     = new AtomicBoolean(false);
+
+    private UserAgentAnalyzer buildAnalyzer() {
+        if (failBuild.get()) {
+            throw new NoClassDefFoundError("Simulated failure while building the analyzer");
+        }
+        return UserAgentAnalyzer
+            .newBuilder()
+            .dropDefaultResources()
+            .keepTests()
+            .hideMatcherLoadStats()
+            .withCache(10)
+            .addYamlRule(
+                "config:\n" +
+                "- matcher:\n" +
+                "    extract:\n" +
+                "    - 'RuleVersion : 1 : \"" + ruleValue.get() + "\"'\n" +
+                "- test:\n" +
+                "    input:\n" +
+                "      user_agent_string: 'Foo'\n" +
+                "    expected:\n" +
+                "      RuleVersion: '" + expectedValue.get() + "'\n")
+            .build();
+    }
+
+    private void setRules(String value, String expected) {
+        ruleValue.set(value);
+        expectedValue.set(expected);
+    }
+
+    private String parse(ReloadableUserAgentAnalyzer analyzer) {
+        return analyzer.parse("Foo").getValue("RuleVersion");
+    }
+
+    @Test
+    void testReloading() throws ExecutionException, InterruptedException {
+        setRules("One", "One");
+        ReloadableUserAgentAnalyzer analyzer = new ReloadableUserAgentAnalyzer(this::buildAnalyzer);
+        assertEquals("One", parse(analyzer));
+
+        // Validated reload
+        setRules("Two", "Two");
+        analyzer.reload(true, false);
+        assertEquals("Two", parse(analyzer));
+
+        // New rules that fail their own tests are not used.
+        setRules("Three", "Something else");
+        assertThrows(InvalidParserConfigurationException.class, () -> analyzer.reload(true, false));
+        assertEquals("Two", parse(analyzer));
+
+        // Keeping the cache retains the old results.
+        setRules("Four", "Four");
+        analyzer.reload(false, true);
+        assertEquals("Two", parse(analyzer));
+
+        // Invalidating the cache
+        analyzer.reload(false, false);
+        assertEquals("Four", parse(analyzer));
+
+        // In the background
+        setRules("Five", "Five");
+        analyzer.reloadInBackground(true, false).get();
+        assertEquals("Five", parse(analyzer));
+
+        setRules("Six", "Something else");
+        assertThrows(ExecutionException.class, () -> analyzer.reloadInBackground(true, false).get());
+        assertEquals("Five", parse(analyzer));
+
+        analyzer.destroy();
+    }
+
+    @Test
+    void testReplacedAnalyzerIsDestroyed() {
+        setRules("One", "One");
+        ReloadableUserAgentAnalyzer analyzer = new ReloadableUserAgentAnalyzer(this::buildAnalyzer);
+        UserAgentAnalyzer first = analyzer.get();
+        assertFalse(first.getAllMatchers().isEmpty());
+
+        setRules("Two", "Two");
+        analyzer.reload(true, false);
+        assertTrue(first.getAllMatchers().isEmpty());
+        assertEquals("Two", parse(analyzer));
+        analyzer.destroy();
+    }
+
+    @Test
+    void testOverlappingBackgroundReloads() throws ExecutionException, InterruptedException {
+        setRules("One", "One");
+        ReloadableUserAgentAnalyzer analyzer = new ReloadableUserAgentAnalyzer(this::buildAnalyzer);
+
+        setRules("Two", "Two");
+        List<CompletableFuture<UserAgentAnalyzer>> reloads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            reloads.add(analyzer.reloadInBackground(true, false));
+        }
+        // They are done one after the other so all succeed and the last one is in use.
+        for (CompletableFuture<UserAgentAnalyzer> reload : reloads) {
+            assertNotNull(reload.get());
+        }
+        assertSame(reloads.get(reloads.size() - 1).get(), analyzer.get());
+        assertEquals("Two", parse(analyzer));
+        analyzer.destroy();
+    }
+
+    @Test
+    void testBackgroundReloadFailsWithError() throws ExecutionException, InterruptedException {
+        setRules("One", "One");
+        ReloadableUserAgentAnalyzer analyzer = new ReloadableUserAgentAnalyzer(this::buildAnalyzer);
+
+        failBuild.set(true);
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> analyzer.reloadInBackground(false, false).get());
+        assertTrue(exception.getCause() instanceof NoClassDefFoundError);
+        assertEquals("One", parse(analyzer));
+
+        // The background thread survived the failure
+        failBuild.set(false);
+        setRules("Two", "Two");
+        analyzer.reloadInBackground(false, false).get();
+        assertEquals("Two", parse(analyzer));
+
+        analyzer.destroy();
+        assertThrows(ExecutionException.class, () -> analyzer.reloadInBackground(false, false).get());
+    }
+
+}
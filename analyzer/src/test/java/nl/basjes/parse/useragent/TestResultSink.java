@@ -0,0 +1,127 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static nl.basjes.parse.useragent.UserAgent.AGENT_NAME_VERSION_MAJOR;
+import static nl.basjes.parse.useragent.UserAgent.DEVICE_CLASS;
+import static nl.basjes.parse.useragent.UserAgent.OPERATING_SYSTEM_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestResultSink {
+
+    private void verifySink(UserAgentAnalyzer uaa, String input) {
+        // The sink is called first so with caching enabled it also sees the cache misses.
+        Map<String, String> values = new TreeMap<>();
+        Map<String, Long> confidences = new TreeMap<>();
+        uaa.parse(input, (ordinal, value, confidence) -> {
+            String fieldName = FieldRegistry.nameOf(ordinal);
+            assertTrue(values.put(fieldName, value) == null, "Duplicate field " + fieldName);
+            confidences.put(fieldName, confidence);
+        });
+
+        UserAgent expected = uaa.parse(input);
+        List<String> fieldNames = expected.getAvailableFieldNamesSorted();
+        assertEquals(new HashSet<>(fieldNames), values.keySet(), input);
+        for (String fieldName : fieldNames) {
+            assertEquals(expected.getValue(fieldName),      values.get(fieldName),      input + " --> " + fieldName);
+            assertEquals(expected.getConfidence(fieldName), confidences.get(fieldName), input + " --> " + fieldName);
+        }
+    }
+
+    private void verifyRequestedFields(UserAgentAnalyzer uaa, String input) {
+        List<String> fieldNames = uaa.getAllPossibleFieldNamesSorted();
+        int[] fieldOrdinals = fieldNames.stream().mapToInt(FieldRegistry::ordinalOf).toArray();
+
+        List<String> values = new ArrayList<>();
+        List<Long> confidences = new ArrayList<>();
+        uaa.parse(input, fieldOrdinals, (ordinal, value, confidence) -> {
+            assertEquals(fieldOrdinals[values.size()], ordinal, input);
+            values.add(value);
+            confidences.add(confidence);
+        });
+
+        UserAgent expected = uaa.parse(input);
+        assertEquals(fieldNames.size(), values.size(), input);
+        for (int i = 0; i < fieldNames.size(); i++) {
+            String fieldName = fieldNames.get(i);
+            assertEquals(expected.getValue(fieldName),      values.get(i),      input + " --> " + fieldName);
+            assertEquals(expected.getConfidence(fieldName), confidences.get(i), input + " --> " + fieldName);
+        }
+    }
+
+    private void verifySink(UserAgentAnalyzer uaa) {
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            String input = testCase.get("input").get("user_agent_string");
+            // With caching enabled the first one is a miss and the second one is a replay of the cached result.
+            verifySink(uaa, input);
+            verifySink(uaa, input);
+            verifyRequestedFields(uaa, input + " Other");
+            verifyRequestedFields(uaa, input + " Other");
+        }
+        verifySink(uaa, null);
+        verifySink(uaa, "");
+
+        StringBuilder tooLong = new StringBuilder("Mozilla/5.0 ");
+        while (tooLong.length() <= uaa.getUserAgentMaxLength()) {
+            tooLong.append("Yauaa ");
+        }
+        verifySink(uaa, tooLong.toString());
+    }
+
+    @Test
+    void testSinkAllFields() {
+        verifySink(UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build());
+    }
+
+    @Test
+    void testSinkAllFieldsCached() {
+        verifySink(UserAgentAnalyzer
+            .newBuilder()
+            .withCache(100)
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build());
+    }
+
+    @Test
+    void testSinkSomeFields() {
+        verifySink(UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .hideMatcherLoadStats()
+            .withField(DEVICE_CLASS)
+            .withField(OPERATING_SYSTEM_NAME)
+            .withField(AGENT_NAME_VERSION_MAJOR)
+            .keepTests()
+            .build());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestRuleCoreRegistry {
+
+    private static final String USERAGENT = "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+        "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+
+    @Test
+    void testSharedRules() {
+        int startRuleCores = RuleCoreRegistry.getNumberOfRuleCores();
+
+        UserAgentAnalyzer uaa1 = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .shareRulesWithOtherAnalyzers()
+            .withField("DeviceClass")
+            .build();
+
+        UserAgentAnalyzer uaa2 = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .shareRulesWithOtherAnalyzers()
+            .withField("AgentName")
+            .withCache(10)
+            .build();
+
+        assertEquals(startRuleCores + 1, RuleCoreRegistry.getNumberOfRuleCores());
+
+        // Both use the same instances of the lookups.
+        int sharedLookups = 0;
+        for (String lookupName : uaa1.getLookups().keySet()) {
+            if (uaa2.getLookups().containsKey(lookupName)) {
+                assertSame(uaa1.getLookups().get(lookupName), uaa2.getLookups().get(lookupName));
+                sharedLookups++;
+            }
+        }
+        assertTrue(sharedLookups > 0);
+
+        assertEquals("Phone",  uaa1.parse(USERAGENT).getValue("DeviceClass"));
+        assertEquals("Chrome", uaa2.parse(USERAGENT).getValue("AgentName"));
+
+        uaa1.destroy();
+        assertEquals(startRuleCores + 1, RuleCoreRegistry.getNumberOfRuleCores());
+        assertEquals("Chrome", uaa2.parse(USERAGENT).getValue("AgentName"));
+
+        uaa2.destroy();
+        assertEquals(startRuleCores, RuleCoreRegistry.getNumberOfRuleCores());
+    }
+
+    @Test
+    void testLoadingDoesNotBlockOtherRules() throws InterruptedException {
+        List<Object> slowKey = Collections.singletonList("Slow rules");
+        List<Object> fastKey = Collections.singletonList("Fast rules");
+
+        CountDownLatch slowLoadStarted  = new CountDownLatch(1);
+        CountDownLatch slowLoadMayEnd   = new CountDownLatch(1);
+
+        Thread slowLoader = new Thread(() ->
+            RuleCoreRegistry.acquire(slowKey, () -> {
+                slowLoadStarted.countDown();
+                try {
+                    slowLoadMayEnd.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+        slowLoader.start();
+        assertTrue(slowLoadStarted.await(10, TimeUnit.SECONDS));
+
+        // While the slow rules are still loading other rules can be acquired and released.
+        RuleCoreRegistry.acquire(fastKey, () -> null);
+        assertEquals(1, RuleCoreRegistry.getNumberOfReferences(fastKey));
+        RuleCoreRegistry.release(fastKey);
+        assertEquals(0, RuleCoreRegistry.getNumberOfReferences(fastKey));
+
+        slowLoadMayEnd.countDown();
+        slowLoader.join(10000);
+        assertEquals(1, RuleCoreRegistry.getNumberOfReferences(slowKey));
+        RuleCoreRegistry.release(slowKey);
+        assertEquals(0, RuleCoreRegistry.getNumberOfReferences(slowKey));
+    }
+
+    @Test
+    void testFailedLoadIsNotKept() {
+        List<Object> key = Collections.singletonList("Broken rules");
+        assertThrows(IllegalStateException.class, () ->
+            RuleCoreRegistry.acquire(key, () -> {
+                throw new IllegalStateException("Broken");
+            }));
+        assertEquals(0, RuleCoreRegistry.getNumberOfReferences(key));
+    }
+
+}
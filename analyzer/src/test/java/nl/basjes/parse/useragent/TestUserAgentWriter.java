@@ -0,0 +1,137 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import org.apache.commons.text.StringEscapeUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static nl.basjes.parse.useragent.UserAgent.USERAGENT_FIELDNAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestUserAgentWriter {
+
+    // The way the JSON and XML were created before the writer existed.
+    private static String expectedJson(UserAgent userAgent, List<String> fieldNames) {
+        StringBuilder sb = new StringBuilder("{");
+        boolean addSeparator = false;
+        for (String fieldName : fieldNames) {
+            if (addSeparator) {
+                sb.append(',');
+            } else {
+                addSeparator = true;
+            }
+            String value = USERAGENT_FIELDNAME.equals(fieldName) ? userAgent.getUserAgentString() : userAgent.getValue(fieldName);
+            sb
+                .append('"').append(StringEscapeUtils.escapeJson(fieldName)).append('"')
+                .append(':')
+                .append('"').append(StringEscapeUtils.escapeJson(value)).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String expectedXML(UserAgent userAgent, List<String> fieldNames) {
+        StringBuilder sb = new StringBuilder("<Yauaa>");
+        for (String fieldName : fieldNames) {
+            String value = USERAGENT_FIELDNAME.equals(fieldName) ? userAgent.getUserAgentString() : userAgent.getValue(fieldName);
+            sb
+                .append('<').append(StringEscapeUtils.escapeXml10(fieldName)).append('>')
+                .append(StringEscapeUtils.escapeXml10(value))
+                .append("</").append(StringEscapeUtils.escapeXml10(fieldName)).append('>');
+        }
+        return sb.append("</Yauaa>").toString();
+    }
+
+    private static List<String> allFields(UserAgent userAgent) {
+        List<String> fieldNames = new ArrayList<>();
+        fieldNames.add(USERAGENT_FIELDNAME);
+        fieldNames.addAll(userAgent.getAvailableFieldNamesSorted());
+        return fieldNames;
+    }
+
+    private void verify(UserAgentWriter writer, UserAgent userAgent, List<String> fieldNames) throws IOException {
+        String json = expectedJson(userAgent, fieldNames);
+        String xml  = expectedXML(userAgent, fieldNames);
+
+        StringBuilder sb = new StringBuilder();
+        writer.writeJson(userAgent, sb);
+        assertEquals(json, sb.toString());
+
+        sb.setLength(0);
+        writer.writeXML(userAgent, sb);
+        assertEquals(xml, sb.toString());
+
+        // A single Writer for all records on the same stream.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Writer streamWriter = UserAgentWriter.newWriter(out);
+        writer.writeJson(userAgent, streamWriter);
+        streamWriter.append('\n');
+        writer.writeXML(userAgent, streamWriter);
+        streamWriter.flush();
+        assertEquals(json + '\n' + xml, new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    void testAllTestCases() throws IOException {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .keepTests()
+            .build();
+
+        List<String> someFields = Arrays.asList("DeviceClass", USERAGENT_FIELDNAME, "AgentNameVersionMajor", "SomethingElse");
+
+        UserAgentWriter allFieldsWriter  = new UserAgentWriter();
+        UserAgentWriter someFieldsWriter = new UserAgentWriter(someFields);
+
+        for (Map<String, Map<String, String>> testCase : uaa.getTestCases()) {
+            UserAgent userAgent = uaa.parse(testCase.get("input").get("user_agent_string"));
+            verify(allFieldsWriter, userAgent, allFields(userAgent));
+            verify(someFieldsWriter, userAgent, someFields);
+
+            assertEquals(expectedJson(userAgent, allFields(userAgent)), userAgent.toJson());
+            assertEquals(expectedXML(userAgent, allFields(userAgent)),  userAgent.toXML());
+        }
+    }
+
+    @Test
+    void testEscaping() throws IOException {
+        MutableUserAgent userAgent = new MutableUserAgent("Quote\" Apos' Slash/ Backslash\\ <&> Tab\t Bell\u0007 \u00e9\u20ac\uD83D\uDE00");
+        userAgent.set("Plain",                  "Plain value 1.2.3",                    1);
+        userAgent.set("Quote\"Name",            "Value with \"quotes\" and 'apos'",     1);
+        userAgent.set("Xml<Name>",              "a < b && c > d",                       1);
+        userAgent.set("Unicode",                "\u00e9\u20ac\uD83D\uDE00 \u0085",      1);
+        userAgent.set("Control",                "Line1\nLine2\r\u0000\u001f\u007f",     1);
+        userAgent.set("Path",                   "/usr/bin\\yauaa",                      1);
+
+        verify(new UserAgentWriter(), userAgent, allFields(userAgent));
+        verify(new UserAgentWriter(allFields(userAgent)), userAgent, allFields(userAgent));
+
+        MutableUserAgent nullUserAgent = new MutableUserAgent((String) null);
+        verify(new UserAgentWriter(), nullUserAgent, allFields(nullUserAgent));
+    }
+}
@@ -17,6 +17,9 @@
 
 package nl.basjes.parse.useragent;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
 import nl.basjes.parse.useragent.AgentField.MutableAgentField;
 import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
@@ -24,6 +27,11 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.List;
 
@@ -399,4 +407,92 @@ class TestUseragent {
         assertEquals("Unknown", userAgent.getValue("SomethingElse"));
         userAgent.destroy();
     }
+
+    @Test
+    void ordinalAccess() {
+        MutableUserAgent mutableAgent = new MutableUserAgent("Some Agent");
+        mutableAgent.set("DeviceClass", "Phone", 10);
+        mutableAgent.set("OrdinalTestField", "Something", 5);
+
+        int deviceClass = FieldRegistry.findOrdinal("DeviceClass");
+        int agentName   = FieldRegistry.findOrdinal("AgentName");
+        assertEquals("DeviceClass",      FieldRegistry.nameOf(deviceClass));
+        assertEquals("AgentName",        FieldRegistry.nameOf(agentName));
+
+        ImmutableUserAgent immutableAgent = new ImmutableUserAgent(mutableAgent);
+        for (UserAgent agent: Arrays.asList(mutableAgent, immutableAgent)) {
+            assertEquals("Phone",       agent.getValue(deviceClass));
+            assertEquals(10,            agent.getConfidence(deviceClass));
+            assertEquals(UNKNOWN_VALUE, agent.getValue(agentName));
+            assertEquals(-1,            agent.getConfidence(agentName));
+            assertEquals(UNKNOWN_VALUE, agent.getValue(-1));
+            assertEquals(-1,            agent.getConfidence(-1));
+            assertEquals(UNKNOWN_VALUE, agent.getValue(FieldRegistry.size()));
+            // A field that is not part of any rule set is only available by name
+            assertEquals("Something",   agent.getValue("OrdinalTestField"));
+            assertEquals(5,             agent.getConfidence("OrdinalTestField"));
+        }
+    }
+
+    @Test
+    void unknownFieldNamesAreNeverRegistered() throws IOException, ClassNotFoundException {
+        int registeredFields = FieldRegistry.size();
+
+        MutableUserAgent mutableAgent = new MutableUserAgent("Some Agent");
+        mutableAgent.set("DeviceClass", "Phone", 10);
+        mutableAgent.set("UnregisteredTestField", "Something", 5);
+        mutableAgent.setForced("UnregisteredForcedTestField", "Forced", 6);
+        assertEquals("Unknown", mutableAgent.get("UnregisteredGetTestField").getValue());
+        assertEquals("??",      mutableAgent.getValue("UnregisteredTestVersion"));
+        assertTrue(mutableAgent.getAvailableFieldNamesSorted().contains("UnregisteredTestField"));
+
+        ImmutableUserAgent immutableAgent = new ImmutableUserAgent(mutableAgent);
+        assertEquals("Something", immutableAgent.getValue("UnregisteredTestField"));
+        assertEquals(6,           immutableAgent.getConfidence("UnregisteredForcedTestField"));
+        assertEquals(mutableAgent.getAvailableFieldNamesSorted(), immutableAgent.getAvailableFieldNamesSorted());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mutableAgent);
+            out.writeObject(immutableAgent);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(mutableAgent,   in.readObject());
+            assertEquals(immutableAgent, in.readObject());
+        }
+
+        ImmutableUserAgentCodec codec = new ImmutableUserAgentCodec();
+        assertEquals(immutableAgent, codec.decode(codec.encode(immutableAgent)));
+
+        assertEquals(registeredFields, FieldRegistry.size());
+        assertEquals(-1,               FieldRegistry.findOrdinal("UnregisteredTestField"));
+    }
+
+    @Test
+    void serializeImmutableByName() throws IOException, ClassNotFoundException {
+        MutableUserAgent mutableAgent = new MutableUserAgent("Some Agent");
+        mutableAgent.set("DeviceClass", "Phone", 10);
+        mutableAgent.setImmediateForTesting("SerializeTestField", new MutableAgentField("Foo"));
+        mutableAgent.set("SerializeTestField", "Bar", 3);
+        ImmutableUserAgent immutableAgent = new ImmutableUserAgent(mutableAgent);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(mutableAgent);
+            out.writeObject(immutableAgent);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(mutableAgent,   in.readObject());
+            assertEquals(immutableAgent, in.readObject());
+        }
+
+        Kryo kryo = new Kryo();
+        AbstractUserAgentAnalyzer.configureKryo(kryo);
+        Output output = new Output(1024, -1);
+        kryo.writeObject(output, mutableAgent);
+        kryo.writeObject(output, immutableAgent);
+        Input input = new Input(output.toBytes());
+        assertEquals(mutableAgent,   kryo.readObject(input, MutableUserAgent.class));
+        assertEquals(immutableAgent, kryo.readObject(input, ImmutableUserAgent.class));
+    }
 }
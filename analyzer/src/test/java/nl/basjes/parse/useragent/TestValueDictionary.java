@@ -0,0 +1,149 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestValueDictionary {
+
+    @Test
+    void testAdmission() {
+        ValueDictionary dictionary = new ValueDictionary(2);
+
+        String first  = new String("Chrome");   // NOSONAR: We need separate instances
+        String second = new String("Chrome");   // NOSONAR: We need separate instances
+        String third  = new String("Chrome");   // NOSONAR: We need separate instances
+
+        // Seen once: only a candidate
+        assertSame(first, dictionary.canonicalize(first));
+        assertEquals(-1, dictionary.getId("Chrome"));
+
+        // Seen twice: the first instance becomes the canonical one
+        assertSame(first, dictionary.canonicalize(second));
+        assertSame(first, dictionary.canonicalize(third));
+        assertEquals(0, dictionary.getId("Chrome"));
+        assertSame(first, dictionary.getValue(0));
+
+        dictionary.canonicalize("Firefox");
+        dictionary.canonicalize("Firefox");
+        assertEquals(1, dictionary.getId("Firefox"));
+        assertEquals(2, dictionary.size());
+
+        // The dictionary is full
+        String edge = new String("Edge");      // NOSONAR: We need separate instances
+        dictionary.canonicalize("Edge");
+        assertSame(edge, dictionary.canonicalize(edge));
+        assertEquals(-1, dictionary.getId("Edge"));
+        assertEquals(2, dictionary.size());
+
+        assertNull(dictionary.canonicalize(null));
+        assertThrows(IllegalArgumentException.class, () -> dictionary.getValue(2));
+    }
+
+    @Test
+    void testDisabled() {
+        ValueDictionary dictionary = new ValueDictionary(0);
+        String first  = new String("Chrome");   // NOSONAR: We need separate instances
+        String second = new String("Chrome");   // NOSONAR: We need separate instances
+        assertSame(first, dictionary.canonicalize(first));
+        assertSame(second, dictionary.canonicalize(second));
+        assertNotSame(first, second);
+        assertEquals(0, dictionary.size());
+    }
+
+    @Test
+    void testAnalyzerSharesValues() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .withValueDictionary(100)
+            .hideMatcherLoadStats()
+            .withField("AgentName")
+            .withField("AgentUuid")
+            .build();
+
+        assertEquals(100, uaa.getValueDictionarySize());
+        assertEquals(100, uaa.getValueDictionary().getMaxSize());
+
+        String chrome1 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/48.0.2564.82 Safari/537.36").getValue("AgentName");
+        String chrome2 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/49.0.2623.75 Safari/537.36").getValue("AgentName");
+        assertEquals("Chrome", chrome1);
+        assertSame(chrome1, chrome2);
+        assertSame(chrome1, uaa.getValueDictionary().getValue(uaa.getValueDictionary().getId("Chrome")));
+
+        // Identical results share their field values
+        ImmutableUserAgent result1 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/48.0.2564.82 Safari/537.36");
+        ImmutableUserAgent result2 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/48.0.2564.82 Safari/537.36");
+        assertNotSame(result1, result2);
+        assertTrue(result1.sharesFieldValuesWith(result2));
+
+        uaa.setValueDictionarySize(0);
+        ImmutableUserAgent result3 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/48.0.2564.82 Safari/537.36");
+        assertEquals(result1, result3);
+        assertFalse(result1.sharesFieldValuesWith(result3));
+        uaa.setValueDictionarySize(100);
+
+        // A value that was only seen once is not retained.
+        String uuid = "11111111-2222-3333-4444-555555555555";
+        assertEquals(uuid, uaa.parse(uuid).getValue("AgentUuid"));
+        assertEquals(-1, uaa.getValueDictionary().getId(uuid));
+    }
+
+    @Test
+    void testDistinctUseragentsShareIdenticalResults() {
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .withoutCache()
+            .withValueDictionary(100)
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .withField("AgentName")
+            .build();
+
+        // Different useragents with exactly the same (requested) results
+        ImmutableUserAgent chrome48 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/48.0.2564.82 Safari/537.36");
+        ImmutableUserAgent chrome49 = uaa.parse("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/49.0.2623.75 Safari/537.36");
+        ImmutableUserAgent firefox = uaa.parse("Mozilla/5.0 (X11; Linux x86_64; rv:84.0) Gecko/20100101 Firefox/84.0");
+
+        assertNotEquals(chrome48.getUserAgentString(), chrome49.getUserAgentString());
+        assertEquals("Desktop", chrome48.getValue("DeviceClass"));
+        assertEquals("Chrome",  chrome49.getValue("AgentName"));
+        assertEquals("Firefox", firefox.getValue("AgentName"));
+
+        assertSame(chrome48.getFieldValues(), chrome49.getFieldValues());
+        assertTrue(chrome48.sharesFieldValuesWith(chrome49));
+        assertFalse(chrome48.sharesFieldValuesWith(firefox));
+    }
+}
@@ -18,15 +18,18 @@
 package nl.basjes.parse.useragent.analyze;
 
 import nl.basjes.parse.useragent.AbstractUserAgentAnalyzerDirect;
+import nl.basjes.parse.useragent.AnalyzerBuildReport;
 import nl.basjes.parse.useragent.PreHeatCases;
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import nl.basjes.parse.useragent.UserAgentAnalyzer.UserAgentAnalyzerBuilder;
 import nl.basjes.parse.useragent.UserAgentAnalyzerDirect;
+import org.apache.commons.lang3.reflect.FieldUtils;
 import org.junit.jupiter.api.Test;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -112,6 +115,101 @@ class TestBuilder {
         runTestCase(userAgentAnalyzer);
     }
 
+    @Test
+    void testLimitedFieldsDropsUnusedLookups() {
+        UserAgentAnalyzer allFields = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .build();
+
+        UserAgentAnalyzer limitedFields = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withField("DeviceClass")
+            .withField("AgentName")
+            .build();
+
+        assertTrue(limitedFields.getLookups().size() < allFields.getLookups().size());
+        assertTrue(limitedFields.getLookupSets().size() < allFields.getLookupSets().size());
+
+        UserAgent parsedAgent = limitedFields.parse("Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+        assertEquals("Phone",  parsedAgent.getValue("DeviceClass"));
+        assertEquals("Chrome", parsedAgent.getValue("AgentName"));
+    }
+
+    @Test
+    void testDeriveWithFields() {
+        UserAgentAnalyzer allFields = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withCache(1234)
+            .build();
+
+        UserAgentAnalyzer derived = allFields.deriveWithFields(Arrays.asList("DeviceClass", "AgentNameVersionMajor"));
+        assertEquals(1234, derived.getCacheSize());
+        assertTrue(derived.getLookups().size() < allFields.getLookups().size());
+        runTestCase(derived);
+
+        // The original must still work as before
+        assertEquals("Google", allFields.parse("Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36").getValue("DeviceBrand"));
+
+        // A subset of a subset is fine.
+        UserAgentAnalyzer derivedAgain = derived.deriveWithFields(Arrays.asList("DeviceClass", "AgentNameVersionMajor"));
+        runTestCase(derivedAgain);
+
+        // Fields that were never loaded cannot be derived.
+        assertThrows(InvalidParserConfigurationException.class, () ->
+            derived.deriveWithFields(Arrays.asList("DeviceClass", "OperatingSystemName")));
+    }
+
+    @Test
+    void testDeriveWithFieldsKeepsSettings() throws IllegalAccessException {
+        UserAgentAnalyzer parent = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withValueDictionary(500)
+            .immediateInitialization()
+            .compileMatchersOnDemand()
+            .preheat(10)
+            .build();
+
+        UserAgentAnalyzer derived = parent.deriveWithFields(Arrays.asList("DeviceClass", "AgentNameVersionMajor"));
+        assertEquals(500, derived.getValueDictionarySize());
+        assertEquals(Boolean.FALSE, FieldUtils.readField(derived, "delayInitialization", true));
+        assertEquals(Boolean.TRUE,  FieldUtils.readField(derived, "compileMatchersOnDemand", true));
+        assertTrue(derived.getBuildReport().getPhase(AnalyzerBuildReport.Phase.PREHEAT).getCount() > 0);
+        runTestCase(derived);
+    }
+
+    @Test
+    void testBuildReport() {
+        UserAgentAnalyzer userAgentAnalyzer = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .preheat(100)
+            .build();
+
+        AnalyzerBuildReport report = userAgentAnalyzer.getBuildReport();
+        LoggerFactory.getLogger(TestBuilder.class).info("Build report:\n{}", report);
+
+        for (AnalyzerBuildReport.PhaseStats phase : report.getPhases()) {
+            assertTrue(phase.getCount() > 0, "Phase " + phase.getPhase() + " was not recorded");
+            assertTrue(phase.getNanos() > 0, "Phase " + phase.getPhase() + " has no time");
+        }
+
+        List<AnalyzerBuildReport.ItemStats> ruleFiles = report.getBiggestRuleFiles(5);
+        assertEquals(5, ruleFiles.size());
+        assertTrue(ruleFiles.get(0).getEntries() > 0);
+
+        List<AnalyzerBuildReport.ItemStats> lookups = report.getBiggestLookups(5);
+        assertEquals(5, lookups.size());
+        assertTrue(lookups.get(0).getBytes() >= lookups.get(1).getBytes());
+    }
+
     @Test
     void testLoadAdditionalRules() {
         UserAgentAnalyzer userAgentAnalyzer =
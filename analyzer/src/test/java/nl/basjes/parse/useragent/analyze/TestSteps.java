@@ -55,6 +55,7 @@ import org.junit.jupiter.api.Test;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
@@ -113,6 +114,27 @@ class TestSteps {
         assertEquals("Foo", step.walk(null, "Foo").getValue());
     }
 
+    @Test
+    void testStepsWithTurkishDefaultLocale() {
+        // In Turkish the lowercase of 'I' is the dotless '\u0131' so the default locale must never be used.
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            Map<String, String> turkishLookup = new HashMap<>();
+            turkishLookup.put("WINDOWS", "Found");
+
+            assertEquals("windows",       new StepEquals("WINDOWS").walk(null, "windows").getValue());
+            assertNull(new StepNotEquals("WINDOWS").walk(null, "windows"));
+            assertEquals("windows 10",    new StepStartsWith("WIN").walk(null, "windows 10").getValue());
+            assertEquals("msie",          new StepEndsWith("IE").walk(null, "msie").getValue());
+            assertEquals("my windows 10", new StepContains("WINDOWS").walk(null, "my windows 10").getValue());
+            assertEquals("Found",         new StepLookup("Turkish", turkishLookup, null).walk(null, "Windows").getValue());
+            assertEquals("Found",         new StepLookup("Turkish", turkishLookup, null).walk(null, "WINDOWS").getValue());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
     @Test
     void testStepIsInSet() {
         Step step = new StepIsInSet("MySet", set);
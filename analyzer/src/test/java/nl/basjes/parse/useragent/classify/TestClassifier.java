@@ -17,6 +17,8 @@
 
 package nl.basjes.parse.useragent.classify;
 
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
 import org.junit.jupiter.api.Test;
 
@@ -72,6 +74,7 @@ class TestClassifier {
         MutableUserAgent userAgent = new MutableUserAgent();
         userAgent.set(DEVICE_CLASS, deviceClass, 1);
         assertEquals(deviceClass, UserAgentClassifier.getDeviceClass(userAgent).getValue());
+        assertEquals(deviceClass, UserAgentClassifier.getDeviceClass(new ImmutableUserAgent(userAgent)).getValue());
     }
 
 
@@ -102,6 +105,20 @@ class TestClassifier {
         MutableUserAgent userAgent = new MutableUserAgent();
 
         userAgent.set(DEVICE_CLASS, deviceClass.getValue(), 1);
+        verifyDeviceClass(userAgent, deviceClass, human, mobile, normal, misuse);
+
+        // The ImmutableUserAgent has all of these precomputed.
+        ImmutableUserAgent immutableUserAgent = new ImmutableUserAgent(userAgent);
+        verifyDeviceClass(immutableUserAgent, deviceClass, human, mobile, normal, misuse);
+        assertEquals(deviceClass, immutableUserAgent.getDeviceClass());
+        assertEquals(human,       immutableUserAgent.isHuman());
+        assertEquals(mobile,      immutableUserAgent.isMobile());
+        assertEquals(normal,      immutableUserAgent.isNormalConsumerDevice());
+        assertEquals(misuse,      immutableUserAgent.isDeliberateMisuse());
+    }
+
+    private void verifyDeviceClass(UserAgent userAgent, DeviceClass deviceClass, boolean human, boolean mobile, boolean normal, boolean misuse) {
+        assertEquals(deviceClass, UserAgentClassifier.getDeviceClass(userAgent));
         assertEquals(human, isHuman(userAgent),
             "For the DeviceClass " + deviceClass.toString() + " the isHuman() was incorrect.");
         assertEquals(mobile, isMobile(userAgent),
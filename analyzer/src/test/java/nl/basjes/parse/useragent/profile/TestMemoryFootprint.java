@@ -17,12 +17,23 @@
 
 package nl.basjes.parse.useragent.profile;
 
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.utils.DoubleArrayPrefixTrie;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -233,7 +244,133 @@ class TestMemoryFootprint {
 
     }
 
+    private static final int PREFIX_LOOKUP_COPIES = 1000;
+
+    private long getStableMemoryUsageAfterGC() {
+        long memory = getMemoryUsageAfterGC();
+        for (int i = 0; i < 5; i++) {
+            memory = Math.min(memory, getMemoryUsageAfterGC());
+        }
+        return memory;
+    }
+
+    @Disabled
+    @Test
+    void compareMemoryOfPrefixLookups() { //NOSONAR: Do not complain about ignored performance test
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .delayInitialization()
+            .build();
+
+        for (String lookupName : Arrays.asList("MobileBrandPrefixes", "MobileBrands", "WindowsDesktopOSName")) {
+            Map<String, String> lookup = uaa.getLookups().get(lookupName);
+            List<String> keys = new ArrayList<>(lookup.keySet());
+
+            List<Object> keepAlive = new ArrayList<>(PREFIX_LOOKUP_COPIES);
+            long before = getStableMemoryUsageAfterGC();
+            for (int i = 0; i < PREFIX_LOOKUP_COPIES; i++) {
+                StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+                prefixMap.putAll(lookup);
+                keepAlive.add(prefixMap);
+            }
+            long prefixMapBytes = (getStableMemoryUsageAfterGC() - before) / PREFIX_LOOKUP_COPIES;
+            keepAlive.clear();
+
+            before = getStableMemoryUsageAfterGC();
+            for (int i = 0; i < PREFIX_LOOKUP_COPIES; i++) {
+                keepAlive.add(new DoubleArrayPrefixTrie(keys));
+            }
+            long trieBytes = (getStableMemoryUsageAfterGC() - before) / PREFIX_LOOKUP_COPIES;
+            assertEquals(PREFIX_LOOKUP_COPIES, keepAlive.size());
+            keepAlive.clear();
+
+            LOG.info(String.format("Prefix lookup %-20s (%5d keys): StringPrefixMap %8d bytes, DoubleArrayPrefixTrie %8d bytes (%d slots).",
+                lookupName, keys.size(), prefixMapBytes, trieBytes, new DoubleArrayPrefixTrie(keys).size()));
+        }
+    }
+
+    private static final int SHARED_RESULT_INPUTS   = 200;
+    private static final int SHARED_RESULT_VARIANTS = 5;
+
+    // Each base useragent is retained in several variants that differ only in a tracking suffix,
+    // like many distinct useragents in a cache that all have the same results.
+    private static List<String> createVariants(List<String> baseInputs) {
+        List<String> variants = new ArrayList<>(baseInputs.size() * SHARED_RESULT_VARIANTS);
+        for (int variant = 0; variant < SHARED_RESULT_VARIANTS; variant++) {
+            for (String baseInput : baseInputs) {
+                variants.add(variant == 0 ? baseInput : baseInput + " TrackingId/" + (1000 + variant));
+            }
+        }
+        return variants;
+    }
 
+    private long getBytesPerResult(UserAgentAnalyzer uaa, List<String> warmupInputs, List<String> inputs) {
+        // Warm up so all internal structures of the analyzer have reached their final size.
+        warmupInputs.forEach(uaa::parse);
 
+        List<UserAgent> keepAlive = new ArrayList<>(inputs.size());
+        long before = getStableMemoryUsageAfterGC();
+        for (String input : inputs) {
+            keepAlive.add(uaa.parse(input));
+        }
+        long bytesPerResult = (getStableMemoryUsageAfterGC() - before) / keepAlive.size();
+        assertEquals(inputs.size(), keepAlive.size());
+        keepAlive.clear();
+        return bytesPerResult;
+    }
+
+    private static Map<String, String> withoutUseragent(UserAgent userAgent) {
+        Map<String, String> result = userAgent.toMap(userAgent.getAvailableFieldNamesSorted());
+        result.remove(UserAgent.USERAGENT_FIELDNAME);
+        return result;
+    }
+
+    @Disabled
+    @Test
+    void compareMemoryOfSharedResults() { //NOSONAR: Do not complain about ignored performance test
+        UserAgentAnalyzer uaa = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withoutCache()
+            .keepTests()
+            .immediateInitialization()
+            .build();
+
+        List<String> baseInputs = uaa.getTestCases()
+            .stream()
+            .map(testCase -> testCase.get("input").get("user_agent_string"))
+            .distinct()
+            .limit(SHARED_RESULT_INPUTS)
+            .collect(Collectors.toList());
+        List<String> inputs = createVariants(baseInputs);
+        assertEquals(inputs.size(), new HashSet<>(inputs).size(), "All inputs must be distinct");
+
+        // What the variants actually share: the number of distinct results (ignoring the Useragent field itself).
+        long distinctResults = inputs
+            .stream()
+            .map(uaa::parse)
+            .map(TestMemoryFootprint::withoutUseragent)
+            .distinct()
+            .count();
+        long distinctBaseResults = baseInputs
+            .stream()
+            .map(uaa::parse)
+            .map(TestMemoryFootprint::withoutUseragent)
+            .distinct()
+            .count();
+        LOG.info(String.format("%d distinct useragents (%d base useragents in %d variants) have %d distinct results (the base useragents alone have %d).",
+            inputs.size(), baseInputs.size(), SHARED_RESULT_VARIANTS, distinctResults, distinctBaseResults));
+
+        long sharedBytes = getBytesPerResult(uaa, baseInputs, inputs);
+
+        uaa.setValueDictionarySize(0);
+        long unsharedBytes = getBytesPerResult(uaa, baseInputs, inputs);
+
+        LOG.info(String.format("Retained memory per result: shared field values %6d bytes, unshared field values %6d bytes.",
+            sharedBytes, unsharedBytes));
+        assertTrue(distinctResults < inputs.size(), "The variants should have results in common");
+        assertTrue(sharedBytes < unsharedBytes, "Sharing the field values should reduce the retained memory");
+    }
 
 }
@@ -0,0 +1,115 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.serialization;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.UserAgentAnalyzerImage;
+import nl.basjes.parse.useragent.analyze.InvalidParserConfigurationException;
+import nl.basjes.parse.useragent.utils.YauaaVersion;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestUserAgentAnalyzerImage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestUserAgentAnalyzerImage.class);
+
+    private static final String USERAGENT =
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+        "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36";
+
+    @Test
+    void writeAndLoadImage(@TempDir Path tempDir) throws IOException {
+        long buildStart = System.nanoTime();
+        UserAgentAnalyzer before = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .immediateInitialization()
+            .build();
+        long buildStop = System.nanoTime();
+
+        Path image = tempDir.resolve("yauaa.image");
+        UserAgentAnalyzerImage.write(before, image);
+
+        long loadStart = System.nanoTime();
+        UserAgentAnalyzer after = UserAgentAnalyzerImage.load(image);
+        long loadStop = System.nanoTime();
+
+        LOG.info("Building from Yaml took {} msec, loading the image took {} msec",
+            (buildStop - buildStart) / 1000000, (loadStop - loadStart) / 1000000);
+
+        UserAgent expected = before.parse(USERAGENT);
+        UserAgent actual   = after.parse(USERAGENT);
+        assertEquals(expected.toYamlTestCase(), actual.toYamlTestCase());
+        assertEquals(before.toString(), after.toString());
+    }
+
+    @Test
+    void rejectNonImage(@TempDir Path tempDir) throws IOException {
+        Path notAnImage = tempDir.resolve("notAnImage.yaml");
+        Files.write(notAnImage, "config:\n- lookup:\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(InvalidParserConfigurationException.class, () -> UserAgentAnalyzerImage.load(notAnImage));
+    }
+
+    @Test
+    void rejectOtherVersion(@TempDir Path tempDir) throws IOException {
+        Path image = tempDir.resolve("otherVersion.image");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(image))) {
+            out.writeInt(0x59554149);
+            out.writeInt(1);
+            out.writeUTF("Yauaa 0.0 (dummy @ never)");
+        }
+        InvalidParserConfigurationException exception =
+            assertThrows(InvalidParserConfigurationException.class, () -> UserAgentAnalyzerImage.load(image));
+        LOG.info("Expected failure: {}", exception.getMessage());
+    }
+
+    @Test
+    void rejectForeignClasses(@TempDir Path tempDir) throws IOException {
+        Path image = tempDir.resolve("foreignClass.image");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(image))) {
+            out.writeInt(0x59554149);
+            out.writeInt(1);
+            out.writeUTF(YauaaVersion.getVersion());
+            out.flush();
+            try (ObjectOutputStream objects = new ObjectOutputStream(out)) {
+                objects.writeObject(new AtomicLong(42));
+            }
+        }
+        InvalidParserConfigurationException exception =
+            assertThrows(InvalidParserConfigurationException.class, () -> UserAgentAnalyzerImage.load(image));
+        assertTrue(exception.getCause() instanceof InvalidClassException);
+        LOG.info("Expected failure: {}", exception.getMessage());
+    }
+}
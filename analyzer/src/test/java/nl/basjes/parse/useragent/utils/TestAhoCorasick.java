@@ -0,0 +1,92 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestAhoCorasick {
+
+    private int bruteForce(List<String> patterns, String input) {
+        String lowerInput = input.toLowerCase();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (lowerInput.contains(patterns.get(i).toLowerCase())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    void testFirstInOrderWins() {
+        List<String> patterns = Arrays.asList("bot", "spider", "googlebot", "Crawl", "ot");
+        AhoCorasick ac = new AhoCorasick(patterns);
+        assertEquals(0,  ac.firstMatch("Mozilla/5.0 (compatible; Googlebot/2.1)"));
+        assertEquals(1,  ac.firstMatch("Some SPIDER"));
+        assertEquals(3,  ac.firstMatch("crawler"));
+        assertEquals(4,  ac.firstMatch("Foo OT"));
+        assertEquals(-1, ac.firstMatch("Mozilla/5.0 (Windows NT 10.0)"));
+        assertEquals(-1, ac.firstMatch(""));
+    }
+
+    @Test
+    void testEmptyAndNonAscii() {
+        assertEquals(-1, new AhoCorasick(Collections.emptyList()).firstMatch("Anything"));
+        assertEquals(1,  new AhoCorasick(Arrays.asList("Nothing", "")).firstMatch("Anything"));
+
+        AhoCorasick ac = new AhoCorasick(Arrays.asList("äöü", "kelvin"));
+        assertEquals(0, ac.firstMatch("xxÄÖÜxx"));
+        assertEquals(1, ac.firstMatch(new TextSlice("--Kelvin--", 2, 8)));
+    }
+
+    @Test
+    void testRandomAgainstBruteForce() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            List<String> patterns = new ArrayList<>();
+            int count = 1 + random.nextInt(30);
+            for (int i = 0; i < count; i++) {
+                patterns.add(randomString(random, 1 + random.nextInt(4)));
+            }
+            AhoCorasick ac = new AhoCorasick(patterns);
+            for (int i = 0; i < 50; i++) {
+                String input = randomString(random, random.nextInt(40));
+                assertEquals(bruteForce(patterns, input), ac.firstMatch(input), "Patterns " + patterns + " input " + input);
+            }
+        }
+    }
+
+    private String randomString(Random random, int length) {
+        // A small alphabet gives a lot of overlap between the patterns.
+        String alphabet = "abcABC";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestCaseInsensitive {
+
+    @Test
+    void testCompare() {
+        String source = "Mozilla/5.0 (Linux; Android 10)";
+        for (CharSequence text: new CharSequence[]{new TextSlice(source, 20, 30), "Android 10"}) {
+            assertTrue(CaseInsensitive.equalsIgnoreCase(text, "android 10"));
+            assertFalse(CaseInsensitive.equalsIgnoreCase(text, "android 1"));
+            assertFalse(CaseInsensitive.equalsIgnoreCase(text, "android 10)"));
+
+            assertTrue(CaseInsensitive.startsWithIgnoreCase(text, "andr"));
+            assertTrue(CaseInsensitive.startsWithIgnoreCase(text, ""));
+            assertFalse(CaseInsensitive.startsWithIgnoreCase(text, "ndro"));
+            assertFalse(CaseInsensitive.startsWithIgnoreCase(text, "android 10)"));
+
+            assertTrue(CaseInsensitive.endsWithIgnoreCase(text, "oid 10"));
+            assertFalse(CaseInsensitive.endsWithIgnoreCase(text, "oid 1"));
+            assertFalse(CaseInsensitive.endsWithIgnoreCase(text, "(android 10"));
+
+            assertTrue(CaseInsensitive.containsIgnoreCase(text, "roid"));
+            assertTrue(CaseInsensitive.containsIgnoreCase(text, " 10"));
+            assertFalse(CaseInsensitive.containsIgnoreCase(text, "linux"));
+            assertFalse(CaseInsensitive.containsIgnoreCase(text, "10)"));
+        }
+    }
+
+    @Test
+    void testCompareNonAscii() {
+        assertTrue(CaseInsensitive.equalsIgnoreCase("ÄÖÜ", "äöü"));
+        assertTrue(CaseInsensitive.startsWithIgnoreCase("ÄÖÜ Foo", "äö"));
+        assertTrue(CaseInsensitive.endsWithIgnoreCase("Foo ÄÖÜ", "öü"));
+        assertTrue(CaseInsensitive.containsIgnoreCase("Foo ÄÖÜ Bar", "öü b"));
+        // The Kelvin sign lowercases to an ASCII 'k'
+        assertTrue(CaseInsensitive.equalsIgnoreCase("Kelvin", "kelvin"));
+        assertFalse(CaseInsensitive.equalsIgnoreCase("Kelvin", "Kelvin"));
+    }
+
+    @Test
+    void testMap() {
+        Map<String, String> input = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            input.put("Key" + i, "Value" + i);
+        }
+        input.put("ÄÖÜ", "Umlaut");
+
+        CaseInsensitiveMap<String> map = new CaseInsensitiveMap<>(input);
+        assertEquals(1001, map.size());
+        assertSame(map, CaseInsensitiveMap.of(map));
+
+        assertEquals("Value42", map.get("key42"));
+        assertEquals("Value42", map.get("KEY42"));
+        assertEquals("Value42", map.get(new TextSlice("xxKeY42xx", 2, 7)));
+        assertEquals("Umlaut",  map.get("äöü"));
+        assertEquals("Umlaut",  map.get(new TextSlice("-äÖü-", 1, 4)));
+        assertNull(map.get("Key1000"));
+        assertNull(map.get(42));
+        assertTrue(map.containsKey("KEY999"));
+        assertFalse(map.containsKey("KEY9999"));
+
+        // Insertion order and lowercase keys
+        assertEquals("key0", map.keySet().iterator().next());
+        assertEquals(new ArrayList<>(input.values()), new ArrayList<>(map.values()));
+
+        assertEquals("Value1", map.put("KEY1", "Other"));
+        assertEquals("Other", map.get("key1"));
+        assertEquals(1001, map.size());
+
+        map.entrySet().iterator().next().setValue("First");
+        assertEquals("First", map.get("Key0"));
+
+        assertThrows(NullPointerException.class, () -> map.put(null, "Null"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get("key1"));
+    }
+
+    @Test
+    void testMapGrows() {
+        // Starting far too small must still give a correct map.
+        CaseInsensitiveMap<Integer> map = new CaseInsensitiveMap<>(1);
+        for (int i = 0; i < 10000; i++) {
+            assertNull(map.put("Key" + i, i));
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get("KEY" + i));
+        }
+
+        // Still in insertion order
+        int expected = 0;
+        for (Integer value : map.values()) {
+            assertEquals(expected++, value);
+        }
+    }
+
+    @Test
+    void testSet() {
+        CaseInsensitiveSet set = new CaseInsensitiveSet(Arrays.asList("One", "TWO", "three"));
+        assertTrue(set.contains("one"));
+        assertTrue(set.contains("Two"));
+        assertTrue(set.contains(new TextSlice("-THREE-", 1, 6)));
+        assertFalse(set.contains("four"));
+        assertFalse(set.add("ONE"));
+        assertTrue(set.add("Four"));
+        assertEquals(Arrays.asList("one", "two", "three", "four"), new ArrayList<>(set));
+        assertSame(set, CaseInsensitiveSet.of(set));
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.StreamUtils;
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TestCompiledYaml {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TestCompiledYaml.class);
+
+    private void assertSameNode(Node expected, Node actual) {
+        assertEquals(expected.getNodeId(),              actual.getNodeId());
+        assertEquals(expected.getStartMark().getLine(), actual.getStartMark().getLine());
+        switch (expected.getNodeId()) {
+            case scalar:
+                assertEquals(expected.getTag(),                  actual.getTag());
+                assertEquals(((ScalarNode) expected).getValue(), ((ScalarNode) actual).getValue());
+                break;
+            case sequence:
+                List<Node> expectedChildren = ((SequenceNode) expected).getValue();
+                List<Node> actualChildren   = ((SequenceNode) actual).getValue();
+                assertEquals(expectedChildren.size(), actualChildren.size());
+                for (int i = 0; i < expectedChildren.size(); i++) {
+                    assertSameNode(expectedChildren.get(i), actualChildren.get(i));
+                }
+                break;
+            default:
+                List<NodeTuple> expectedTuples = ((MappingNode) expected).getValue();
+                List<NodeTuple> actualTuples   = ((MappingNode) actual).getValue();
+                assertEquals(expectedTuples.size(), actualTuples.size());
+                for (int i = 0; i < expectedTuples.size(); i++) {
+                    assertSameNode(expectedTuples.get(i).getKeyNode(),   actualTuples.get(i).getKeyNode());
+                    assertSameNode(expectedTuples.get(i).getValueNode(), actualTuples.get(i).getValueNode());
+                }
+                break;
+        }
+    }
+
+    @Test
+    void compileAllBundledRules() throws IOException {
+        List<byte[]> allYaml = new ArrayList<>();
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources("classpath*:UserAgents/**/*.yaml")) {
+            try (InputStream in = resource.getInputStream()) {
+                allYaml.add(StreamUtils.copyToByteArray(in));
+            }
+        }
+
+        List<byte[]> allCompiled = new ArrayList<>();
+        for (byte[] yaml : allYaml) {
+            ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+            CompiledYaml.write(yaml, compiled);
+            allCompiled.add(compiled.toByteArray());
+        }
+
+        long yamlStart = System.nanoTime();
+        List<Node> fromYaml = new ArrayList<>();
+        for (byte[] yaml : allYaml) {
+            fromYaml.add(YamlUtils.createYaml().compose(new UnicodeReader(new ByteArrayInputStream(yaml))));
+        }
+        long yamlStop = System.nanoTime();
+
+        List<Node> fromCompiled = new ArrayList<>();
+        for (int i = 0; i < allYaml.size(); i++) {
+            fromCompiled.add(CompiledYaml.read(new ByteArrayInputStream(allCompiled.get(i)), allYaml.get(i), "Test.yaml"));
+        }
+        long compiledStop = System.nanoTime();
+
+        LOG.info("Reading {} rule files: Yaml took {} msec, compiled took {} msec",
+            allYaml.size(), (yamlStop - yamlStart) / 1000000, (compiledStop - yamlStop) / 1000000);
+
+        for (int i = 0; i < allYaml.size(); i++) {
+            if (fromYaml.get(i) == null) {
+                assertNull(fromCompiled.get(i));
+            } else {
+                assertNotNull(fromCompiled.get(i));
+                assertSameNode(fromYaml.get(i), fromCompiled.get(i));
+            }
+        }
+    }
+
+    @Test
+    void ignoreOutdatedCompiledForm() throws IOException {
+        byte[] yaml = "config:\n- lookup:\n    name: 'Foo'\n    map:\n      'a': 'b'\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        CompiledYaml.write(yaml, compiled);
+
+        byte[] changedYaml = "config:\n- lookup:\n    name: 'Foo'\n    map:\n      'a': 'c'\n".getBytes(StandardCharsets.UTF_8);
+        assertNotNull(CompiledYaml.read(new ByteArrayInputStream(compiled.toByteArray()), yaml, "Foo.yaml"));
+        assertNull(CompiledYaml.read(new ByteArrayInputStream(compiled.toByteArray()), changedYaml, "Foo.yaml"));
+    }
+}
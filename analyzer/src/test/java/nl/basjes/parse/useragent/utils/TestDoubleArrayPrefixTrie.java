@@ -0,0 +1,86 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import nl.basjes.collections.prefixmap.StringPrefixMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestDoubleArrayPrefixTrie {
+
+    @Test
+    void testLongestPrefix() {
+        List<String> keys = Arrays.asList("SM-", "SM-G", "SM-G9", "GT-", "Lenovo", "ÄÖ");
+        DoubleArrayPrefixTrie trie = new DoubleArrayPrefixTrie(keys);
+        assertEquals(2,  trie.longestPrefixIndex("SM-G930F"));
+        assertEquals(1,  trie.longestPrefixIndex("sm-g800"));
+        assertEquals(0,  trie.longestPrefixIndex("Sm-A500"));
+        assertEquals(3,  trie.longestPrefixIndex(new TextSlice("(GT-I9300)", 1, 9)));
+        assertEquals(4,  trie.longestPrefixIndex("LENOVO K3"));
+        assertEquals(5,  trie.longestPrefixIndex("äöü"));
+        assertEquals(-1, trie.longestPrefixIndex("SM"));
+        assertEquals(-1, trie.longestPrefixIndex("Nokia"));
+        assertEquals(-1, trie.longestPrefixIndex(""));
+    }
+
+    @Test
+    void testSameAsStringPrefixMap() {
+        Random random = new Random(42);
+        String alphabet = "abcdeABCDE-0123";
+        for (int round = 0; round < 100; round++) {
+            Map<String, String> lookup = new LinkedHashMap<>();
+            int count = 1 + random.nextInt(100);
+            for (int i = 0; i < count; i++) {
+                String key = randomString(random, alphabet, 1 + random.nextInt(6)).toLowerCase();
+                lookup.putIfAbsent(key, "Value " + key);
+            }
+
+            StringPrefixMap<String> prefixMap = new StringPrefixMap<>(false);
+            prefixMap.putAll(lookup);
+            CaseInsensitiveMap<String> map = new CaseInsensitiveMap<>(lookup);
+            List<String> keys = new ArrayList<>(map.keySet());
+            DoubleArrayPrefixTrie trie = new DoubleArrayPrefixTrie(keys);
+
+            for (int i = 0; i < 100; i++) {
+                String input = randomString(random, alphabet, random.nextInt(10));
+                String expected = prefixMap.getLongestMatch(input);
+                assertEquals(expected, map.getLongestPrefixOf(input), "Input: " + input);
+                int index = trie.longestPrefixIndex(input);
+                assertEquals(expected, index < 0 ? null : lookup.get(keys.get(index)), "Input: " + input);
+            }
+        }
+    }
+
+    private String randomString(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+}
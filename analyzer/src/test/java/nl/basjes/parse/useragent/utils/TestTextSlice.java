@@ -0,0 +1,72 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.parse.useragent.utils;
+
+import nl.basjes.parse.useragent.parser.UserAgentLexer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestTextSlice {
+
+    @Test
+    void testSlice() {
+        TextSlice slice = new TextSlice("Mozilla/5.0 (Linux; Android 10)", 13, 18);
+        assertEquals(5, slice.length());
+        assertEquals('L', slice.charAt(0));
+        assertEquals("Linux", slice.toString());
+        assertEquals("inu", slice.subSequence(1, 4).toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.charAt(5));
+        assertThrows(IndexOutOfBoundsException.class, () -> slice.subSequence(2, 6));
+        assertThrows(IndexOutOfBoundsException.class, () -> new TextSlice("Foo", 2, 4));
+    }
+
+    private void assertSameTokens(String input) {
+        CharStream charStream = StringCharStream.fromString(input);
+        List<? extends Token> expected = new UserAgentLexer(CharStreams.fromString(input)).getAllTokens();
+        List<? extends Token> actual   = new UserAgentLexer(charStream).getAllTokens();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getType(),       actual.get(i).getType());
+            assertEquals(expected.get(i).getText(),       actual.get(i).getText());
+            assertEquals(expected.get(i).getStartIndex(), actual.get(i).getStartIndex());
+        }
+    }
+
+    @Test
+    void testStringCharStream() {
+        String plain = "Mozilla/5.0 (Linux; Android 10; ÄÖÜ) Chrome/80.0";
+        assertTrue(StringCharStream.fromString(plain) instanceof StringCharStream);
+        assertSameTokens(plain);
+
+        // Surrogate pairs must use the normal ANTLR code point stream.
+        String emoji = "Mozilla/5.0 (😀) Chrome/80.0";
+        assertFalse(StringCharStream.fromString(emoji) instanceof StringCharStream);
+        assertSameTokens(emoji);
+    }
+
+}
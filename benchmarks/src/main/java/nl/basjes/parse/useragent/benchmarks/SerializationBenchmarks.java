@@ -0,0 +1,136 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.parse.useragent.benchmarks;
+
+import nl.basjes.parse.useragent.ImmutableUserAgentCodec;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the size and speed of the Java serialization of an ImmutableUserAgent with the ImmutableUserAgentCodec.
+ */
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmarks {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SerializationBenchmarks.class);
+
+    @State(Scope.Benchmark)
+    public static class ThreadState {
+        final ImmutableUserAgent      userAgent;
+        final ImmutableUserAgentCodec codec;
+        final ImmutableUserAgentCodec dictionaryCodec;
+        final byte[]                  javaBytes;
+        final byte[]                  codecBytes;
+        final byte[]                  dictionaryCodecBytes;
+
+        public ThreadState() {
+            UserAgentAnalyzer uaa = UserAgentAnalyzer.newBuilder()
+                .withoutCache()
+                .hideMatcherLoadStats()
+                .build();
+            userAgent = uaa.parse("Mozilla/5.0 (Linux; Android 6.0; Nexus 6 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) " +
+                "Chrome/46.0.2490.76 Mobile Safari/537.36");
+            codec = new ImmutableUserAgentCodec();
+            dictionaryCodec = new ImmutableUserAgentCodec(uaa.getAllPossibleFieldNamesSorted());
+
+            try {
+                javaBytes = javaSerialize(userAgent);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            codecBytes = codec.encode(userAgent);
+            dictionaryCodecBytes = dictionaryCodec.encode(userAgent);
+            LOG.info("Serialized size: Java = {} bytes, Codec = {} bytes, Codec with all field names = {} bytes",
+                javaBytes.length, codecBytes.length, dictionaryCodecBytes.length);
+        }
+    }
+
+    private static byte[] javaSerialize(ImmutableUserAgent userAgent) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(userAgent);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] javaSerialize(ThreadState state) throws IOException {
+        return javaSerialize(state.userAgent);
+    }
+
+    @Benchmark
+    public Object javaDeserialize(ThreadState state) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state.javaBytes))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] codecEncode(ThreadState state) {
+        return state.codec.encode(state.userAgent);
+    }
+
+    @Benchmark
+    public ImmutableUserAgent codecDecode(ThreadState state) throws IOException {
+        return state.codec.decode(state.codecBytes);
+    }
+
+    @Benchmark
+    public byte[] dictionaryCodecEncode(ThreadState state) {
+        return state.dictionaryCodec.encode(state.userAgent);
+    }
+
+    @Benchmark
+    public ImmutableUserAgent dictionaryCodecDecode(ThreadState state) throws IOException {
+        return state.dictionaryCodec.decode(state.dictionaryCodecBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+            .include(SerializationBenchmarks.class.getSimpleName())
+            .build();
+
+        new Runner(opt).run();
+    }
+}
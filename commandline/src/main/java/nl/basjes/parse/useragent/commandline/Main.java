@@ -19,6 +19,7 @@ package nl.basjes.parse.useragent.commandline;
 
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgent.MutableUserAgent;
+import nl.basjes.parse.useragent.UserAgentWriter;
 import nl.basjes.parse.useragent.analyze.MatchesList.Match;
 import nl.basjes.parse.useragent.debug.FlattenPrinter;
 import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
@@ -34,6 +35,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
@@ -71,7 +73,8 @@ public final class Main {
         }
     }
 
-    private static void printAgent(OutputFormat outputFormat, List<String> fields, UserAgent agent) {
+    private static void printAgent(OutputFormat outputFormat, List<String> fields, UserAgentWriter writer, UserAgent agent)
+        throws IOException {
         switch (outputFormat) {
             case CSV:
                 boolean doSeparator = false;
@@ -89,10 +92,12 @@ public final class Main {
                 System.out.println();
                 break;
             case JSON:
-                System.out.println(agent.toJson(fields));
+                writer.writeJson(agent, (Appendable) System.out);
+                System.out.println();
                 break;
             case YAML:
-                System.out.println(agent.toYamlTestCase());
+                agent.writeYamlTestCase(System.out, false, null);
+                System.out.println();
                 break;
             default:
         }
@@ -164,10 +169,12 @@ public final class Main {
                 fields = commandlineOptions.fields;
             }
             printHeader(outputFormat, fields);
+            // The escaped field names are prepared only once.
+            UserAgentWriter writer = new UserAgentWriter(fields);
 
             if (commandlineOptions.useragent != null) {
                 UserAgent agent = uaa.parse(commandlineOptions.useragent);
-                printAgent(outputFormat, fields, agent);
+                printAgent(outputFormat, fields, writer, agent);
                 return;
             }
 
@@ -278,7 +285,7 @@ public final class Main {
                         }
                     }
 
-                    printAgent(outputFormat, fields, agent);
+                    printAgent(outputFormat, fields, writer, agent);
                 }
 
                 long stop = System.nanoTime();
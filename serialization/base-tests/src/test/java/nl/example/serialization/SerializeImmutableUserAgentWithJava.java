@@ -0,0 +1,72 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.example.serialization;
+
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SerializeImmutableUserAgentWithJava {
+
+    private final UserAgentAnalyzer uaa = UserAgentAnalyzer
+        .newBuilder()
+        .withField("DeviceClass")
+        .withField("AgentNameVersion")
+        .hideMatcherLoadStats()
+        .build();
+
+    private final ImmutableUserAgent userAgent = uaa.parse(
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+        "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+
+    byte[] serialize(ImmutableUserAgent immutableUserAgent) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
+            ObjectOutput out = new ObjectOutputStream(bos);
+            out.writeObject(immutableUserAgent);
+            out.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    ImmutableUserAgent deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+
+        try (ObjectInput in = new ObjectInputStream(bis)) {
+            Object o = in.readObject();
+            assertTrue(o instanceof ImmutableUserAgent);
+            return (ImmutableUserAgent) o;
+        }
+    }
+
+    public void roundTrip() throws IOException, ClassNotFoundException {
+        ImmutableUserAgent result = deserialize(serialize(userAgent));
+        assertEquals(userAgent, result);
+        assertEquals("Phone", result.getValue("DeviceClass"));
+        assertEquals("Chrome 53.0.2785.124", result.getValue("AgentNameVersion"));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.example.serialization;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import nl.basjes.parse.useragent.ImmutableUserAgentCodec;
+import nl.basjes.parse.useragent.UserAgent.ImmutableUserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SerializeImmutableUserAgentWithKryo {
+
+    private final UserAgentAnalyzer uaa = UserAgentAnalyzer
+        .newBuilder()
+        .withField("DeviceClass")
+        .withField("AgentNameVersion")
+        .hideMatcherLoadStats()
+        .build();
+
+    private final ImmutableUserAgent userAgent = uaa.parse(
+        "Mozilla/5.0 (Linux; Android 7.0; Nexus 6 Build/NBD90Z) " +
+        "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/53.0.2785.124 Mobile Safari/537.36");
+
+    private Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        UserAgentAnalyzer.configureKryo(kryo);
+        kryo.setRegistrationRequired(true);
+        return kryo;
+    }
+
+    private void roundTrip(Kryo kryo) {
+        Output output = new Output(1024, -1);
+        kryo.writeClassAndObject(output, userAgent);
+        kryo.writeObject(output, userAgent);
+
+        Input input = new Input(output.toBytes());
+        ImmutableUserAgent first  = (ImmutableUserAgent) kryo.readClassAndObject(input);
+        ImmutableUserAgent second = kryo.readObject(input, ImmutableUserAgent.class);
+        assertEquals(userAgent, first);
+        assertEquals(userAgent, second);
+        assertEquals("Phone", first.getValue("DeviceClass"));
+        assertEquals("Chrome 53.0.2785.124", second.getValue("AgentNameVersion"));
+    }
+
+    public void roundTripRegistered() {
+        roundTrip(createKryo());
+    }
+
+    public void roundTripWithDictionary() {
+        Kryo kryo = createKryo();
+        kryo.register(ImmutableUserAgent.class,
+            new ImmutableUserAgent.KryoSerializer(new ImmutableUserAgentCodec(uaa.getAllPossibleFieldNamesSorted())));
+        roundTrip(kryo);
+    }
+}
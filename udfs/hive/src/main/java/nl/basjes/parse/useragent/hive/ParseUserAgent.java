@@ -17,7 +17,7 @@
 
 package nl.basjes.parse.useragent.hive;
 
-import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.FieldRegistry;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import org.apache.hadoop.hive.ql.exec.Description;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
@@ -72,6 +72,9 @@ public class ParseUserAgent extends GenericUDF {
     private StringObjectInspector useragentOI = null;
     private UserAgentAnalyzer userAgentAnalyzer = null;
     private List<String> fieldNames = null;
+    private int[] fieldOrdinals = null;         // The ordinals of the fields any rule can produce
+    private int[] outputPositions = null;       // The output position of each of these fieldOrdinals
+    private Text[] unknownFieldValues = null;   // By output position: the fixed value of a field no rule can produce
 
     @Override
     public ObjectInspector initialize(ObjectInspector[] args) throws UDFArgumentException {
@@ -99,6 +102,23 @@ public class ParseUserAgent extends GenericUDF {
 
         fieldNames = userAgentAnalyzer.getAllPossibleFieldNamesSorted();
 
+        List<Integer> knownOrdinals = new ArrayList<>(fieldNames.size());
+        List<Integer> knownPositions = new ArrayList<>(fieldNames.size());
+        unknownFieldValues = new Text[fieldNames.size()];
+        for (int position = 0; position < fieldNames.size(); position++) {
+            String fieldName = fieldNames.get(position);
+            int ordinal = FieldRegistry.findOrdinal(fieldName);
+            if (ordinal < 0) {
+                // No rule can ever produce this field so it always has the default value.
+                unknownFieldValues[position] = new Text(FieldRegistry.defaultValueFor(fieldName));
+            } else {
+                knownOrdinals.add(ordinal);
+                knownPositions.add(position);
+            }
+        }
+        fieldOrdinals = knownOrdinals.stream().mapToInt(Integer::intValue).toArray();
+        outputPositions = knownPositions.stream().mapToInt(Integer::intValue).toArray();
+
         // ================================
         // Define the output
         // https://stackoverflow.com/questions/26026027/how-to-return-struct-from-hive-udf
@@ -120,17 +140,18 @@ public class ParseUserAgent extends GenericUDF {
             return null;
         }
 
-        UserAgent userAgent = userAgentAnalyzer.parse(userAgentString);
-        List<Object> result = new ArrayList<>(fieldNames.size());
-        for (String fieldName : fieldNames) {
-            String value = userAgent.getValue(fieldName);
-            if (value == null) {
-                result.add(null);
-            } else {
-                result.add(new Text(value));
+        // The values (also the default values of this result) are directly copied
+        // from the analyzer without an intermediate UserAgent instance.
+        Object[] result = new Object[unknownFieldValues.length];
+        for (int position = 0; position < unknownFieldValues.length; position++) {
+            if (unknownFieldValues[position] != null) {
+                result[position] = new Text(unknownFieldValues[position]);
             }
         }
-        return result.toArray();
+        int[] index = {0};
+        userAgentAnalyzer.parse(userAgentString, fieldOrdinals, (ordinal, value, confidence) ->
+            result[outputPositions[index[0]++]] = value == null ? null : new Text(value));
+        return result;
     }
 
     @Override
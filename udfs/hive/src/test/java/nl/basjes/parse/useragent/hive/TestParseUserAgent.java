@@ -17,6 +17,8 @@
 
 package nl.basjes.parse.useragent.hive;
 
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredJavaObject;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDF.DeferredObject;
@@ -52,6 +54,38 @@ public class TestParseUserAgent {
         }
     }
 
+    @Test
+    public void testSameAsUserAgent() throws HiveException {
+        ParseUserAgent parseUserAgent = new ParseUserAgent();
+
+        StandardStructObjectInspector resultInspector = (StandardStructObjectInspector) parseUserAgent
+            .initialize(new ObjectInspector[]{
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector
+            });
+
+        UserAgentAnalyzer userAgentAnalyzer = UserAgentAnalyzer
+            .newBuilder()
+            .hideMatcherLoadStats()
+            .withoutCache()
+            .build();
+
+        String[] userAgents = {
+            "Mozilla/5.0 (Linux; Android 5.1.1; KFFOWI Build/LMY47O) AppleWebKit/537.36 (KHTML, like Gecko) " +
+                "Version/4.0 Chrome/41.51020.2250.0246 Mobile Safari/537.36 cordova-amazon-fireos/3.4.0 AmazonWebAppPlatform/3.4.0;2.0",
+            "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/59.0.3071.115 Safari/537.36",
+            "FDM 3.x",
+            "",
+        };
+
+        for (String userAgent : userAgents) {
+            Object row = parseUserAgent.evaluate(new DeferredObject[]{new DeferredJavaObject(userAgent)});
+            UserAgent expected = userAgentAnalyzer.parse(userAgent);
+            for (String fieldName : userAgentAnalyzer.getAllPossibleFieldNamesSorted()) {
+                checkField(resultInspector, row, fieldName, expected.getValue(fieldName));
+            }
+        }
+    }
+
     private void checkField(StandardStructObjectInspector resultInspector, Object row, String fieldName, String expectedValue) {
         final Object result = resultInspector.getStructFieldData(row, resultInspector.getStructFieldRef(fieldName));
 
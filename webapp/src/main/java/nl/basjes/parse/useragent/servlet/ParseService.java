@@ -24,8 +24,10 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import io.swagger.annotations.Example;
 import io.swagger.annotations.ExampleProperty;
+import nl.basjes.parse.useragent.ReloadableUserAgentAnalyzer;
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import nl.basjes.parse.useragent.UserAgentWriter;
 import nl.basjes.parse.useragent.Version;
 import nl.basjes.parse.useragent.debug.UserAgentAnalyzerTester;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -33,6 +35,7 @@ import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.HttpHeaders;
@@ -53,7 +56,10 @@ import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExcep
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -61,6 +67,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static nl.basjes.parse.useragent.debug.AbstractUserAgentAnalyzerTester.runTests;
 import static nl.basjes.parse.useragent.utils.YauaaVersion.getVersion;
 import static org.apache.commons.text.StringEscapeUtils.escapeHtml4;
@@ -82,7 +89,12 @@ public class ParseService {
 
     private static ParseService instance = null;
 
-    private              UserAgentAnalyzer userAgentAnalyzer               = null;
+    private              ReloadableUserAgentAnalyzer userAgentAnalyzer     = null;
+    // Reloading is an expensive operation so it must be explicitly enabled (and protected!).
+    @Value("${yauaa.reload.enabled:false}")
+    private              boolean           reloadEnabled                   = false;
+    // Writes the useragent and all available fields; the escaped field names are reused for all requests.
+    private static final UserAgentWriter   USER_AGENT_WRITER               = new UserAgentWriter();
     private              long              initStartMoment;
     private              boolean           userAgentAnalyzerIsAvailable    = false;
     private              String            userAgentAnalyzerFailureMessage = null;
@@ -194,12 +206,7 @@ public class ParseService {
             initStartMoment = System.currentTimeMillis();
             new Thread(() -> {
                 try {
-                    userAgentAnalyzer = UserAgentAnalyzer.newBuilder()
-                        .hideMatcherLoadStats()
-                        .addOptionalResources("file:UserAgents*/*.yaml")
-                        .immediateInitialization()
-                        .keepTests()
-                        .build();
+                    userAgentAnalyzer = new ReloadableUserAgentAnalyzer(ParseService::buildAnalyzer);
                     userAgentAnalyzerIsAvailable = true;
                 } catch (Exception e) {
                     userAgentAnalyzerFailureMessage =
@@ -215,10 +222,19 @@ public class ParseService {
         }
     }
 
+    private static UserAgentAnalyzer buildAnalyzer() {
+        return UserAgentAnalyzer.newBuilder()
+            .hideMatcherLoadStats()
+            .addOptionalResources("file:UserAgents*/*.yaml")
+            .immediateInitialization()
+            .keepTests()
+            .build();
+    }
+
     @PreDestroy
     public void preDestroy() {
         if (userAgentAnalyzer != null) {
-            UserAgentAnalyzer uaa = userAgentAnalyzer;
+            ReloadableUserAgentAnalyzer uaa = userAgentAnalyzer;
             // First we disable it for all uses.
             userAgentAnalyzer = null;
             userAgentAnalyzerIsAvailable = false;
@@ -247,6 +263,12 @@ public class ParseService {
         }
     }
 
+    public static class YauaaReloadFailed extends RuntimeException {
+        public YauaaReloadFailed(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     private void ensureStartedForApis(OutputType outputType) {
         if (!userAgentAnalyzerIsAvailable) {
             throw new YauaaIsBusyStarting(outputType);
@@ -325,6 +347,14 @@ public class ParseService {
             return new ResponseEntity<>(ex.getMessage(), httpHeaders, INTERNAL_SERVER_ERROR);
         }
 
+        @ExceptionHandler({YauaaReloadFailed.class})
+        public ResponseEntity<Object> handleYauaaReloadFailed(
+            Exception ex,
+            @SuppressWarnings("unused") WebRequest request) {
+            final HttpHeaders httpHeaders = new HttpHeaders();
+            return new ResponseEntity<>(ex.getMessage(), httpHeaders, INTERNAL_SERVER_ERROR);
+        }
+
     }
 
     private static final long MEGABYTE = 1024L * 1024L;
@@ -346,6 +376,10 @@ public class ParseService {
     private static class MissingUserAgentException extends RuntimeException {
     }
 
+    @ResponseStatus(value = HttpStatus.FORBIDDEN, reason = "Reloading the rules has not been enabled (yauaa.reload.enabled)")
+    private static class ReloadDisabledException extends RuntimeException {
+    }
+
     // =============== HTML (Human usable) OUTPUT ===============
 
     @GetMapping(
@@ -458,15 +492,16 @@ public class ParseService {
         value = { API_BASE_PATH + "/analyze", API_BASE_PATH + "/analyze/json" },
         produces = APPLICATION_JSON_VALUE
     )
-    public String getJSonGET(
+    public void getJSonGET(
         @ApiParam(
             value = "The standard browser request header User-Agent is used as the input that is to be analyzed.",
             example = EXAMPLE_USERAGENT
         )
         @RequestHeader("User-Agent")
-        String userAgentString
-    ) {
-        return doJSon(userAgentString);
+        String userAgentString,
+        HttpServletResponse response
+    ) throws IOException {
+        doJSon(userAgentString, response);
     }
 
     // -------------------------------------------------
@@ -491,7 +526,7 @@ public class ParseService {
             })
         )
     })
-    public String getJSonPOST(
+    public void getJSonPOST(
         @ApiParam(
             name ="Request body",
             type = "Map",
@@ -499,9 +534,10 @@ public class ParseService {
             value = "The entire POSTed value is used as the input that is to be analyzed.",
             examples = @Example(@ExampleProperty(mediaType = TEXT_PLAIN_VALUE, value = EXAMPLE_USERAGENT))
         )
-        @RequestBody String userAgentString
-    ) {
-        return doJSon(userAgentString);
+        @RequestBody String userAgentString,
+        HttpServletResponse response
+    ) throws IOException {
+        doJSon(userAgentString, response);
     }
 
     // =============== XML OUTPUT ===============
@@ -527,15 +563,16 @@ public class ParseService {
         value = { API_BASE_PATH + "/analyze", API_BASE_PATH + "/analyze/xml" },
         produces = APPLICATION_XML_VALUE
     )
-    public String getXMLGET(
+    public void getXMLGET(
         @ApiParam(
             value = "The standard browser request header User-Agent is used as the input that is to be analyzed.",
             example = EXAMPLE_USERAGENT
         )
         @RequestHeader("User-Agent")
-            String userAgentString
-    ) {
-        return doXML(userAgentString);
+            String userAgentString,
+        HttpServletResponse response
+    ) throws IOException {
+        doXML(userAgentString, response);
     }
 
     // -------------------------------------------------
@@ -548,7 +585,7 @@ public class ParseService {
         consumes = TEXT_PLAIN_VALUE,
         produces = APPLICATION_XML_VALUE
     )
-    public String getXMLPOST(
+    public void getXMLPOST(
         @ApiParam(
             name ="Request body",
             type = "Map",
@@ -556,9 +593,10 @@ public class ParseService {
             value = "The entire POSTed value is used as the input that is to be analyzed.",
             examples = @Example(@ExampleProperty(mediaType = TEXT_PLAIN_VALUE, value = EXAMPLE_USERAGENT))
         )
-        @RequestBody String userAgentString
-    ) {
-        return doXML(userAgentString);
+        @RequestBody String userAgentString,
+        HttpServletResponse response
+    ) throws IOException {
+        doXML(userAgentString, response);
     }
 
     // =============== Specials ===============
@@ -587,12 +625,13 @@ public class ParseService {
     )
     public String getPreHeat() {
         ensureStartedForApis(OutputType.JSON);
-        final int cacheSize = userAgentAnalyzer.getCacheSize();
-        userAgentAnalyzer.disableCaching();
+        UserAgentAnalyzer uaa = userAgentAnalyzer.get();
+        final int cacheSize = uaa.getCacheSize();
+        uaa.disableCaching();
         long       start     = System.nanoTime();
-        final long testsDone = userAgentAnalyzer.preHeat();
+        final long testsDone = uaa.preHeat();
         long       stop      = System.nanoTime();
-        userAgentAnalyzer.setCacheSize(cacheSize);
+        uaa.setCacheSize(cacheSize);
         if (testsDone == 0) {
             return "{ \"status\": \"No testcases available\", \"testsDone\": 0 , \"timeInMs\" : -1 } ";
         }
@@ -649,6 +688,61 @@ public class ParseService {
 
     // ===========================================
 
+    @ApiOperation(
+        value = "Reload all rules (including the custom rules in the UserAgents* directories) without stopping the service",
+        notes = "The new rules are only used after all test cases have passed. " +
+            "Until then all requests are handled by the current rules. The parse cache is invalidated. " +
+            "This is disabled unless the service was started with yauaa.reload.enabled=true."
+    )
+    @ApiResponses({
+        @ApiResponse(
+            code = 200, // HttpStatus.OK
+            message = "The new rules are in use",
+            examples = @Example(
+                value = {
+                    @ExampleProperty(
+                        mediaType = TEXT_PLAIN_VALUE,
+                        value = "Reloaded the rules in 12345 ms"),
+                }
+            )
+        ),
+        @ApiResponse(
+            code = 403, // HttpStatus.FORBIDDEN
+            message = "Reloading the rules has not been enabled"
+        ),
+        @ApiResponse(
+            code = 500, // HttpStatus.INTERNAL_SERVER_ERROR
+            message = "The new rules failed and the current rules remain in use",
+            examples = @Example(
+                value = {
+                    @ExampleProperty(
+                        mediaType = TEXT_PLAIN_VALUE,
+                        value = "Extensive text describing what went wrong"),
+                }
+            )
+        )
+    })
+    @PostMapping(
+        value = API_BASE_PATH + "/reload",
+        produces = TEXT_PLAIN_VALUE
+    )
+    public String reload() {
+        if (!reloadEnabled) {
+            throw new ReloadDisabledException();
+        }
+        ensureStartedForApis(OutputType.TXT);
+        long start = System.nanoTime();
+        try {
+            userAgentAnalyzer.reload(true, false);
+        } catch (RuntimeException e) {
+            throw new YauaaReloadFailed(e.getMessage(), e);
+        }
+        long stop = System.nanoTime();
+        return "Reloaded the rules in " + (stop - start) / 1000000 + " ms";
+    }
+
+    // ===========================================
+
     private String doHTML(String userAgentString) {
         long start      = System.nanoTime();
         long startParse = 0;
@@ -897,32 +991,57 @@ public class ParseService {
         return "";
     }
 
-    private String doJSon(String userAgentString) {
+    private void doJSon(String userAgentString, HttpServletResponse response) throws IOException {
         if (userAgentString == null) {
             throw new MissingUserAgentException();
         }
         ensureStartedForApis(OutputType.JSON);
+        response.setContentType(APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(UTF_8.name());
+        // The results are streamed to the client through the one writer of this response.
+        Writer result = response.getWriter();
         if (userAgentAnalyzerIsAvailable) {
-            List<String> result = new ArrayList<>(2048);
-            splitPerFilledLine(userAgentString)
-                .forEach(ua -> result.add(userAgentAnalyzer.parse(ua).toJson()));
-            return "[" + String.join(",\n", result) + "]";
+            result.append('[');
+            boolean addSeparator = false;
+            for (String ua : splitPerFilledLine(userAgentString)) {
+                if (addSeparator) {
+                    result.append(",\n");
+                } else {
+                    addSeparator = true;
+                }
+                USER_AGENT_WRITER.writeJson(userAgentAnalyzer.parse(ua), result);
+            }
+            result.append(']');
+        } else {
+            result.append("[{}]");
         }
-        return "[{}]";
+        result.flush();
     }
 
-    private String doXML(String userAgentString) {
+    private void doXML(String userAgentString, HttpServletResponse response) throws IOException {
         if (userAgentString == null) {
             throw new MissingUserAgentException();
         }
         ensureStartedForApis(OutputType.XML);
+        response.setContentType(APPLICATION_XML_VALUE);
+        response.setCharacterEncoding(UTF_8.name());
+        // The results are streamed to the client through the one writer of this response.
+        Writer result = response.getWriter();
         if (userAgentAnalyzerIsAvailable) {
-            List<String> result = new ArrayList<>(2048);
-            splitPerFilledLine(userAgentString)
-                .forEach(ua -> result.add(userAgentAnalyzer.parse(ua).toXML()));
-            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + String.join("\n", result);
+            result.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            boolean addSeparator = false;
+            for (String ua : splitPerFilledLine(userAgentString)) {
+                if (addSeparator) {
+                    result.append('\n');
+                } else {
+                    addSeparator = true;
+                }
+                USER_AGENT_WRITER.writeXML(userAgentAnalyzer.parse(ua), result);
+            }
+        } else {
+            result.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Yauaa></Yauaa>");
         }
-        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Yauaa></Yauaa>";
+        result.flush();
     }
 
     private void addBugReportButton(StringBuilder sb, UserAgent userAgent) {
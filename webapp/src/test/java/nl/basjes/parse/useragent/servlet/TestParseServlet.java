@@ -197,4 +197,14 @@ public class TestParseServlet {
         assertThat(response.getBody()).contains("<AgentNameVersion>" + EXPECT_AGENT_NAME_VERSION + "</AgentNameVersion>");
     }
 
+    @Test
+    public void testReloadIsDisabledByDefault() {
+        HttpHeaders headers = new HttpHeaders();
+        HttpEntity<String> request = new HttpEntity<>("", headers);
+
+        ResponseEntity<String> response = this.restTemplate.postForEntity(getURI("/yauaa/v1/reload"), request, String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
 }